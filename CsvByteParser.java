@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+// Decodes roster CSV records straight out of a memory-mapped file.
+// Follows the same rules as CsvImport.parseRow (splitCSVLine + trim + Integer.parseInt) but works
+// on byte offsets: the only per-row allocation is the student's name String.
+// The mapping is read in 1 MB blocks into one reused array (a bulk copy, cheaper than per-byte
+// MappedByteBuffer.get); a partial line at the end of a block is carried to the next one.
+// Delimiters are ASCII, so UTF-8 names pass through untouched; trimming drops bytes <= ' '
+// exactly like String.trim(). Numbers and "Absent" are matched as ASCII; a field with any other
+// byte is decoded and given to Integer.parseInt / equalsIgnoreCase as the line-based reader does
+// (they accept other Unicode digits and case forms). CsvParity checks the two readers agree.
+// One parser per thread.
+class CsvByteParser {
+    interface BatchHandler {
+        // Called in file order with a full (or final) batch and the file offset reached;
+        // returns the batch to fill next (the same one if it has been consumed)
+        CsvImport.RowBatch accept(CsvImport.RowBatch batch, long position) throws Exception;
+    }
+
+    static final long WINDOW = 256L << 20; // bytes mapped at a time
+    private static final int BLOCK = 1 << 20;
+
+    private final byte[][] subjects; // UTF-8 subject names by position
+    private final boolean[] plainName; // no ':', ',', '"' or edge spaces, so "Name:87" can be matched directly
+    private byte[] block = new byte[BLOCK];
+
+    private FileChannel ch;
+    private MappedByteBuffer window;
+    private long windowStart, windowEnd;
+
+    // counters for the range being parsed
+    long rows, skipped;
+
+    CsvByteParser(List<String> subjectNames) {
+        subjects = new byte[subjectNames.size()][];
+        plainName = new boolean[subjects.length];
+        for (int i = 0; i < subjects.length; i++) {
+            String nm = subjectNames.get(i);
+            subjects[i] = nm.getBytes(StandardCharsets.UTF_8);
+            plainName[i] = nm.indexOf(':') < 0 && nm.indexOf(',') < 0 && nm.indexOf('"') < 0 && nm.equals(nm.trim());
+        }
+    }
+
+    // Parses every line that starts in [from, to); 'from' must be a line start.
+    // Returns false if the import was cancelled.
+    boolean parseRange(FileChannel ch, long from, long to, CsvImport.RowBatch batch,
+                       BatchHandler out, CsvImport owner) throws Exception {
+        this.ch = ch;
+        window = null;
+        long fileEnd = ch.size();
+        long blockPos = from; // file offset of block[0]
+        int filled = 0;
+        while (blockPos < to) {
+            if (owner.isCancelled()) return false;
+            if (filled == block.length) block = Arrays.copyOf(block, block.length * 2); // line longer than a block
+            int n = (int) Math.min(block.length - filled, fileEnd - blockPos - filled);
+            copy(blockPos + filled, filled, n);
+            filled += n;
+            boolean eof = blockPos + filled == fileEnd;
+
+            int ls = 0;
+            while (ls < filled && blockPos + ls < to) {
+                int eol = ls;
+                while (eol < filled && block[eol] != '\n' && block[eol] != '\r') eol++;
+                // need the next byte to tell \r from \r\n
+                if (!eof && (eol == filled || (eol == filled - 1 && block[eol] == '\r'))) break;
+                parseLine(block, ls, eol, batch);
+                if (batch.isFull()) {
+                    batch = out.accept(batch, blockPos + eol);
+                    batch.size = 0;
+                }
+                ls = nextLine(block, eol, filled);
+            }
+            if (eof && (ls >= filled || blockPos + ls >= to)) break;
+            System.arraycopy(block, ls, block, 0, filled - ls);
+            filled -= ls;
+            blockPos += ls;
+        }
+        window = null;
+        this.ch = null;
+        if (batch.size > 0) out.accept(batch, to);
+        return true;
+    }
+
+    // Copy len file bytes at pos into block[off..], remapping windows as needed
+    private void copy(long pos, int off, int len) throws IOException {
+        while (len > 0) {
+            if (window == null || pos < windowStart || pos >= windowEnd) {
+                windowStart = pos;
+                windowEnd = Math.min(ch.size(), pos + WINDOW);
+                window = ch.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            }
+            int n = (int) Math.min(len, windowEnd - pos);
+            window.get((int) (pos - windowStart), block, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Position after the terminator at eol (\n, \r or \r\n), as BufferedReader.readLine does
+    static int nextLine(byte[] b, int eol, int size) {
+        if (eol >= size) return size;
+        if (b[eol] == '\r' && eol + 1 < size && b[eol + 1] == '\n') return eol + 2;
+        return eol + 1;
+    }
+
+    // One record in b[s, e) (terminator excluded). Blank lines are ignored, other malformed
+    // lines count as skipped; see CsvImport.RowBatch for rows whose marks are invalid.
+    void parseLine(byte[] b, int s, int e, CsvImport.RowBatch batch) {
+        int ts = trimStart(b, s, e), te = trimEnd(b, ts, e);
+        if (ts == te) return;
+        rows++;
+
+        // field 0 (name) and field 1 (roll); quotes toggle comma splitting for the whole line
+        boolean inQuotes = false;
+        int c0 = -1, c1 = e;
+        for (int i = s; i < e; i++) {
+            byte c = b[i];
+            if (c == '"') inQuotes = !inQuotes;
+            else if (c == ',' && !inQuotes) {
+                if (c0 < 0) c0 = i;
+                else { c1 = i; break; }
+            }
+        }
+        if (c0 < 0) { skipped++; return; }
+
+        int ns = trimStart(b, s, c0), ne = trimEnd(b, ns, c0);
+        if (ne - ns >= 2 && b[ns] == '"' && b[ne - 1] == '"') { ns++; ne--; }
+        if (ns == ne) { skipped++; return; }
+
+        int rs = trimStart(b, c0 + 1, c1);
+        long roll = parseInt(b, rs, trimEnd(b, rs, c1));
+        if (roll == Long.MIN_VALUE || roll < Integer.MIN_VALUE || roll > Integer.MAX_VALUE) { skipped++; return; }
+
+        int row = batch.size;
+        int base = row * batch.width;
+        Arrays.fill(batch.marks, base, base + batch.width, MarkStore.ABSENT);
+        batch.valid[row] = parseMarks(b, c1, e, batch.marks, base);
+        batch.rolls[row] = (int) roll;
+        batch.names[row] = new String(b, ns, ne - ns, StandardCharsets.UTF_8);
+        batch.size++;
+    }
+
+    // Fields after the roll, each "Subject:mark"; c is the comma before the first one (or e)
+    private boolean parseMarks(byte[] b, int c, int e, byte[] marks, int base) {
+        boolean inQuotes = false;
+        int expect = 0; // records are normally written in subject order
+        while (c < e) {
+            // fast path: "<expected subject>:<1-3 digits>" followed by ',' or end of line
+            if (!inQuotes && expect < subjects.length && plainName[expect]) {
+                byte[] nm = subjects[expect];
+                int q = c + 1 + nm.length;
+                if (q < e && b[q] == ':' && Arrays.equals(b, c + 1, q, nm, 0, nm.length)) {
+                    int v = 0, d = 0, x;
+                    q++;
+                    while (d < 3 && q < e && (x = b[q] - '0') >= 0 && x <= 9) { v = v * 10 + x; q++; d++; }
+                    if (d > 0 && v <= 100 && (q == e || b[q] == ',')) {
+                        marks[base + expect++] = (byte) v;
+                        c = q;
+                        continue;
+                    }
+                }
+            }
+            int fs = c + 1, fe = fs, colon = -1;
+            for (; fe < e; fe++) {
+                byte x = b[fe];
+                if (x == '"') inQuotes = !inQuotes;
+                else if (x == ',' && !inQuotes) break;
+                else if (x == ':' && colon < 0) colon = fe;
+            }
+            if (colon < 0) return false;
+            int ss = trimStart(b, fs, colon), se = trimEnd(b, ss, colon);
+            if (ss == se) return false;
+            int ms = trimStart(b, colon + 1, fe), me = trimEnd(b, ms, fe);
+            int m;
+            if (isAbsent(b, ms, me)) m = -1;
+            else {
+                long v = parseInt(b, ms, me);
+                if (v < 0 || v > 100) return false; // also rejects Long.MIN_VALUE (not a number)
+                m = (int) v;
+            }
+            int pos = subjectAt(b, ss, se, expect);
+            if (pos >= 0) {
+                marks[base + pos] = (byte) m;
+                expect = pos + 1;
+            }
+            c = fe;
+        }
+        return true;
+    }
+
+    // Integer.parseInt rules for ASCII digits: optional sign, at least one digit; a non-ASCII
+    // byte hands the field to Integer.parseInt itself.
+    // Returns Long.MIN_VALUE if malformed; magnitudes past int range saturate out of range.
+    static long parseInt(byte[] b, int s, int e) {
+        if (s == e) return Long.MIN_VALUE;
+        int from = s;
+        boolean neg = false;
+        byte first = b[s];
+        if (first == '-' || first == '+') {
+            neg = first == '-';
+            if (++s == e) return Long.MIN_VALUE;
+        }
+        long v = 0;
+        for (int i = s; i < e; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) return (b[i] < 0) ? parseText(b, from, e) : Long.MIN_VALUE;
+            if (v <= Integer.MAX_VALUE + 1L) v = v * 10 + d;
+        }
+        return neg ? -v : v;
+    }
+
+    private static long parseText(byte[] b, int s, int e) {
+        try {
+            return Integer.parseInt(new String(b, s, e - s, StandardCharsets.UTF_8));
+        } catch (NumberFormatException ex) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static boolean isAbsent(byte[] b, int s, int e) {
+        if (e - s > 6) {
+            // six chars, some outside ASCII (e.g. U+017F, which equalsIgnoreCase takes for 's')
+            for (int i = s; i < e; i++) {
+                if (b[i] < 0) return new String(b, s, e - s, StandardCharsets.UTF_8).equalsIgnoreCase("Absent");
+            }
+            return false;
+        }
+        return e - s == 6
+                && (b[s] | 0x20) == 'a' && (b[s + 1] | 0x20) == 'b' && (b[s + 2] | 0x20) == 's'
+                && (b[s + 3] | 0x20) == 'e' && (b[s + 4] | 0x20) == 'n' && (b[s + 5] | 0x20) == 't';
+    }
+
+    // Position of the subject named b[s, e), trying 'expect' first; -1 if unknown
+    private int subjectAt(byte[] b, int s, int e, int expect) {
+        if (expect < subjects.length && Arrays.equals(b, s, e, subjects[expect], 0, subjects[expect].length)) return expect;
+        for (int p = 0; p < subjects.length; p++) {
+            if (Arrays.equals(b, s, e, subjects[p], 0, subjects[p].length)) return p;
+        }
+        return -1;
+    }
+
+    private static int trimStart(byte[] b, int s, int e) {
+        while (s < e && (b[s] & 0xFF) <= ' ') s++;
+        return s;
+    }
+
+    private static int trimEnd(byte[] b, int s, int e) {
+        while (e > s && (b[e - 1] & 0xFF) <= ' ') e--;
+        return e;
+    }
+
+    // First line start at or after pos (0 < pos <= file size), using readLine's terminators
+    static long lineStartAtOrAfter(FileChannel ch, long pos) throws IOException {
+        long size = ch.size();
+        byte[] b = new byte[8192];
+        for (long at = pos - 1; at < size; ) {
+            int n = (int) Math.min(b.length, size - at);
+            ch.map(FileChannel.MapMode.READ_ONLY, at, n).get(b, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (b[i] == '\n') return at + i + 1;
+                if (b[i] == '\r') {
+                    long next = at + i + 1;
+                    if (next < size && (i + 1 < n ? b[i + 1] : peek(ch, next)) == '\n') return next + 1;
+                    return next;
+                }
+            }
+            at += n;
+        }
+        return size;
+    }
+
+    private static byte peek(FileChannel ch, long pos) throws IOException {
+        return ch.map(FileChannel.MapMode.READ_ONLY, pos, 1).get(0);
+    }
+
+    // Reads the first line of the file; used for the #SUBJECTNAMES= header
+    static String firstLine(FileChannel ch, int maxBytes) throws IOException {
+        byte[] b = head(ch, maxBytes);
+        return new String(b, 0, lineEnd(b), StandardCharsets.UTF_8);
+    }
+
+    // Byte offset just past the first line (0 for an empty file)
+    static long afterFirstLine(FileChannel ch, int maxBytes) throws IOException {
+        byte[] b = head(ch, maxBytes);
+        return nextLine(b, lineEnd(b), b.length);
+    }
+
+    private static byte[] head(FileChannel ch, int maxBytes) throws IOException {
+        byte[] b = new byte[(int) Math.min(maxBytes, ch.size())];
+        ch.map(FileChannel.MapMode.READ_ONLY, 0, b.length).get(b);
+        return b;
+    }
+
+    private static int lineEnd(byte[] b) {
+        int eol = 0;
+        while (eol < b.length && b[eol] != '\n' && b[eol] != '\r') eol++;
+        return eol;
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+
+// Writes a roster CSV (see loadcsv_format) off the event dispatch thread.
+// Works from a RosterSnapshot.Data copy, or from a RosterVersion taken on the EDT (O(1)) that
+// run() copies on its own thread, so edits made while it runs neither reach the file nor wait
+// for it. Lines are encoded straight into a 1 MB buffer written through a FileChannel to a temp
+// file next to the target; only a complete, fsynced file is renamed over the target, so a crash
+// or cancel leaves the old file untouched. Text is UTF-8, as CsvImport reads it.
+class CsvExport {
+    private static final int BUFFER = 1 << 20;
+    private static final byte[] LINE_END = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ABSENT = "Absent".getBytes(StandardCharsets.US_ASCII);
+
+    private final RosterVersion version; // copied into data by run()
+    private RosterSnapshot.Data data;
+    private final File target;
+    private volatile boolean cancelled;
+
+    // progress, readable from any thread
+    volatile int rowsWritten;
+
+    public CsvExport(RosterSnapshot.Data data, File target) {
+        this.data = data;
+        this.version = null;
+        this.target = target;
+    }
+
+    public CsvExport(RosterVersion version, File target) {
+        this.version = version;
+        this.target = target;
+    }
+
+    public int rows() {
+        return (data != null) ? data.size() : version.size();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Runs on the calling thread; returns false if cancelled (the target is then unchanged)
+    public boolean run() throws IOException {
+        GradeEvents.Save event = new GradeEvents.Save("csv", target.getPath());
+        try {
+            event.completed = write();
+            if (event.completed) event.bytes = target.length();
+            return event.completed;
+        } finally {
+            event.rows = rowsWritten;
+            event.done();
+        }
+    }
+
+    private boolean write() throws IOException {
+        if (data == null) data = version.toData();
+        int width = data.subjects.size();
+        try (Writer w = new Writer(target, data.subjects)) {
+            for (int i = 0; i < data.size(); i++) {
+                if ((i & 1023) == 0) {
+                    if (cancelled) return false;
+                    rowsWritten = i;
+                }
+                w.row(data.names[i], data.rolls[i], data.marks, i * width);
+            }
+            w.commit();
+        }
+        rowsWritten = data.size();
+        return true;
+    }
+
+    // Row-at-a-time form, for callers that never hold the whole roster (GradeBatch --stream).
+    // Nothing reaches the target until commit(); closing without it deletes the temp file.
+    static class Writer implements Closeable {
+        private final Path target, tmp;
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(BUFFER);
+        // ",Subject:" for every subject, and every possible mark, encoded once
+        private final byte[][] prefix;
+        private final byte[][] markText = new byte[101][];
+        private boolean committed;
+
+        Writer(File target, List<String> subjects) throws IOException {
+            this.target = target.toPath();
+            // same directory so the rename stays on one file system; created like a normal file so it
+            // gets the usual permissions (Files.createTempFile would make it owner-only)
+            Path dir = target.getAbsoluteFile().toPath().getParent();
+            tmp = dir.resolve("." + target.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+            ch = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            prefix = new byte[subjects.size()][];
+            for (int i = 0; i < prefix.length; i++) prefix[i] = ("," + subjects.get(i) + ":").getBytes(StandardCharsets.UTF_8);
+            for (int m = 0; m <= 100; m++) markText[m] = Integer.toString(m).getBytes(StandardCharsets.US_ASCII);
+            put((CsvImport.HEADER_PREFIX + String.join(";;", subjects)).getBytes(StandardCharsets.UTF_8));
+            put(LINE_END);
+        }
+
+        // marks[off..off + subjects) in subject order, -1 = Absent
+        void row(String name, int roll, byte[] marks, int off) throws IOException {
+            if (name.contains(",")) name = "\"" + name + "\"";
+            put(name.getBytes(StandardCharsets.UTF_8));
+            put(("," + roll).getBytes(StandardCharsets.US_ASCII));
+            for (int j = 0; j < prefix.length; j++) {
+                put(prefix[j]);
+                int m = marks[off + j];
+                put((m < 0) ? ABSENT : markText[m]);
+            }
+            put(LINE_END);
+        }
+
+        // Flush, fsync and move the file over the target (atomically where the file system can)
+        void commit() throws IOException {
+            drain();
+            ch.force(true);
+            ch.close();
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            ch.close();
+            Files.deleteIfExists(tmp);
+        }
+
+        private void put(byte[] b) throws IOException {
+            if (b.length > buf.remaining()) {
+                drain();
+                if (b.length > buf.remaining()) {
+                    ByteBuffer big = ByteBuffer.wrap(b);
+                    while (big.hasRemaining()) ch.write(big);
+                    return;
+                }
+            }
+            buf.put(b);
+        }
+
+        private void drain() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Streams a roster CSV (see loadcsv_format) off the event dispatch thread.
+// Rows are validated and decoded here and handed to a Sink in fixed-size batches;
+// the Sink decides how they become students (duplicate checks need the live roll index).
+// Regular files are decoded in place from a memory map by CsvByteParser; the line-based
+// reader below is kept for streams that cannot be mapped (pipes, stdin).
+// Large files are cut into line-aligned chunks parsed in parallel; chunk results reach the
+// Sink strictly in file order, so duplicate handling and counters match a sequential load.
+class CsvImport {
+    static final String HEADER_PREFIX = "#SUBJECTNAMES=";
+    static final int BATCH_ROWS = 4096;
+    private static final int HEADER_SCAN = 1 << 20;
+    static final long CHUNK_BYTES = 16L << 20;
+
+    // Decoded rows; marks are laid out row-major in the order of the announced subject list.
+    // A row whose name and roll parsed but whose marks did not is kept with valid[i] == false:
+    // the loader has always reported such a row as a duplicate when the roll is already taken.
+    static class RowBatch {
+        final int width;
+        final String[] names = new String[BATCH_ROWS];
+        final int[] rolls = new int[BATCH_ROWS];
+        final boolean[] valid = new boolean[BATCH_ROWS];
+        final byte[] marks;
+        int size;
+
+        RowBatch(int width) {
+            this.width = width;
+            this.marks = new byte[BATCH_ROWS * width];
+        }
+
+        boolean isFull() {
+            return size == BATCH_ROWS;
+        }
+
+        // mark of row i for subject position pos; -1 means Absent
+        int mark(int i, int pos) {
+            return marks[i * width + pos];
+        }
+    }
+
+    interface Sink {
+        // Called once before any batch with the subject list the rows are aligned to
+        void subjects(List<String> names) throws Exception;
+
+        // Called in file order; the batch is reused once this returns
+        void batch(RowBatch batch) throws Exception;
+    }
+
+    private final File file;
+    private final List<String> defaultSubjects;
+    private volatile boolean cancelled;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long chunkBytes = CHUNK_BYTES;
+
+    // progress, readable from any thread
+    volatile long bytesRead;
+    volatile int rowsRead;
+    volatile int skipped;
+
+    public CsvImport(File file, List<String> defaultSubjects) {
+        this.file = file;
+        this.defaultSubjects = new ArrayList<>(defaultSubjects);
+    }
+
+    public long length() {
+        return file.length();
+    }
+
+    // Worker threads for mapped files; 1 parses on the calling thread only
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public void setChunkBytes(long chunkBytes) {
+        this.chunkBytes = Math.max(1, chunkBytes);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Runs on the calling thread; returns false if cancelled before the end of the file
+    public boolean run(Sink sink) throws Exception {
+        if (!file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                return run(sink, in);
+            }
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            String first = CsvByteParser.firstLine(ch, HEADER_SCAN);
+            List<String> subjects = defaultSubjects;
+            long from = 0;
+            if (first.startsWith(HEADER_PREFIX)) {
+                List<String> newNames = parseHeader(first);
+                if (!newNames.isEmpty()) subjects = newNames;
+                from = CsvByteParser.afterFirstLine(ch, HEADER_SCAN);
+            }
+            sink.subjects(subjects);
+
+            long end = ch.size();
+            if (parallelism > 1 && end - from > 2 * chunkBytes) return runChunked(ch, from, end, subjects, sink);
+
+            CsvByteParser parser = new CsvByteParser(subjects);
+            return parser.parseRange(ch, from, end, new RowBatch(subjects.size()), (b, position) -> {
+                sink.batch(b);
+                bytesRead = position;
+                rowsRead = (int) parser.rows;
+                skipped = (int) parser.skipped;
+                return b;
+            }, this) && finish(end, parser.rows, parser.skipped);
+        }
+    }
+
+    private boolean finish(long end, long rows, long skippedRows) {
+        bytesRead = end;
+        rowsRead = (int) rows;
+        skipped = (int) skippedRows;
+        return true;
+    }
+
+    // One parsed chunk, held until every earlier chunk has been handed to the sink
+    private static class Chunk {
+        final List<RowBatch> batches = new ArrayList<>();
+        long end, rows, skipped;
+    }
+
+    // Parses chunks on a pool and feeds them to the sink in file order. At most
+    // 2 x parallelism chunks are parsed ahead, which bounds the memory held in decoded batches.
+    private boolean runChunked(FileChannel ch, long from, long end, List<String> subjects, Sink sink) throws Exception {
+        List<Long> starts = new ArrayList<>();
+        starts.add(from);
+        for (long p = from + chunkBytes; p < end; p += chunkBytes) {
+            long aligned = CsvByteParser.lineStartAtOrAfter(ch, p);
+            if (aligned >= end) break;
+            if (aligned > starts.get(starts.size() - 1)) starts.add(aligned);
+        }
+        starts.add(end);
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "csv-import-chunk");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            int next = 0, chunks = starts.size() - 1;
+            long rows = 0, skippedRows = 0;
+            while (next < chunks && inFlight.size() < parallelism * 2) inFlight.add(submitChunk(pool, ch, starts, next++, subjects));
+            while (!inFlight.isEmpty()) {
+                Chunk c;
+                try {
+                    c = inFlight.poll().get();
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    throw (cause instanceof Exception) ? (Exception) cause : ex;
+                }
+                if (next < chunks) inFlight.add(submitChunk(pool, ch, starts, next++, subjects));
+                if (c == null || cancelled) return false;
+                for (RowBatch b : c.batches) {
+                    if (cancelled) return false;
+                    sink.batch(b);
+                }
+                rows += c.rows;
+                skippedRows += c.skipped;
+                finish(c.end, rows, skippedRows);
+            }
+            return !cancelled;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Future<Chunk> submitChunk(ExecutorService pool, FileChannel ch, List<Long> starts, int i, List<String> subjects) {
+        long from = starts.get(i), to = starts.get(i + 1);
+        return pool.submit(() -> {
+            Chunk c = new Chunk();
+            CsvByteParser parser = new CsvByteParser(subjects);
+            boolean done = parser.parseRange(ch, from, to, new RowBatch(subjects.size()), (b, position) -> {
+                c.batches.add(b);
+                return new RowBatch(subjects.size());
+            }, this);
+            if (!done) return null;
+            c.end = to;
+            c.rows = parser.rows;
+            c.skipped = parser.skipped;
+            return c;
+        });
+    }
+
+    // Line-based path for unmappable input; same rules as CsvByteParser
+    public boolean run(Sink sink, InputStream raw) throws Exception {
+        try (CountingInput in = new CountingInput(raw);
+             BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+            String first = br.readLine();
+            List<String> subjects = defaultSubjects;
+            if (first != null && first.startsWith(HEADER_PREFIX)) {
+                List<String> newNames = parseHeader(first);
+                if (!newNames.isEmpty()) subjects = newNames;
+                first = null;
+            }
+            sink.subjects(subjects);
+
+            Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < subjects.size(); i++) positions.put(subjects.get(i), i);
+
+            RowBatch batch = new RowBatch(subjects.size());
+            String line = (first != null) ? first : br.readLine();
+            for (; line != null; line = br.readLine()) {
+                if (cancelled) return false;
+                bytesRead = in.count;
+                if (line.trim().isEmpty()) continue;
+                rowsRead++;
+                if (!parseRow(line, positions, batch)) { skipped++; continue; }
+                if (batch.isFull()) {
+                    sink.batch(batch);
+                    batch.size = 0;
+                }
+            }
+            bytesRead = in.count;
+            if (cancelled) return false;
+            if (batch.size > 0) sink.batch(batch);
+            return true;
+        }
+    }
+
+    static List<String> parseHeader(String line) {
+        String namesStr = line.substring(HEADER_PREFIX.length());
+        List<String> newNames = new ArrayList<>();
+        for (String nm : namesStr.split(";;", -1)) if (!nm.trim().isEmpty()) newNames.add(nm);
+        return newNames;
+    }
+
+    // Appends one record to the batch; false if the name or roll is malformed.
+    // Subjects not in the list are validated but dropped; missing subjects stay Absent.
+    static boolean parseRow(String line, Map<String, Integer> positions, RowBatch batch) {
+        String[] parts = splitCSVLine(line);
+        if (parts.length < 2) return false;
+
+        String name = parts[0].trim();
+        if (name.startsWith("\"") && name.endsWith("\"")) name = name.substring(1, name.length()-1);
+        if (name.isEmpty()) return false;
+
+        int roll;
+        try { roll = Integer.parseInt(parts[1].trim()); }
+        catch (NumberFormatException ex) { return false; }
+
+        int base = batch.size * batch.width;
+        Arrays.fill(batch.marks, base, base + batch.width, MarkStore.ABSENT);
+        batch.names[batch.size] = name;
+        batch.rolls[batch.size] = roll;
+        batch.valid[batch.size] = parseMarks(parts, positions, batch.marks, base);
+        batch.size++;
+        return true;
+    }
+
+    private static boolean parseMarks(String[] parts, Map<String, Integer> positions, byte[] marks, int base) {
+        for (int i = 2; i < parts.length; i++) {
+            String[] sm = parts[i].split(":", 2);
+            if (sm.length != 2) return false;
+            String subj = sm[0].trim();
+            String markPart = sm[1].trim();
+            if (subj.isEmpty()) return false;
+            Integer pos = positions.get(subj);
+            int m;
+            if (markPart.equalsIgnoreCase("Absent")) m = -1;
+            else {
+                try {
+                    m = Integer.parseInt(markPart);
+                    if (m < 0 || m > 100) return false;
+                } catch (NumberFormatException ex) { return false; }
+            }
+            if (pos != null) marks[base + pos] = (byte) m;
+        }
+        return true;
+    }
+
+    // split CSV but keep quoted names intact
+    static String[] splitCSVLine(String line) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+                cur.append(c);
+            } else if (c == ',' && !inQuotes) {
+                parts.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        parts.add(cur.toString());
+        return parts.toArray(new String[0]);
+    }
+
+    // Byte counter for the progress bar (the reader buffers ahead, so this runs slightly early)
+    private static class CountingInput extends FilterInputStream {
+        long count;
+
+        CountingInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.List;
+
+// Randomized check that CsvImport's two readers decode the same file the same way: the mapped
+// one (CsvByteParser, sequential and chunked) and the line-based one for streams. Each round
+// writes a file of random records, mostly well formed but mixed with the cases the byte parser
+// handles on its own: quoted and padded names, signs, "Absent" in any case, unknown or repeated
+// subjects, missing colons, non-ASCII digits and letters, blank lines, \r\n endings. Every row
+// (name, roll, valid flag, marks) and the row and skipped counts must match.
+//
+//   java CsvParity [--rounds N] [--rows R] [--seed S]
+//
+// Exits with status 1 at the first difference, keeping the file that shows it.
+class CsvParity {
+    private static final List<String> SUBJECTS = Arrays.asList("Tamil", "English", "Maths", "Science");
+
+    private static final String[] NAMES = {
+            "Anitha", "Ravi Kumar", " Hema ", "\"Kumar, S\"", "\"\"", "", "  ", "O'Neil", "Zo\u00eb", "\u674e\u96f7",
+            "\"Priya", "Arun\"", "\"Meena\" ", "Tab\tName"
+    };
+    private static final String[] ROLLS = {
+            "+12", "-3", " 7 ", "0", "2147483647", "-2147483648", "2147483648", "99999999999", "",
+            "12a", "+", "-", "\u0663\u0664", "\uff11\uff12", "1\u0662", "x", " \u0665 "
+    };
+    private static final String[] MARKS = {
+            "Absent", "ABSENT", "absent", " Absent ", "Absen", "Absentt", "AB\u017fENT", "aB\u017fent", "101", "-1",
+            "+50", "007", "\u0669\u0660", "\uff19", "1\u0660", "x", "", " 88 ", "1000", "-0", "+", "\uff11\uff10\uff10"
+    };
+    private static final String[] ODD_SUBJECTS = {"Art", " Maths", "Maths ", "", "\"Tamil\"", "Scien\u00e7e"};
+
+    public static void main(String[] args) throws Exception {
+        int rounds = 200, rows = 2000;
+        long seed = System.nanoTime();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--rows": rows = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                default:
+                    System.err.println("Usage: java CsvParity [--rounds N] [--rows R] [--seed S]");
+                    System.exit(2);
+            }
+        }
+        System.out.println("seed " + seed);
+        Random rnd = new Random(seed);
+        File file = File.createTempFile("csv-parity", ".csv");
+        for (int r = 0; r < rounds; r++) {
+            Files.write(file.toPath(), randomFile(rnd, rows).getBytes(StandardCharsets.UTF_8));
+            String lines = load(file, false, 1);
+            String mapped = load(file, true, 1);
+            String chunked = load(file, true, 4);
+            String diff = firstDifference(lines, mapped, "mapped");
+            if (diff == null) diff = firstDifference(lines, chunked, "chunked");
+            if (diff != null) {
+                System.out.println("round " + r + ": " + diff + "\nfile kept: " + file);
+                System.exit(1);
+            }
+        }
+        Files.delete(file.toPath());
+        System.out.printf("%d rounds of %,d rows: the readers agree%n", rounds, rows);
+    }
+
+    private static String randomFile(Random rnd, int rows) {
+        StringBuilder sb = new StringBuilder();
+        if (rnd.nextInt(4) > 0) sb.append(CsvImport.HEADER_PREFIX).append(String.join(";;", SUBJECTS)).append('\n');
+        for (int i = 0; i < rows; i++) {
+            if (rnd.nextInt(50) == 0) sb.append(rnd.nextBoolean() ? "" : "   ");
+            else sb.append(randomRow(rnd, i));
+            sb.append(rnd.nextInt(10) == 0 ? "\r\n" : "\n");
+        }
+        return sb.toString();
+    }
+
+    private static String randomRow(Random rnd, int i) {
+        boolean odd = rnd.nextInt(3) == 0; // otherwise a well-formed row
+        StringBuilder sb = new StringBuilder();
+        sb.append(odd ? pick(rnd, NAMES) : "Student" + i).append(',');
+        sb.append(odd && rnd.nextInt(3) == 0 ? pick(rnd, ROLLS) : Integer.toString(rnd.nextInt(100_000)));
+        int fields = odd ? rnd.nextInt(SUBJECTS.size() + 3) : SUBJECTS.size();
+        for (int f = 0; f < fields; f++) {
+            sb.append(',');
+            String subject = (odd && rnd.nextInt(4) == 0) ? pick(rnd, ODD_SUBJECTS)
+                    : SUBJECTS.get(odd ? rnd.nextInt(SUBJECTS.size()) : f);
+            if (odd && rnd.nextInt(20) == 0) {
+                sb.append(subject); // no colon
+                continue;
+            }
+            sb.append(subject).append(':');
+            sb.append(odd && rnd.nextInt(3) == 0 ? pick(rnd, MARKS) : Integer.toString(rnd.nextInt(101)));
+        }
+        return sb.toString();
+    }
+
+    private static String pick(Random rnd, String[] from) {
+        return from[rnd.nextInt(from.length)];
+    }
+
+    // Every decoded row and the counters, one line each
+    private static String load(File file, boolean mapped, int threads) throws Exception {
+        CsvImport imp = new CsvImport(file, SUBJECTS);
+        imp.setParallelism(threads);
+        if (threads > 1) imp.setChunkBytes(4096);
+        StringBuilder out = new StringBuilder();
+        CsvImport.Sink sink = new CsvImport.Sink() {
+            @Override
+            public void subjects(List<String> names) {
+                out.append("subjects ").append(names).append('\n');
+            }
+
+            @Override
+            public void batch(CsvImport.RowBatch b) {
+                for (int i = 0; i < b.size; i++) {
+                    out.append(b.names[i]).append(" | ").append(b.rolls[i]).append(" | ").append(b.valid[i]);
+                    for (int j = 0; j < b.width; j++) out.append(' ').append(b.mark(i, j));
+                    out.append('\n');
+                }
+            }
+        };
+        if (mapped) {
+            imp.run(sink);
+        } else {
+            try (InputStream in = new FileInputStream(file)) {
+                imp.run(sink, in);
+            }
+        }
+        return out.append("rows ").append(imp.rowsRead).append(", skipped ").append(imp.skipped).append('\n').toString();
+    }
+
+    private static String firstDifference(String expected, String actual, String reader) {
+        if (expected.equals(actual)) return null;
+        String[] a = expected.split("\n", -1), b = actual.split("\n", -1);
+        for (int i = 0; ; i++) {
+            String x = (i < a.length) ? a[i] : "(end)", y = (i < b.length) ? b[i] : "(end)";
+            if (!x.equals(y)) return "line-based reader: " + x + "\n" + reader + " reader: " + y;
+        }
+    }
+}
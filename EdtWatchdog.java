@@ -0,0 +1,84 @@
+import java.awt.EventQueue;
+
+// Detects a blocked Swing event dispatch thread.
+// A daemon thread posts a probe to the event queue and waits for it to run. If it has not run
+// after the threshold, the EDT's stack is printed to stderr (while it is still stuck, so it
+// shows the culprit); when the probe finally runs, the stall goes to Metrics and a JFR EdtStall
+// event with its full length. Every probe's queue delay is also timed as "ui.eventQueueDelay".
+//
+// Threshold: -Dsgm.edtStallMs=N (default 500).
+final class EdtWatchdog {
+    static final long DEFAULT_THRESHOLD_MS = 500;
+
+    private final long thresholdNanos;
+    private volatile Thread edt;
+    private volatile boolean done = true;  // the last probe has run
+    private volatile long delay;           // how long the last probe waited, set before done
+    private long posted;                   // nanoTime the outstanding probe was posted
+    private String stuckStack;             // the current stall, once reported
+
+    private EdtWatchdog(long thresholdMillis) {
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+    }
+
+    static void start() {
+        long ms = DEFAULT_THRESHOLD_MS;
+        try {
+            ms = Math.max(10, Long.parseLong(System.getProperty("sgm.edtStallMs", Long.toString(ms))));
+        } catch (NumberFormatException ignored) {
+            // keep the default
+        }
+        EdtWatchdog w = new EdtWatchdog(ms);
+        Thread t = new Thread(w::watch, "edt-watchdog");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Only this thread reads or writes stall state; the probe just reports its delay
+    private void watch() {
+        long tick = Math.max(1, thresholdNanos / 4_000_000); // check four times per threshold
+        try {
+            while (true) {
+                if (done) {
+                    if (stuckStack != null) recordStall(delay, stuckStack);
+                    stuckStack = null;
+                    probe();
+                }
+                Thread.sleep(tick);
+                if (!done && stuckStack == null && System.nanoTime() - posted > thresholdNanos) reportStuck();
+            }
+        } catch (InterruptedException ex) {
+            // daemon; ends with the app
+        }
+    }
+
+    private void probe() {
+        done = false;
+        long at = System.nanoTime();
+        posted = at;
+        EventQueue.invokeLater(() -> {
+            edt = Thread.currentThread();
+            delay = Metrics.timer("ui.eventQueueDelay").since(at);
+            done = true;
+        });
+    }
+
+    private void reportStuck() {
+        Thread t = edt;
+        StringBuilder sb = new StringBuilder();
+        if (t == null) sb.append("\t(no probe has run on the EDT yet)\n");
+        else for (StackTraceElement e : t.getStackTrace()) sb.append("\tat ").append(e).append('\n');
+        stuckStack = sb.toString();
+        System.err.printf("EDT blocked for over %,d ms:%n%s", thresholdNanos / 1_000_000, stuckStack);
+    }
+
+    private void recordStall(long nanos, String stack) {
+        long ms = nanos / 1_000_000;
+        Metrics.stall(ms, stack);
+        GradeEvents.EdtStall e = new GradeEvents.EdtStall();
+        e.blocked = ms;
+        e.stack = stack;
+        e.commit();
+        System.err.printf("EDT unblocked after %,d ms%n", ms);
+    }
+}
@@ -0,0 +1,263 @@
+import java.util.*;
+import java.util.List;
+
+// Bitmap indexes for FilterQuery, kept up to date by Roster on every add, remove and update,
+// like RosterStats. Students are identified by their MarkStore row:
+//   - every student's row (for "not")
+//   - per grade of the scale, the rows with that grade
+//   - per MarkStore column, the rows Absent in it, and the rows per mark bucket of ten
+//     (0-9, 10-19, ..., 80-89, 90-100)
+// Columns rather than schema positions, so reordering or adding subjects needs no rebuild: a
+// new or cleared column is reset to everyone Absent. Grades are rebuilt in one pass on first
+// use after a subject list or scale change, as RosterStats recounts.
+class FilterIndex {
+    static final int BUCKETS = 10;
+
+    private final MarkStore marks;
+    private RowBitmap all = new RowBitmap();
+    private Student[] byRow = new Student[64];
+    private RowBitmap[] grades;
+    private boolean gradesStale;
+    private Column[] byColumn = new Column[0];
+    private static final Column NONE = new Column(); // read-only stand-in for a column with no rows
+
+    private static final class Column {
+        RowBitmap absent = new RowBitmap();
+        final RowBitmap[] buckets = new RowBitmap[BUCKETS];
+
+        Column() {
+            for (int b = 0; b < BUCKETS; b++) buckets[b] = new RowBitmap();
+        }
+    }
+
+    FilterIndex(MarkStore marks) {
+        this.marks = marks;
+        this.grades = newGrades();
+    }
+
+    static int bucket(int mark) {
+        return Math.min(mark / 10, BUCKETS - 1);
+    }
+
+    // ---- reads (owner thread, or under Roster.readLocked) ----
+
+    RowBitmap all() {
+        return all;
+    }
+
+    int size() {
+        return all.cardinality();
+    }
+
+    Student studentAt(int row) {
+        return byRow[row];
+    }
+
+    // True until grades() has been rebuilt after a subject list or scale change
+    boolean gradesStale() {
+        return gradesStale;
+    }
+
+    // Rows with this grade; empty for a letter the scale does not have
+    RowBitmap grade(char letter) {
+        if (gradesStale) throw new IllegalStateException("grades not rebuilt");
+        int i = marks.scale().indexOf(letter);
+        return (i >= 0 && i < grades.length) ? grades[i] : new RowBitmap();
+    }
+
+    RowBitmap absent(int col) {
+        return peek(col).absent;
+    }
+
+    // Rows with a mark from lo to hi (inclusive, 0-100) in the column: whole buckets are or'ed,
+    // the two edge buckets are checked mark by mark
+    RowBitmap marks(int col, int lo, int hi) {
+        lo = Math.max(lo, 0);
+        hi = Math.min(hi, 100);
+        RowBitmap out = new RowBitmap();
+        if (lo > hi) return out;
+        Column c = peek(col);
+        for (int b = bucket(lo); b <= bucket(hi); b++) {
+            int bLo = b * 10, bHi = (b == BUCKETS - 1) ? 100 : bLo + 9;
+            if (lo <= bLo && bHi <= hi) {
+                out = out.or(c.buckets[b]);
+            } else {
+                int from = lo, to = hi;
+                out = out.or(c.buckets[b].filter(row -> {
+                    int m = marks.getColumn(row, col);
+                    return m >= from && m <= to;
+                }));
+            }
+        }
+        return out;
+    }
+
+    // Bytes held by the bitmaps (Metrics gauge)
+    long bytes() {
+        long b = all.bytes() + 8L * byRow.length;
+        for (RowBitmap g : grades) b += g.bytes();
+        for (Column c : byColumn) {
+            if (c == null) continue;
+            b += c.absent.bytes();
+            for (RowBitmap bm : c.buckets) b += bm.bytes();
+        }
+        return b;
+    }
+
+    // ---- maintenance (called by Roster) ----
+
+    void add(Student s) {
+        int row = s.row;
+        if (row >= byRow.length) byRow = Arrays.copyOf(byRow, Math.max(row + 1, byRow.length * 2));
+        byRow[row] = s;
+        all.add(row);
+        if (!gradesStale) {
+            int i = marks.scale().indexOf(s.grade());
+            if (i >= 0 && i < grades.length) grades[i].add(row);
+        }
+        for (int col = 0, n = marks.columnLimit(); col < n; col++) {
+            if (!marks.isColumnUsed(col)) continue;
+            int m = marks.getColumn(row, col);
+            if (m < 0) column(col).absent.add(row);
+            else column(col).buckets[bucket(m)].add(row);
+        }
+    }
+
+    // add() for many students at once: rows are sorted, then split by grade and, per column, by
+    // bucket with a counting sort, and each bitmap takes its rows in one ascending run
+    void addAll(Collection<Student> students) {
+        int n = 0;
+        int[] rows = new int[students.size()];
+        for (Student s : students) {
+            if (s.row >= byRow.length) byRow = Arrays.copyOf(byRow, Math.max(s.row + 1, byRow.length * 2));
+            byRow[s.row] = s;
+            rows[n++] = s.row;
+        }
+        Arrays.sort(rows, 0, n);
+        all.addAll(rows, 0, n);
+        int[] sorted = new int[n];
+        if (!gradesStale) {
+            GradeScale scale = marks.scale();
+            int[] classOf = new int[n];
+            for (int i = 0; i < n; i++) {
+                int g = scale.indexOf(byRow[rows[i]].grade());
+                classOf[i] = (g < 0 || g >= grades.length) ? grades.length : g;
+            }
+            split(rows, classOf, grades.length + 1, sorted, grades);
+        }
+        RowBitmap[] targets = new RowBitmap[BUCKETS + 1];
+        int[] classOf = new int[n];
+        for (int col = 0, limit = marks.columnLimit(); col < limit; col++) {
+            if (!marks.isColumnUsed(col)) continue;
+            Column c = column(col);
+            for (int i = 0; i < n; i++) {
+                int m = marks.getColumn(rows[i], col);
+                classOf[i] = (m < 0) ? BUCKETS : bucket(m);
+            }
+            System.arraycopy(c.buckets, 0, targets, 0, BUCKETS);
+            targets[BUCKETS] = c.absent;
+            split(rows, classOf, BUCKETS + 1, sorted, targets);
+        }
+    }
+
+    // Adds rows[i] to targets[classOf[i]] (classes past targets.length are dropped); rows ascending
+    private static void split(int[] rows, int[] classOf, int classes, int[] scratch, RowBitmap[] targets) {
+        int[] start = new int[classes + 1];
+        for (int i = 0; i < rows.length; i++) start[classOf[i] + 1]++;
+        for (int k = 0; k < classes; k++) start[k + 1] += start[k];
+        int[] at = Arrays.copyOf(start, classes);
+        for (int i = 0; i < rows.length; i++) scratch[at[classOf[i]]++] = rows[i];
+        for (int k = 0; k < targets.length; k++) targets[k].addAll(scratch, start[k], start[k + 1]);
+    }
+
+    void remove(Student s) {
+        int row = s.row;
+        byRow[row] = null;
+        all.remove(row);
+        if (!gradesStale) {
+            int i = marks.scale().indexOf(s.grade());
+            if (i >= 0 && i < grades.length) grades[i].remove(row);
+        }
+        for (int col = 0, n = marks.columnLimit(); col < n; col++) {
+            if (!marks.isColumnUsed(col)) continue;
+            int m = marks.getColumn(row, col);
+            if (m < 0) column(col).absent.remove(row);
+            else column(col).buckets[bucket(m)].remove(row);
+        }
+    }
+
+    // remove() for many students at once: one andNot per bitmap instead of a remove per row
+    // and bitmap (each andNot copies the bitmap, so only worth it for a large share of rows)
+    void removeAll(Collection<Student> students) {
+        int n = 0;
+        int[] rows = new int[students.size()];
+        for (Student s : students) {
+            byRow[s.row] = null;
+            rows[n++] = s.row;
+        }
+        Arrays.sort(rows, 0, n);
+        RowBitmap gone = RowBitmap.of(rows, n);
+        all = all.andNot(gone);
+        if (!gradesStale) for (int i = 0; i < grades.length; i++) grades[i] = grades[i].andNot(gone);
+        for (Column c : byColumn) {
+            if (c == null) continue;
+            c.absent = c.absent.andNot(gone);
+            for (int b = 0; b < BUCKETS; b++) c.buckets[b] = c.buckets[b].andNot(gone);
+        }
+    }
+
+    // Grades may have changed for everyone; rebuilt by regrade()
+    void gradesChanged() {
+        gradesStale = true;
+    }
+
+    // Grade bitmaps from every student's current grade (after Roster has regraded them)
+    void regrade(List<Student> students) {
+        grades = newGrades();
+        int[][] rows = new int[grades.length][];
+        int[] n = new int[grades.length];
+        for (int i = 0; i < rows.length; i++) rows[i] = new int[16];
+        for (Student s : students) {
+            int i = marks.scale().indexOf(s.grade());
+            if (i < 0 || i >= grades.length) continue;
+            if (n[i] == rows[i].length) rows[i] = Arrays.copyOf(rows[i], n[i] * 2);
+            rows[i][n[i]++] = s.row;
+        }
+        for (int i = 0; i < grades.length; i++) {
+            Arrays.sort(rows[i], 0, n[i]);
+            grades[i] = RowBitmap.of(rows[i], n[i]);
+        }
+        gradesStale = false;
+    }
+
+    void clear() {
+        all.clear();
+        Arrays.fill(byRow, null);
+        grades = newGrades();
+        gradesStale = false;
+        byColumn = new Column[0];
+    }
+
+    // The column was set Absent for every row
+    void resetColumn(int col) {
+        column(col).absent = all.copy();
+        Arrays.setAll(byColumn[col].buckets, b -> new RowBitmap());
+    }
+
+    private RowBitmap[] newGrades() {
+        RowBitmap[] g = new RowBitmap[marks.scale().gradeCount()];
+        for (int i = 0; i < g.length; i++) g[i] = new RowBitmap();
+        return g;
+    }
+
+    // Reads must not grow byColumn (other threads read under readLocked)
+    private Column peek(int col) {
+        return (col < byColumn.length && byColumn[col] != null) ? byColumn[col] : NONE;
+    }
+
+    private Column column(int col) {
+        if (col >= byColumn.length) byColumn = Arrays.copyOf(byColumn, Math.max(col + 1, byColumn.length * 2));
+        if (byColumn[col] == null) byColumn[col] = new Column();
+        return byColumn[col];
+    }
+}
@@ -0,0 +1,467 @@
+import java.util.*;
+import java.util.List;
+
+// A compound student filter, e.g.
+//
+//   grade in (D, F), Maths is absent, Science < 40
+//   (average >= 75 or grade = A) and not English is absent
+//
+// Conditions:
+//   grade = X, grade != X, grade in (X, Y, ...)     grade letters of the current scale
+//   average OP N  (also avg)                         OP is one of < <= > >= = !=
+//   SUBJECT OP N                                     a mark; an Absent mark never compares
+//   SUBJECT is absent, SUBJECT is present, absent in SUBJECT
+// joined with and (or a comma), or and not, with parentheses; and binds tighter than or.
+// Keywords are case-insensitive; subject names are matched ignoring case and need double quotes
+// when they contain spaces or clash with a keyword ("Computer Science" >= 50).
+//
+// Evaluation is bitmap arithmetic over the roster's FilterIndex: grades, Absent flags and mark
+// buckets are looked up, and/or/not become and/or/andNot of bitmaps, and only the edge buckets
+// of a mark range are checked mark by mark. Average conditions are cut from the average order.
+// The result's count() needs no student objects.
+class FilterQuery {
+    private final String text;
+    private final Node root;
+
+    private FilterQuery(String text, Node root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    // Parses and checks against the roster's subjects and grades; IllegalArgumentException with a
+    // message for the user when the text is not a valid query
+    static FilterQuery parse(String text, MarkStore marks) {
+        Parser p = new Parser(text, marks);
+        Node root = p.or();
+        if (p.peek() != null) throw p.error("Unexpected \"" + p.peek() + "\"");
+        return new FilterQuery(text.trim(), root);
+    }
+
+    String text() {
+        return text;
+    }
+
+    // Matching rows of the roster. Needs grades and the average order current: call through
+    // Roster.filter() on the owner thread, or inside Roster.readLocked().
+    Result evaluate(Roster roster) {
+        GradeEvents.Query event = new GradeEvents.Query("bitmap", text);
+        RowBitmap rows = root.eval(roster);
+        Result result = new Result(rows, roster.filters);
+        event.results = result.count();
+        event.done();
+        return result;
+    }
+
+    // Does one student match? (Keeps a filtered view current after an edit, without a re-query.)
+    boolean test(Student s) {
+        return root.test(s);
+    }
+
+    static final class Result {
+        final RowBitmap rows;
+        private final FilterIndex index;
+
+        Result(RowBitmap rows, FilterIndex index) {
+            this.rows = rows;
+            this.index = index;
+        }
+
+        int count() {
+            return rows.cardinality();
+        }
+
+        // The matching students, in no particular order
+        List<Student> students() {
+            List<Student> out = new ArrayList<>(count());
+            forEach(out::add);
+            return out;
+        }
+
+        void forEach(java.util.function.Consumer<Student> action) {
+            rows.forEach(row -> action.accept(index.studentAt(row)));
+        }
+    }
+
+    // ---- syntax tree ----
+
+    private abstract static class Node {
+        abstract RowBitmap eval(Roster r);
+
+        abstract boolean test(Student s);
+    }
+
+    private static final class And extends Node {
+        final Node a, b;
+
+        And(Node a, Node b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        RowBitmap eval(Roster r) {
+            // not on the right is an andNot, without building the complement
+            if (b instanceof Not) return a.eval(r).andNot(((Not) b).inner.eval(r));
+            if (a instanceof Not) return b.eval(r).andNot(((Not) a).inner.eval(r));
+            return a.eval(r).and(b.eval(r));
+        }
+
+        @Override
+        boolean test(Student s) {
+            return a.test(s) && b.test(s);
+        }
+    }
+
+    private static final class Or extends Node {
+        final Node a, b;
+
+        Or(Node a, Node b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        RowBitmap eval(Roster r) {
+            return a.eval(r).or(b.eval(r));
+        }
+
+        @Override
+        boolean test(Student s) {
+            return a.test(s) || b.test(s);
+        }
+    }
+
+    private static final class Not extends Node {
+        final Node inner;
+
+        Not(Node inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        RowBitmap eval(Roster r) {
+            return r.filters.all().andNot(inner.eval(r));
+        }
+
+        @Override
+        boolean test(Student s) {
+            return !inner.test(s);
+        }
+    }
+
+    private static final class Grades extends Node {
+        final char[] letters;
+
+        Grades(char[] letters) {
+            this.letters = letters;
+        }
+
+        @Override
+        RowBitmap eval(Roster r) {
+            RowBitmap out = r.filters.grade(letters[0]);
+            for (int i = 1; i < letters.length; i++) out = out.or(r.filters.grade(letters[i]));
+            return out;
+        }
+
+        @Override
+        boolean test(Student s) {
+            for (char g : letters) if (s.grade() == g) return true;
+            return false;
+        }
+    }
+
+    private static final class Absent extends Node {
+        final String subject;
+
+        Absent(String subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        RowBitmap eval(Roster r) {
+            return r.filters.absent(r.marks.columnAt(position(r.marks, subject)));
+        }
+
+        @Override
+        boolean test(Student s) {
+            return s.getMark(position(s.marks, subject)) < 0;
+        }
+    }
+
+    // Marks from lo to hi inclusive (an empty range when lo > hi)
+    private static final class Marks extends Node {
+        final String subject;
+        final int lo, hi;
+
+        Marks(String subject, int lo, int hi) {
+            this.subject = subject;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        RowBitmap eval(Roster r) {
+            return r.filters.marks(r.marks.columnAt(position(r.marks, subject)), lo, hi);
+        }
+
+        @Override
+        boolean test(Student s) {
+            int m = s.getMark(position(s.marks, subject));
+            return m >= 0 && m >= lo && m <= hi;
+        }
+    }
+
+    private static final class Average extends Node {
+        final String op;
+        final double value;
+
+        Average(String op, double value) {
+            this.op = op;
+            this.value = value;
+        }
+
+        // the order is highest average first, so each side of the comparison is a range of it
+        @Override
+        RowBitmap eval(Roster r) {
+            OrderedIndex ranking = r.order(Roster.SortKey.AVERAGE);
+            int above = ranking.countPrefix(s -> s.average() > value);
+            int atOrAbove = ranking.countPrefix(s -> s.average() >= value);
+            switch (op) {
+                case ">": return rows(ranking, 0, above);
+                case ">=": return rows(ranking, 0, atOrAbove);
+                case "<": return rows(ranking, atOrAbove, ranking.size());
+                case "<=": return rows(ranking, above, ranking.size());
+                case "=": return rows(ranking, above, atOrAbove);
+                default: return rows(ranking, 0, above).or(rows(ranking, atOrAbove, ranking.size()));
+            }
+        }
+
+        private static RowBitmap rows(OrderedIndex ranking, int from, int to) {
+            int[] rows = new int[Math.max(0, to - from)];
+            int[] n = {0};
+            ranking.forRange(from, to, s -> rows[n[0]++] = s.row);
+            Arrays.sort(rows, 0, n[0]);
+            return RowBitmap.of(rows, n[0]);
+        }
+
+        @Override
+        boolean test(Student s) {
+            return compare(s.average(), op, value);
+        }
+    }
+
+    static boolean compare(double a, String op, double b) {
+        switch (op) {
+            case "<": return a < b;
+            case "<=": return a <= b;
+            case ">": return a > b;
+            case ">=": return a >= b;
+            case "=": return a == b;
+            default: return a != b;
+        }
+    }
+
+    // Position of a subject in the current list, ignoring case
+    private static int position(MarkStore marks, String subject) {
+        int pos = marks.positionOf(subject);
+        if (pos >= 0) return pos;
+        for (int i = 0; i < marks.subjectCount(); i++) {
+            if (marks.subjectName(i).equalsIgnoreCase(subject)) return i;
+        }
+        throw new IllegalArgumentException("No subject named " + subject);
+    }
+
+    // ---- parser ----
+
+    private static final class Parser {
+        private final String text;
+        private final MarkStore marks;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Boolean> quoted = new ArrayList<>();
+        private int next;
+
+        Parser(String text, MarkStore marks) {
+            this.text = text;
+            this.marks = marks;
+            tokenize();
+            if (tokens.isEmpty()) throw new IllegalArgumentException("Enter a filter, e.g. grade in (D, F), Maths < 40");
+        }
+
+        private void tokenize() {
+            int i = 0, n = text.length();
+            while (i < n) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"') {
+                    int end = text.indexOf('"', i + 1);
+                    if (end < 0) throw new IllegalArgumentException("Missing closing quote");
+                    add(text.substring(i + 1, end), true);
+                    i = end + 1;
+                } else if ("(),".indexOf(c) >= 0) {
+                    add(String.valueOf(c), false);
+                    i++;
+                } else if ("<>=!".indexOf(c) >= 0) {
+                    int end = i + 1;
+                    while (end < n && "<>=".indexOf(text.charAt(end)) >= 0) end++;
+                    add(text.substring(i, end), false);
+                    i = end;
+                } else {
+                    int end = i;
+                    while (end < n && !Character.isWhitespace(text.charAt(end)) && "(),<>=!\"".indexOf(text.charAt(end)) < 0) end++;
+                    add(text.substring(i, end), false);
+                    i = end;
+                }
+            }
+        }
+
+        private void add(String token, boolean isQuoted) {
+            tokens.add(token);
+            quoted.add(isQuoted);
+        }
+
+        String peek() {
+            return (next < tokens.size()) ? tokens.get(next) : null;
+        }
+
+        private boolean keyword(String word) {
+            return next < tokens.size() && !quoted.get(next) && tokens.get(next).equalsIgnoreCase(word);
+        }
+
+        private boolean accept(String word) {
+            if (!keyword(word)) return false;
+            next++;
+            return true;
+        }
+
+        private String take(String what) {
+            if (next >= tokens.size()) throw error("Expected " + what + " at the end");
+            return tokens.get(next++);
+        }
+
+        private void expect(String word) {
+            if (!accept(word)) throw error("Expected \"" + word + "\"" + (peek() == null ? " at the end" : " before \"" + peek() + "\""));
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " in: " + text.trim());
+        }
+
+        Node or() {
+            Node n = and();
+            while (accept("or")) n = new Or(n, and());
+            return n;
+        }
+
+        private Node and() {
+            Node n = not();
+            while (accept("and") || accept(",")) n = new And(n, not());
+            return n;
+        }
+
+        private Node not() {
+            if (accept("not")) return new Not(not());
+            if (accept("(")) {
+                Node n = or();
+                expect(")");
+                return n;
+            }
+            return condition();
+        }
+
+        private Node condition() {
+            if (accept("grade")) return grade();
+            if (accept("average") || accept("avg")) {
+                String op = operator();
+                return new Average(op, number());
+            }
+            if (accept("absent")) {
+                expect("in");
+                return new Absent(subject(take("a subject")));
+            }
+            String t = peek();
+            if (t != null && !quoted.get(next) && "(),<>=!".indexOf(t.charAt(0)) >= 0) throw error("Expected a condition before \"" + t + "\"");
+            String subject = subject(take("a condition"));
+            if (accept("is")) {
+                boolean negate = accept("not");
+                if (accept("present")) negate = !negate;
+                else expect("absent");
+                Node n = new Absent(subject);
+                return negate ? new Not(n) : n;
+            }
+            String op = operator();
+            double v = number();
+            if (v < 0 || v > 100) throw error("Marks are 0-100, not " + fmt(v));
+            switch (op) {
+                case "<": return new Marks(subject, 0, (int) Math.ceil(v) - 1);
+                case "<=": return new Marks(subject, 0, (int) Math.floor(v));
+                case ">": return new Marks(subject, (int) Math.floor(v) + 1, 100);
+                case ">=": return new Marks(subject, (int) Math.ceil(v), 100);
+                case "=": return (v == Math.rint(v)) ? new Marks(subject, (int) v, (int) v) : new Marks(subject, 1, 0);
+                default:
+                    if (v != Math.rint(v)) return new Marks(subject, 0, 100);
+                    return new Or(new Marks(subject, 0, (int) v - 1), new Marks(subject, (int) v + 1, 100));
+            }
+        }
+
+        private Node grade() {
+            List<Character> letters = new ArrayList<>();
+            if (accept("in")) {
+                expect("(");
+                do letters.add(letter()); while (accept(","));
+                expect(")");
+            } else {
+                String op = keyword("=") || keyword("!=") ? take("=") : "=";
+                letters.add(letter());
+                if (op.equals("!=")) return new Not(grades(letters));
+            }
+            return grades(letters);
+        }
+
+        private Node grades(List<Character> letters) {
+            char[] out = new char[letters.size()];
+            for (int i = 0; i < out.length; i++) out[i] = letters.get(i);
+            return new Grades(out);
+        }
+
+        private char letter() {
+            String t = take("a grade");
+            char[] scale = marks.scale().letters();
+            if (t.length() == 1) {
+                char g = Character.toUpperCase(t.charAt(0));
+                for (char s : scale) if (Character.toUpperCase(s) == g) return s;
+            }
+            throw error("No grade \"" + t + "\" (grades are " + new String(scale) + ")");
+        }
+
+        private String operator() {
+            String op = take("a comparison");
+            switch (op) {
+                case "==": return "=";
+                case "<>": return "!=";
+                case "<": case "<=": case ">": case ">=": case "=": case "!=": return op;
+                default: throw error("Expected <, <=, >, >=, = or != instead of \"" + op + "\"");
+            }
+        }
+
+        private double number() {
+            String t = take("a number");
+            try {
+                double v = Double.parseDouble(t);
+                if (Double.isFinite(v)) return v;
+            } catch (NumberFormatException ex) {
+                // reported below
+            }
+            throw error("Not a number: \"" + t + "\"");
+        }
+
+        private String subject(String name) {
+            position(marks, name); // checked now, resolved again when evaluated
+            return name;
+        }
+
+        private static String fmt(double v) {
+            return (v == Math.rint(v)) ? Long.toString((long) v) : Double.toString(v);
+        }
+    }
+}
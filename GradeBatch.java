@@ -0,0 +1,459 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.List;
+
+// Headless entry point: import one or more roster CSVs, grade them, print reports and export,
+// without loading any AWT/Swing class. For nightly pipelines on servers with no display:
+//
+//   java GradeBatch [options] FILE...       (FILE "-" reads standard input)
+//
+// By default the files are merged into a Roster exactly as "Load from CSV" in Append mode does
+// (a file's #SUBJECTNAMES header replaces the subject list, repeated rolls are duplicates).
+// --stream keeps no roster: each row is graded, counted and exported as it is parsed, so only
+// the roll numbers seen, the failed students and the current top N stay in memory, and inputs
+// larger than the heap go through. Streamed files must share one subject list, and the export
+// keeps input order rather than name order.
+// With --store DIR --partition NAME the files are added to one class/term partition of a
+// PartitionStore instead of a fresh roster, and saved there; --school-top ranks every partition.
+// --delta applies a file of mark changes (MarkDelta) after the files are loaded, e.g. one new
+// exam to an existing partition.
+// --report-cards writes one card per student (ReportCards) once the reports are printed.
+public class GradeBatch {
+    private static final String USAGE = String.join("\n",
+            "Usage: java GradeBatch [options] FILE...   (FILE \"-\" reads standard input)",
+            "  --top N          print the N best students",
+            "  --failed         print the failed students (the lowest grade)",
+            "  --stats          print grade counts and per-subject statistics",
+            "  --delta FILE     then apply mark changes from a roll,subject,mark CSV (repeatable)",
+            "  --filter EXPR    print the students matching a filter, e.g. \"grade in (D, F), Maths < 40\"",
+            "  --count          with --filter, print only how many match",
+            "  --export FILE    write the graded roster as CSV (atomically replaced)",
+            "  --report-cards T write one report card per student into directory T, or into T if it ends in .zip",
+            "  --card-format F  html (default) or text",
+            "  --resume         with --report-cards, keep the cards of an earlier unfinished run",
+            "  --snapshot FILE  write the graded roster as a binary snapshot (not with --stream)",
+            "  --subjects LIST  subjects for files without a header, ;;-separated",
+            "  --bands SPEC     grade bands, best first (default A:90,B:80,C:70,D:60,F)",
+            "  --weights SPEC   subject weights, e.g. Maths:2,Science:1.5 (others weigh 1)",
+            "  --stream         grade rows as they are read; keeps only failed and top-N students",
+            "                   in memory (inputs must share one subject list; export in input order)",
+            "  --threads N      parser threads for large files (1 uses the least memory)",
+            "  --metrics FILE   write timings and counters as JSON when done (see Diagnostics in the GUI)",
+            "  --serve PORT     then serve the results read-only over HTTP on this machine until stopped",
+            "                   (GET /api/students/{roll}, /api/students/{roll}/rank, /api/rankings?from=&to=)",
+            "  --store DIR      directory of class/term partitions (one snapshot file each)",
+            "  --partition NAME add the files to this partition of --store, e.g. 10A/2025-T1, and save it",
+            "                   (created with --subjects if new); reports are about this partition, and FILE",
+            "                   may be left out to report on (or --delta) the saved partition",
+            "  --school-top N   print the N best students over every partition of --store (no FILE needed)",
+            "  --budget MB      memory for loaded partitions (default -Dsgm.partitionBudgetMb, or 1/4 of the heap)");
+
+    private int top, serve = -1, schoolTop;
+    private boolean failed, stats, stream, countOnly;
+    private String filter;
+    private File export, snapshot, metrics, store, reportCards;
+    private ReportCards.Format cardFormat = ReportCards.Format.HTML;
+    private boolean resume;
+    private String partition;
+    private long budget = PartitionStore.defaultBudget();
+    private boolean scaleGiven;
+    private List<String> subjects = Roster.DEFAULT_SUBJECTS;
+    private String bands = GradeScale.DEFAULT.bandsText(), weights = "";
+    private GradeScale scale;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final List<String> inputs = new ArrayList<>();
+    private final List<File> deltas = new ArrayList<>();
+    private final PrintStream out = System.out, err = System.err;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        GradeBatch batch = new GradeBatch();
+        try {
+            batch.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        try {
+            batch.run();
+        } catch (Exception ex) {
+            System.err.println("Error: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+                case "--top": top = number(args, ++i, a); break;
+                case "--failed": failed = true; break;
+                case "--stats": stats = true; break;
+                case "--delta": deltas.add(new File(value(args, ++i, a))); break;
+                case "--filter": filter = value(args, ++i, a); break;
+                case "--count": countOnly = true; break;
+                case "--export": export = new File(value(args, ++i, a)); break;
+                case "--report-cards": reportCards = new File(value(args, ++i, a)); break;
+                case "--card-format": cardFormat = cardFormat(value(args, ++i, a)); break;
+                case "--resume": resume = true; break;
+                case "--snapshot": snapshot = new File(value(args, ++i, a)); break;
+                case "--metrics": metrics = new File(value(args, ++i, a)); break;
+                case "--serve": serve = number(args, ++i, a); break;
+                case "--subjects": subjects = CsvImport.parseHeader(CsvImport.HEADER_PREFIX + value(args, ++i, a)); break;
+                case "--bands": bands = value(args, ++i, a); scaleGiven = true; break;
+                case "--weights": weights = value(args, ++i, a); scaleGiven = true; break;
+                case "--store": store = new File(value(args, ++i, a)); break;
+                case "--partition": partition = value(args, ++i, a); break;
+                case "--school-top": schoolTop = number(args, ++i, a); break;
+                case "--budget": budget = Math.max(1, number(args, ++i, a)) * (1L << 20); break;
+                case "--stream": stream = true; break;
+                case "--threads": threads = Math.max(1, number(args, ++i, a)); break;
+                case "-h":
+                case "--help":
+                    System.out.println(USAGE);
+                    System.exit(0);
+                    break;
+                default:
+                    if (a.startsWith("--")) throw new IllegalArgumentException("Unknown option " + a);
+                    inputs.add(a);
+            }
+        }
+        if (inputs.isEmpty() && schoolTop == 0 && partition == null) throw new IllegalArgumentException("No input files.");
+        if ((partition != null || schoolTop > 0) && store == null) throw new IllegalArgumentException("--partition and --school-top need --store.");
+        if (stream && partition != null) throw new IllegalArgumentException("--partition keeps the whole roster; it cannot be used with --stream.");
+        if (stream && snapshot != null) throw new IllegalArgumentException("--snapshot needs the whole roster; it cannot be used with --stream.");
+        if (stream && !deltas.isEmpty()) throw new IllegalArgumentException("--delta needs the whole roster; it cannot be used with --stream.");
+        if (stream && reportCards != null) throw new IllegalArgumentException("--report-cards needs the whole roster; it cannot be used with --stream.");
+        if (stream && filter != null) throw new IllegalArgumentException("--filter needs the whole roster; it cannot be used with --stream.");
+        if (filter != null && inputs.isEmpty() && partition == null) throw new IllegalArgumentException("--filter needs input files.");
+        if (stream && serve >= 0) throw new IllegalArgumentException("--serve needs the whole roster; it cannot be used with --stream.");
+        if (subjects.isEmpty()) throw new IllegalArgumentException("--subjects needs at least one subject.");
+        scale = GradeScale.parse(bands, weights);
+    }
+
+    private static ReportCards.Format cardFormat(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "html": return ReportCards.Format.HTML;
+            case "text": case "txt": return ReportCards.Format.TEXT;
+            default: throw new IllegalArgumentException("--card-format is html or text.");
+        }
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) throw new IllegalArgumentException(option + " needs a value.");
+        return args[i];
+    }
+
+    private static int number(String[] args, int i, String option) {
+        try {
+            int n = Integer.parseInt(value(args, i, option));
+            if (n < 0) throw new NumberFormatException();
+            return n;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(option + " needs a non-negative number.");
+        }
+    }
+
+    private void run() throws Exception {
+        try {
+            PartitionStore partitions = (store == null) ? null : new PartitionStore(store, budget);
+            if (stream) runStreaming();
+            else if (!inputs.isEmpty() || partition != null) runInMemory(partitions);
+            if (schoolTop > 0) {
+                out.print("School Top " + schoolTop + " Students:\n" + RosterReports.schoolRanked(partitions.top(schoolTop)));
+                out.flush();
+            }
+        } finally {
+            if (metrics != null) Metrics.write(metrics);
+        }
+    }
+
+    // ---- whole roster in memory ----
+
+    private void runInMemory(PartitionStore partitions) throws Exception {
+        Roster roster;
+        if (partition == null) {
+            roster = new Roster(new MarkStore(subjects));
+            roster.setScale(scale);
+        } else if (partitions.exists(partition)) {
+            roster = partitions.open(partition);
+            // an existing partition keeps its own scale unless one is given
+            if (scaleGiven) roster.setScale(scale);
+        } else {
+            roster = partitions.create(partition, subjects, scale);
+        }
+        MarkStore marks = roster.marks;
+        Metrics.gauge("roster.students", roster::size);
+        for (String input : inputs) {
+            GradeEvents.Import event = new GradeEvents.Import(input);
+            Load load = new Load(roster);
+            CsvImport imp = importer(input, marks.subjectNames());
+            read(imp, input, load);
+            // added per file in one bulk index build
+            roster.addAll(load.added);
+            summary(event, imp, load.added.size(), imp.skipped + load.skipped, load.dup);
+        }
+        roster.dropDetachedSubjects();
+        for (File delta : deltas) {
+            GradeEvents.Delta event = new GradeEvents.Delta(delta.getPath());
+            MarkDelta changes = MarkDelta.read(delta);
+            changes.apply(roster);
+            event.done(changes.report());
+            err.print(delta.getPath() + ": " + changes.report().text());
+        }
+        if (partition != null) {
+            partitions.saveAll();
+            err.printf("Partition %s: %,d students saved to %s%n", partition, roster.size(), partitions.file(partition));
+        }
+
+        if (top > 0) out.print("Top " + top + " Students:\n" + RosterReports.ranked(roster.top(top), 1));
+        if (failed) out.print(RosterReports.failed(roster.gradedStats()) + (roster.failed().size() == 0 ? "\n" : ""));
+        if (stats) out.print(RosterReports.statistics(roster.gradedStats(), marks.subjectNames()));
+        if (filter != null) {
+            FilterQuery query = FilterQuery.parse(filter, marks);
+            FilterQuery.Result result = roster.filter(query);
+            out.printf("Filter %s: %,d of %,d students%n", query.text(), result.count(), roster.size());
+            if (!countOnly) out.print(RosterReports.matches(result.students()));
+        }
+        out.flush();
+        if (export != null) new CsvExport(RosterSnapshot.capture(roster), export).run();
+        if (snapshot != null) RosterSnapshot.write(snapshot, roster);
+        if (reportCards != null) writeReportCards(roster);
+        if (serve >= 0) {
+            // the server's threads keep the process running after main returns
+            ResultsServer server = ResultsServer.onLoopback(roster, serve);
+            err.printf("Serving %,d students at http://localhost:%d/api/ (%s); stop with Ctrl+C%n", roster.size(),
+                    server.port(), server.virtualThreads() ? "virtual threads" : "thread pool");
+        }
+    }
+
+    // Report cards with a progress line on stderr every two seconds
+    private void writeReportCards(Roster roster) throws IOException {
+        ReportCards cards = new ReportCards(roster.version(), reportCards, cardFormat);
+        if (partition != null) cards.setTitle(partition);
+        cards.setResume(resume);
+        cards.setThreads(threads);
+        long started = System.nanoTime();
+        Thread progress = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(2000);
+                    err.printf("Report cards: %,d of %,d%n", cards.written() + cards.skipped(), cards.total());
+                }
+            } catch (InterruptedException done) {
+                // finished
+            }
+        }, "report-cards-progress");
+        progress.setDaemon(true);
+        progress.start();
+        try {
+            cards.run();
+        } finally {
+            progress.interrupt();
+        }
+        double secs = Math.max(1e-3, (System.nanoTime() - started) / 1e9);
+        err.printf("Report cards: %,d written, %,d kept from an earlier run, in %.1f s (%,.0f/s) to %s%n",
+                cards.written(), cards.skipped(), secs, cards.written() / secs, reportCards);
+    }
+
+    // Appends one file's rows to the roster (Append mode of the GUI's CsvLoad, without undo)
+    private static class Load implements CsvImport.Sink {
+        private final Roster roster;
+        private final RollIndex pending = new RollIndex();
+        final List<Student> added = new ArrayList<>();
+        int skipped, dup;
+
+        Load(Roster roster) {
+            this.roster = roster;
+        }
+
+        @Override
+        public void subjects(List<String> names) {
+            // existing students are re-averaged against the file's subject list
+            if (!names.equals(roster.marks.subjectNames())) roster.setSubjects(names);
+        }
+
+        @Override
+        public void batch(CsvImport.RowBatch b) {
+            MarkStore marks = roster.marks;
+            for (int i = 0; i < b.size; i++) {
+                int roll = b.rolls[i];
+                if (roster.byRoll(roll) != null || pending.contains(roll)) { dup++; continue; }
+                if (!b.valid[i]) { skipped++; continue; }
+                Student s = new Student(b.names[i], roll, marks);
+                for (int j = 0; j < b.width; j++) s.setMark(j, b.mark(i, j));
+                s.calculateAverageAndGrade();
+                pending.put(s);
+                added.add(s);
+            }
+        }
+    }
+
+    // ---- streaming ----
+
+    private void runStreaming() throws Exception {
+        Stream sink = new Stream(top, export, scale);
+        try {
+            for (String input : inputs) {
+                int loaded = sink.loaded, skipped = sink.skipped, dup = sink.dup;
+                GradeEvents.Import event = new GradeEvents.Import(input);
+                CsvImport imp = importer(input, (sink.marks == null) ? subjects : sink.marks.subjectNames());
+                read(imp, input, sink);
+                summary(event, imp, sink.loaded - loaded, imp.skipped + sink.skipped - skipped, sink.dup - dup);
+            }
+            if (sink.writer != null) sink.writer.commit();
+        } finally {
+            if (sink.writer != null) sink.writer.close();
+        }
+        if (sink.marks == null) return;
+
+        if (top > 0) {
+            List<Student> best = new ArrayList<>();
+            for (Student s : sink.best) best.add(s);
+            out.print("Top " + top + " Students:\n" + RosterReports.ranked(best, 1));
+        }
+        if (failed) out.print(RosterReports.failed(sink.stats) + (sink.stats.failed().size() == 0 ? "\n" : ""));
+        if (stats) out.print(RosterReports.statistics(sink.stats, sink.marks.subjectNames()));
+        out.flush();
+    }
+
+    // Grades rows one at a time. A row's mark row is freed again unless the student is failed
+    // (kept for the report) or currently in the top N.
+    private static class Stream implements CsvImport.Sink {
+        private final int top;
+        private final File export;
+        private final RollSet seen = new RollSet();
+        MarkStore marks;
+        RosterStats stats;
+        OrderedIndex best = new OrderedIndex(Roster.SortKey.AVERAGE.order);
+        CsvExport.Writer writer;
+        int loaded, skipped, dup;
+
+        private final GradeScale scale;
+
+        Stream(int top, File export, GradeScale scale) {
+            this.top = top;
+            this.export = export;
+            this.scale = scale;
+        }
+
+        @Override
+        public void subjects(List<String> names) throws IOException {
+            if (marks == null) {
+                marks = new MarkStore(names);
+                marks.setScale(scale);
+                stats = new RosterStats(marks);
+                if (export != null) writer = new CsvExport.Writer(export, names);
+            } else if (!names.equals(marks.subjectNames())) {
+                throw new IOException("subject list " + names + " differs from " + marks.subjectNames()
+                        + "; --stream needs the same subjects in every file");
+            }
+        }
+
+        @Override
+        public void batch(CsvImport.RowBatch b) throws IOException {
+            for (int i = 0; i < b.size; i++) {
+                int roll = b.rolls[i];
+                if (seen.contains(roll)) { dup++; continue; }
+                if (!b.valid[i]) { skipped++; continue; }
+                seen.add(roll);
+                Student s = new Student(b.names[i], roll, marks);
+                for (int j = 0; j < b.width; j++) s.setMark(j, b.mark(i, j));
+                s.calculateAverageAndGrade();
+                stats.add(s);
+                if (writer != null) writer.row(s.name, roll, b.marks, i * b.width);
+                loaded++;
+
+                char failing = marks.scale().failing();
+                boolean kept = s.grade() == failing;
+                if (top > 0) {
+                    best.insert(s);
+                    kept = true;
+                    if (best.size() > top) {
+                        Student out = best.get(top);
+                        best.remove(out);
+                        if (out.grade() != failing) out.release();
+                        if (out == s) kept = s.grade() == failing;
+                    }
+                }
+                if (!kept) s.release();
+            }
+        }
+    }
+
+    // Roll numbers seen so far: open addressing over a bare int[] (8 bytes per roll at worst)
+    private static class RollSet {
+        private static final int EMPTY = Integer.MIN_VALUE;
+        private int[] keys = filled(16);
+        private int size;
+        private boolean hasEmptyKey;
+
+        boolean contains(int roll) {
+            if (roll == EMPTY) return hasEmptyKey;
+            int mask = keys.length - 1;
+            for (int i = slot(roll, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == roll) return true;
+            }
+            return false;
+        }
+
+        void add(int roll) {
+            if (roll == EMPTY) { hasEmptyKey = true; return; }
+            if ((size + 1) * 2 > keys.length) {
+                int[] old = keys;
+                keys = filled(old.length * 2);
+                for (int k : old) if (k != EMPTY) insert(k);
+            }
+            insert(roll);
+            size++;
+        }
+
+        private void insert(int roll) {
+            int mask = keys.length - 1;
+            int i = slot(roll, mask);
+            while (keys[i] != EMPTY && keys[i] != roll) i = (i + 1) & mask;
+            keys[i] = roll;
+        }
+
+        private static int[] filled(int n) {
+            int[] a = new int[n];
+            Arrays.fill(a, EMPTY);
+            return a;
+        }
+
+        private static int slot(int roll, int mask) {
+            int h = roll * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+
+    // ---- input ----
+
+    private CsvImport importer(String input, List<String> defaultSubjects) {
+        CsvImport imp = new CsvImport(new File(input), defaultSubjects);
+        imp.setParallelism(threads);
+        return imp;
+    }
+
+    private static void read(CsvImport imp, String input, CsvImport.Sink sink) throws Exception {
+        try {
+            if (input.equals("-")) imp.run(sink, System.in);
+            else imp.run(sink);
+        } catch (IOException ex) {
+            throw new IOException(input + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private void summary(GradeEvents.Import event, CsvImport imp, int loaded, int skipped, int dup) {
+        event.rows = loaded;
+        event.skipped = skipped;
+        event.duplicates = dup;
+        event.bytes = imp.bytesRead;
+        event.completed = true;
+        event.done();
+        err.printf("%s: %,d loaded, %,d skipped, %,d duplicates%n", event.source, loaded, skipped, dup);
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+// Recomputes the average and grade of a whole roster at once.
+// Students are cut into fixed chunks that run on the common fork/join pool; each chunk gathers
+// its mark rows, has MarkStore.averages() run its primitive loop over the byte matrix, grades
+// the results against the scale and counts them. Chunk results are merged in chunk order, so
+// the students given in name order come back with the lowest grade's students in name order too.
+// Call it from the thread that owns the roster; nothing may change marks while it runs.
+class GradeEngine {
+    static final int CHUNK = 1 << 13;
+
+    static class Result {
+        final int[] gradeCounts;        // by GradeScale band, best first
+        final List<Student> failing;    // students with the scale's lowest grade, in input order
+
+        Result(int[] gradeCounts, List<Student> failing) {
+            this.gradeCounts = gradeCounts;
+            this.failing = failing;
+        }
+    }
+
+    private GradeEngine() {
+    }
+
+    static Result recompute(List<Student> students, MarkStore marks) {
+        Student[] all = students.toArray(new Student[0]);
+        GradeScale scale = marks.scale();
+        int version = marks.version();
+        int bands = scale.gradeCount();
+        int chunks = (all.length + CHUNK - 1) / CHUNK;
+        int[][] counts = new int[chunks][];
+        List<List<Student>> failing = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) failing.add(null);
+
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            int from = c * CHUNK, to = Math.min(all.length, from + CHUNK);
+            int[] rows = new int[to - from];
+            for (int i = from; i < to; i++) rows[i - from] = all[i].row;
+            float[] avg = new float[rows.length];
+            marks.averages(rows, 0, rows.length, avg);
+            int[] count = new int[bands];
+            List<Student> low = new ArrayList<>();
+            for (int i = 0; i < rows.length; i++) {
+                int band = scale.band(avg[i]);
+                Student s = all[from + i];
+                s.graded(avg[i], scale.letter(band), version);
+                count[band]++;
+                if (band == bands - 1) low.add(s);
+            }
+            counts[c] = count;
+            failing.set(c, low);
+        });
+
+        int[] total = new int[bands];
+        List<Student> low = new ArrayList<>();
+        for (int c = 0; c < chunks; c++) {
+            for (int b = 0; b < bands; b++) total[b] += counts[c][b];
+            low.addAll(failing.get(c));
+        }
+        return new Result(total, low);
+    }
+}
@@ -0,0 +1,214 @@
+import jdk.jfr.*;
+
+// Custom Flight Recorder events. Record with Diagnostics > Start Flight Recording, or from the
+// command line:
+//
+//   java -XX:StartFlightRecording=filename=sgm.jfr StudentGradeManagerGUI
+//
+// and open the file in JDK Mission Control (or "jfr print --categories 'Student Grade Manager'").
+// A Timed event begins when it is created; done() commits it and adds its duration to the
+// Metrics timer of the same name, so the metrics and the recording always agree. With no
+// recording running, begin/commit cost next to nothing.
+final class GradeEvents {
+    static final String CATEGORY = "Student Grade Manager";
+
+    private GradeEvents() {
+    }
+
+    @Category(CATEGORY)
+    @StackTrace(false)
+    abstract static class Timed extends Event {
+        private final transient long started = System.nanoTime();
+        private final transient String timer;
+
+        Timed(String timer) {
+            this.timer = timer;
+            begin();
+        }
+
+        // Commits the event; returns its duration in nanoseconds
+        long done() {
+            commit();
+            return Metrics.timer(timer).since(started);
+        }
+    }
+
+    @Name("sgm.Import")
+    @Label("CSV Import")
+    @Description("One CSV file read into the roster (or streamed by GradeBatch)")
+    static class Import extends Timed {
+        @Label("Source")
+        String source;
+        @Label("Rows Loaded")
+        long rows;
+        @Label("Rows Skipped")
+        long skipped;
+        @Label("Duplicates")
+        long duplicates;
+        @Label("Bytes Read")
+        @DataAmount
+        long bytes;
+        @Label("Completed")
+        boolean completed;
+
+        Import(String source) {
+            super("import");
+            this.source = source;
+        }
+
+        @Override
+        long done() {
+            long nanos = super.done();
+            Metrics.count("import.files", 1);
+            Metrics.count("import.rows", rows);
+            Metrics.count("import.skipped", skipped);
+            Metrics.count("import.duplicates", duplicates);
+            Metrics.count("import.bytes", bytes);
+            return nanos;
+        }
+    }
+
+    @Name("sgm.Delta")
+    @Label("Mark Delta")
+    @Description("A delta CSV of mark changes applied to the roster (MarkDelta)")
+    static class Delta extends Timed {
+        @Label("Source")
+        String source;
+        @Label("Lines")
+        long lines;
+        @Label("Marks Changed")
+        long changed;
+        @Label("Students Recomputed")
+        long students;
+        @Label("Lines Not Applied")
+        long problems;
+
+        Delta(String source) {
+            super("delta");
+            this.source = source;
+        }
+
+        // Fills in the counts from the report and commits
+        long done(MarkDelta.Report report) {
+            lines = report.lines;
+            changed = report.changed;
+            students = report.students;
+            problems = report.problems();
+            long nanos = done();
+            Metrics.count("delta.lines", lines);
+            Metrics.count("delta.changed", changed);
+            Metrics.count("delta.problems", problems);
+            return nanos;
+        }
+    }
+
+    @Name("sgm.Save")
+    @Label("Save")
+    @Description("The roster written as CSV or as a binary snapshot")
+    static class Save extends Timed {
+        @Label("Target")
+        String target;
+        @Label("Format")
+        String format;
+        @Label("Rows")
+        long rows;
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+        @Label("Completed")
+        boolean completed;
+
+        Save(String format, String target) {
+            super("save." + format);
+            this.format = format;
+            this.target = target;
+        }
+    }
+
+    @Name("sgm.Refresh")
+    @Label("Table Refresh")
+    @Description("refreshTable: refilter, repaint and status line")
+    static class Refresh extends Timed {
+        @Label("Rows Shown")
+        int rows;
+
+        Refresh() {
+            super("ui.refreshTable");
+        }
+    }
+
+    @Name("sgm.Query")
+    @Label("Query")
+    @Description("A search or ranking query (roll, name, filter, top, rank range, ...)")
+    static class Query extends Timed {
+        @Label("Kind")
+        String kind;
+        @Label("Query Text")
+        String text;
+        @Label("Results")
+        int results;
+
+        Query(String kind, String text) {
+            super("query." + kind);
+            this.kind = kind;
+            this.text = text;
+        }
+    }
+
+    @Name("sgm.EdtStall")
+    @Label("EDT Stall")
+    @Description("The Swing event dispatch thread did not handle events for longer than the watchdog threshold")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class EdtStall extends Event {
+        @Label("Blocked")
+        @Timespan(Timespan.MILLISECONDS)
+        long blocked;
+        @Label("EDT Stack")
+        String stack;
+    }
+
+    @Name("sgm.HttpError")
+    @Label("Results Server Error")
+    @Description("A results server request that failed with an unexpected exception (answered 500)")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class HttpError extends Event {
+        @Label("Request")
+        String request;
+        @Label("Exception")
+        String exception;
+        @Label("Stack")
+        String stack;
+    }
+
+    @Name("sgm.RosterState")
+    @Label("Roster State")
+    @Description("Roster and heap size, sampled while recording")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    @Period("5 s")
+    static class RosterState extends Event {
+        @Label("Students")
+        int students;
+        @Label("Subjects")
+        int subjects;
+        @Label("Heap Used")
+        @DataAmount
+        long heapUsed;
+    }
+
+    // Samples the roster for recordings; the sizes are read without synchronization, so they
+    // may be a moment stale. Registering initializes Flight Recorder (a few hundred ms), so
+    // call it off the EDT.
+    static void watch(Roster roster) {
+        FlightRecorder.addPeriodicEvent(RosterState.class, () -> {
+            RosterState e = new RosterState();
+            e.students = roster.size();
+            e.subjects = roster.marks.subjectCount();
+            Runtime rt = Runtime.getRuntime();
+            e.heapUsed = rt.totalMemory() - rt.freeMemory();
+            e.commit();
+        });
+    }
+}
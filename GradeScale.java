@@ -0,0 +1,163 @@
+import java.util.*;
+
+// How marks become an average and a grade: a table of grade bands and optional subject weights.
+//
+// Bands are written best first, each letter with the lowest average that earns it, and the last
+// letter (the failing grade) without one: "A:90,B:80,C:70,D:60,F" is the default.
+// Weights are "Subject:weight" pairs, e.g. "Maths:2,Science:1.5"; unlisted subjects weigh 1.
+// An average is the weighted mean of the marks, Absent counting as 0. With every weight 1 it is
+// exactly the old sum / subject count.
+// Immutable; a MarkStore holds the scale in force (MarkStore.setScale).
+final class GradeScale {
+    static final GradeScale DEFAULT = parse("A:90,B:80,C:70,D:60,F", "");
+
+    private final float[] minimums; // descending; minimums[i] earns letters[i]
+    private final char[] letters;   // best first, one more than minimums
+    private final Map<String, Float> weights;
+
+    GradeScale(float[] minimums, char[] letters, Map<String, Float> weights) {
+        if (letters.length != minimums.length + 1) throw new IllegalArgumentException("Every grade but the last needs a minimum average.");
+        for (int i = 0; i < minimums.length; i++) {
+            if (Float.isNaN(minimums[i]) || (i > 0 && minimums[i] >= minimums[i - 1])) {
+                throw new IllegalArgumentException("Grade minimums must go down from the best grade.");
+            }
+        }
+        for (int i = 0; i < letters.length; i++) {
+            for (int j = 0; j < i; j++) if (letters[i] == letters[j]) throw new IllegalArgumentException("Grade " + letters[i] + " appears twice.");
+        }
+        Map<String, Float> w = new LinkedHashMap<>();
+        for (Map.Entry<String, Float> e : weights.entrySet()) {
+            float v = e.getValue();
+            if (!(v >= 0) || Float.isInfinite(v)) throw new IllegalArgumentException("Weight of " + e.getKey() + " must be 0 or more.");
+            if (v != 1f) w.put(e.getKey(), v); // weight 1 is the default; keep the map minimal
+        }
+        this.minimums = minimums.clone();
+        this.letters = letters.clone();
+        this.weights = Collections.unmodifiableMap(w);
+    }
+
+    // Parses band and weight text as described above; IllegalArgumentException with a message
+    // fit for the user if either is malformed
+    static GradeScale parse(String bands, String weights) {
+        String[] parts = bands.split(",");
+        if (parts.length < 2) throw new IllegalArgumentException("Give at least two grades, e.g. A:90,B:80,C:70,D:60,F");
+        char[] letters = new char[parts.length];
+        float[] minimums = new float[parts.length - 1];
+        for (int i = 0; i < parts.length; i++) {
+            String[] p = parts[i].trim().split(":", 2);
+            String letter = p[0].trim();
+            if (letter.length() != 1) throw new IllegalArgumentException("A grade must be one character: \"" + letter + "\"");
+            letters[i] = letter.charAt(0);
+            boolean last = i == parts.length - 1;
+            if (last != (p.length == 1)) throw new IllegalArgumentException(last
+                    ? "The last grade takes no minimum (it is everything below)."
+                    : "Grade " + letter + " needs a minimum average, e.g. " + letter + ":90");
+            if (!last) minimums[i] = number(p[1], "minimum for grade " + letter);
+        }
+        Map<String, Float> w = new LinkedHashMap<>();
+        for (String part : weights.split(",")) {
+            if (part.trim().isEmpty()) continue;
+            int colon = part.lastIndexOf(':');
+            String subject = (colon < 0) ? "" : part.substring(0, colon).trim();
+            if (subject.isEmpty()) throw new IllegalArgumentException("Weights are Subject:weight pairs: \"" + part.trim() + "\"");
+            w.put(subject, number(part.substring(colon + 1), "weight of " + subject));
+        }
+        return new GradeScale(minimums, letters, w);
+    }
+
+    private static float number(String s, String what) {
+        try {
+            return Float.parseFloat(s.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Not a number for the " + what + ": \"" + s.trim() + "\"");
+        }
+    }
+
+    // Same bands, these weights
+    GradeScale withWeights(Map<String, Float> weights) {
+        return new GradeScale(minimums, letters, weights);
+    }
+
+    // Index of the band an average falls in (0 = best)
+    int band(float average) {
+        for (int i = 0; i < minimums.length; i++) if (average >= minimums[i]) return i;
+        return minimums.length;
+    }
+
+    char grade(float average) {
+        return letters[band(average)];
+    }
+
+    // Every grade, best first
+    char[] letters() {
+        return letters.clone();
+    }
+
+    int gradeCount() {
+        return letters.length;
+    }
+
+    char letter(int band) {
+        return letters[band];
+    }
+
+    // Position of a grade in letters(), or -1
+    int indexOf(char grade) {
+        for (int i = 0; i < letters.length; i++) if (letters[i] == grade) return i;
+        return -1;
+    }
+
+    // The lowest grade, the one RosterStats.failed() lists
+    char failing() {
+        return letters[letters.length - 1];
+    }
+
+    float weight(String subject) {
+        return weights.getOrDefault(subject, 1f);
+    }
+
+    // Subjects whose weight is not 1
+    Map<String, Float> weights() {
+        return weights;
+    }
+
+    boolean isWeighted() {
+        return !weights.isEmpty();
+    }
+
+    String bandsText() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < minimums.length; i++) sb.append(letters[i]).append(':').append(plain(minimums[i])).append(',');
+        return sb.append(failing()).toString();
+    }
+
+    String weightsText() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Float> e : weights.entrySet()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(e.getKey()).append(':').append(plain(e.getValue()));
+        }
+        return sb.toString();
+    }
+
+    private static String plain(float v) {
+        return (v == (int) v) ? Integer.toString((int) v) : Float.toString(v);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof GradeScale)) return false;
+        GradeScale g = (GradeScale) o;
+        return Arrays.equals(minimums, g.minimums) && Arrays.equals(letters, g.letters) && weights.equals(g.weights);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(Arrays.hashCode(minimums), Arrays.hashCode(letters), weights);
+    }
+
+    @Override
+    public String toString() {
+        return bandsText() + (isWeighted() ? " weights " + weightsText() : "");
+    }
+}
@@ -0,0 +1,489 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Write-ahead journal of roster changes, kept next to a binary snapshot (RosterSnapshot).
+//
+// The data directory holds snapshot-<gen>.bin and journal-<gen>.log files. Snapshot <gen>
+// includes every change logged in journals older than <gen>; recovery loads the newest snapshot
+// and replays the journals from <gen> up, in order.
+//
+// Each change is one record: int payload length, int CRC32C of the payload, payload (a type byte
+// and its fields). Records are appended to a memory buffer by the thread that owns the roster
+// (the EDT); a flusher thread writes and fsyncs them in groups, so a change costs an in-memory
+// append and a crash loses at most the last FLUSH_MS of changes. A write or fsync error is kept
+// for takeFailure(). A torn or corrupt record ends replay of its journal.
+//
+// compact() starts a new journal and writes the roster's version (Roster.version(), O(1) on the
+// owner thread) as the next snapshot on a background thread, which also makes the flat copy;
+// once that snapshot is durable the older files are deleted.
+//
+// One journal at a time per directory: open() takes an exclusive lock on its LOCK_FILE and
+// fails if another instance holds it, as two writers would pick the same generations and
+// delete each other's live journals when compacting. close() releases it. Within one process
+// the directories are also tracked in LOCKED: a second channel on the lock file must not be
+// opened at all, as closing it would drop the first one's (per-process) lock.
+class Journal implements Closeable {
+    static final byte PUT = 1;           // roll, name, marks for the current subject list
+    static final byte DELETE = 2;        // roll
+    static final byte SUBJECTS = 3;      // new subject list (averages follow lazily)
+    static final byte CLEAR_SUBJECT = 4; // subject name: everyone Absent
+    static final byte CLEAR = 5;         // all students removed
+    static final byte SCALE = 6;         // grade bands text, then subject weights
+
+    static final long FLUSH_MS = 50;
+    static final long COMPACT_BYTES = 8L << 20; // journal size that makes compaction worthwhile
+    static final String LOCK_FILE = "journal.lock";
+    private static final Set<Path> LOCKED = new HashSet<>(); // directories open in this process
+
+    private final File dir;
+    private final FileLock lock;
+    // appends lock 'this' only to hand over the buffer; file I/O runs under io so an fsync
+    // never holds up an append
+    private final Object io = new Object();
+    private long gen;
+    private FileChannel out;
+    private volatile long journalBytes;
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final CRC32C crc = new CRC32C();
+    private IOException failure; // first write/fsync error since the last takeFailure()
+    private volatile boolean closed;
+    private final Thread flusher;
+    private volatile Thread compactor;
+
+    private Journal(File dir, FileLock lock, long gen) throws IOException {
+        this.dir = dir;
+        this.lock = lock;
+        this.gen = gen;
+        this.out = openJournal(gen);
+        flusher = new Thread(this::flushLoop, "journal-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Loads the newest snapshot and replays the journals into roster, then starts a new journal;
+    // fails if another instance has the directory open
+    public static Journal open(File dir, Roster roster) throws IOException {
+        Files.createDirectories(dir.toPath());
+        FileLock lock = lock(dir);
+        try {
+            return open(dir, roster, lock);
+        } catch (IOException | RuntimeException | Error ex) {
+            unlock(dir, lock);
+            throw ex;
+        }
+    }
+
+    private static FileLock lock(File dir) throws IOException {
+        Path key = dir.toPath().toRealPath();
+        synchronized (LOCKED) {
+            if (!LOCKED.add(key)) throw new IOException("it is already open in this Student Grade Manager");
+        }
+        FileLock lock = null;
+        try {
+            FileChannel ch = FileChannel.open(new File(dir, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                lock = ch.tryLock();
+            } catch (OverlappingFileLockException ex) {
+                // cannot happen with LOCKED; treated as held
+            } finally {
+                if (lock == null) ch.close();
+            }
+            if (lock == null) throw new IOException("it is in use by another Student Grade Manager");
+            return lock;
+        } finally {
+            if (lock == null) {
+                synchronized (LOCKED) {
+                    LOCKED.remove(key);
+                }
+            }
+        }
+    }
+
+    private static void unlock(File dir, FileLock lock) throws IOException {
+        try {
+            lock.channel().close(); // releases the lock
+        } finally {
+            synchronized (LOCKED) {
+                LOCKED.remove(dir.toPath().toRealPath());
+            }
+        }
+    }
+
+    private static Journal open(File dir, Roster roster, FileLock lock) throws IOException {
+        long snapGen = -1, lastGen = 0;
+        for (String name : Objects.requireNonNull(dir.list())) {
+            long g = generation(name, "snapshot-", ".bin");
+            if (g > snapGen) snapGen = g;
+            lastGen = Math.max(lastGen, Math.max(g, generation(name, "journal-", ".log")));
+        }
+        if (snapGen >= 0) RosterSnapshot.restore(roster, RosterSnapshot.read(snapshotFile(dir, snapGen)));
+        List<Long> journals = new ArrayList<>();
+        for (String name : Objects.requireNonNull(dir.list())) {
+            long g = generation(name, "journal-", ".log");
+            if (g >= 0 && g >= snapGen) journals.add(g);
+        }
+        Collections.sort(journals);
+        for (long g : journals) {
+            File f = journalFile(dir, g);
+            if (f.length() == 0) f.delete(); // a session that changed nothing
+            else replay(f, roster);
+        }
+        // never append to a journal that may end in a torn record
+        return new Journal(dir, lock, lastGen + 1);
+    }
+
+    // ---- records ----
+
+    public void put(Student s) {
+        int width = s.marks.subjectCount();
+        try {
+            DataOutputStream d = begin(PUT);
+            d.writeInt(s.rollNumber);
+            writeString(d, s.name);
+            d.writeShort(width);
+            for (int i = 0; i < width; i++) d.writeByte(s.getMark(i));
+            end();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // in-memory stream
+        }
+    }
+
+    public void delete(int roll) {
+        try {
+            begin(DELETE).writeInt(roll);
+            end();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public void subjects(List<String> names) {
+        try {
+            DataOutputStream d = begin(SUBJECTS);
+            d.writeShort(names.size());
+            for (String nm : names) writeString(d, nm);
+            end();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // A subject list change in which the 'replaced' subjects were removed and added again
+    // (MarkStore.removeSubject): live they got new, Absent columns; replay keeps their columns
+    // and clears them instead, which leaves the same marks
+    public void subjects(List<String> names, List<String> replaced) {
+        subjects(names);
+        for (String nm : replaced) clearSubject(nm);
+    }
+
+    public void clearSubject(String name) {
+        try {
+            writeString(begin(CLEAR_SUBJECT), name);
+            end();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public void clear() {
+        begin(CLEAR);
+        end();
+    }
+
+    public void scale(GradeScale scale) {
+        try {
+            DataOutputStream d = begin(SCALE);
+            writeString(d, scale.bandsText());
+            d.writeShort(scale.weights().size());
+            for (Map.Entry<String, Float> e : scale.weights().entrySet()) {
+                writeString(d, e.getKey());
+                d.writeFloat(e.getValue());
+            }
+            end();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Appended-but-unflushed bytes become durable before this returns
+    public void sync() throws IOException {
+        synchronized (io) {
+            flushPending();
+        }
+    }
+
+    // Bytes logged since the last snapshot
+    public synchronized long size() {
+        return journalBytes + pending.size();
+    }
+
+    // The first write, fsync or compaction error since the last call, or null
+    public synchronized IOException takeFailure() {
+        IOException ex = failure;
+        failure = null;
+        return ex;
+    }
+
+    public boolean needsCompaction() {
+        return size() >= COMPACT_BYTES && compactor == null;
+    }
+
+    // Start a new journal and write state (the roster's version at this point in the change
+    // stream) as the matching snapshot in the background; the version is copied there too
+    public void compact(RosterVersion state) throws IOException {
+        if (compactor != null) return;
+        long snapGen;
+        synchronized (io) {
+            flushPending();
+            out.close();
+            snapGen = ++gen;
+            out = openJournal(snapGen);
+            journalBytes = 0;
+        }
+        Thread t = new Thread(() -> {
+            try {
+                File tmp = new File(dir, "snapshot-" + snapGen + ".tmp");
+                RosterSnapshot.write(tmp, state.toData());
+                Files.move(tmp.toPath(), snapshotFile(dir, snapGen).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                for (String name : Objects.requireNonNull(dir.list())) {
+                    long g = Math.max(generation(name, "snapshot-", ".bin"), generation(name, "journal-", ".log"));
+                    if (g >= 0 && g < snapGen) new File(dir, name).delete();
+                }
+            } catch (IOException ex) {
+                // the journals stay in place, so nothing is lost; the next compaction retries
+                fail(ex);
+            } finally {
+                compactor = null;
+            }
+        }, "journal-compact");
+        t.setDaemon(true);
+        compactor = t;
+        t.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread t = compactor;
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (io) {
+            if (closed) return;
+            closed = true;
+            flusher.interrupt();
+            try {
+                flushPending();
+            } finally {
+                try {
+                    out.close();
+                } finally {
+                    unlock(dir, lock);
+                }
+            }
+        }
+    }
+
+    // ---- writing ----
+
+    private DataOutputStream begin(byte type) {
+        payload.reset();
+        DataOutputStream d = new DataOutputStream(payload);
+        payload.write(type);
+        return d;
+    }
+
+    private void end() {
+        byte[] p = payload.toByteArray();
+        crc.reset();
+        crc.update(p, 0, p.length);
+        synchronized (this) {
+            writeIntTo(pending, p.length);
+            writeIntTo(pending, (int) crc.getValue());
+            pending.write(p, 0, p.length);
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            try {
+                Thread.sleep(FLUSH_MS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            synchronized (io) {
+                if (closed) return;
+                try {
+                    flushPending();
+                } catch (IOException ex) {
+                    fail(ex);
+                }
+            }
+        }
+    }
+
+    private synchronized void fail(IOException ex) {
+        if (failure == null) failure = ex;
+    }
+
+    // Caller holds io
+    private void flushPending() throws IOException {
+        byte[] bytes;
+        synchronized (this) {
+            if (pending.size() == 0) return;
+            bytes = pending.toByteArray();
+            pending.reset();
+        }
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        while (b.hasRemaining()) out.write(b);
+        out.force(false);
+        journalBytes += bytes.length;
+    }
+
+    private FileChannel openJournal(long g) throws IOException {
+        return FileChannel.open(journalFile(dir, g).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void writeIntTo(ByteArrayOutputStream b, int v) {
+        b.write(v >>> 24);
+        b.write(v >>> 16);
+        b.write(v >>> 8);
+        b.write(v);
+    }
+
+    private static void writeString(DataOutputStream d, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        d.writeInt(b.length);
+        d.write(b);
+    }
+
+    // ---- replay ----
+
+    private static void replay(File file, Roster roster) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            CRC32C crc = new CRC32C();
+            while (true) {
+                int len, sum;
+                byte[] p;
+                try {
+                    len = in.readInt();
+                    sum = in.readInt();
+                    if (len <= 0 || len > (64 << 20)) return; // garbage length: torn tail
+                    p = new byte[len];
+                    in.readFully(p);
+                } catch (EOFException ex) {
+                    return;
+                }
+                crc.reset();
+                crc.update(p, 0, len);
+                if ((int) crc.getValue() != sum) return;
+                apply(new DataInputStream(new ByteArrayInputStream(p)), roster);
+            }
+        }
+    }
+
+    private static void apply(DataInputStream d, Roster roster) throws IOException {
+        MarkStore marks = roster.marks;
+        byte type = d.readByte();
+        switch (type) {
+            case PUT: {
+                int roll = d.readInt();
+                String name = readString(d);
+                int width = d.readUnsignedShort();
+                if (width != marks.subjectCount()) throw new IOException("Journal record does not match the subject list");
+                byte[] m = new byte[width];
+                d.readFully(m);
+                Student s = roster.byRoll(roll);
+                if (s == null) {
+                    Student created = new Student(name, roll, marks);
+                    for (int i = 0; i < width; i++) created.setMark(i, m[i]);
+                    created.calculateAverageAndGrade();
+                    roster.add(created);
+                } else {
+                    roster.update(s, () -> {
+                        s.name = name;
+                        for (int i = 0; i < width; i++) s.setMark(i, m[i]);
+                        s.calculateAverageAndGrade();
+                    });
+                }
+                break;
+            }
+            case DELETE: {
+                Student s = roster.byRoll(d.readInt());
+                if (s != null) {
+                    roster.remove(s);
+                    s.release();
+                }
+                break;
+            }
+            case SUBJECTS: {
+                int n = d.readUnsignedShort();
+                List<String> names = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) names.add(readString(d));
+                roster.setSubjects(names);
+                roster.dropDetachedSubjects();
+                break;
+            }
+            case CLEAR_SUBJECT:
+                roster.clearSubject(readString(d));
+                break;
+            case CLEAR:
+                for (Student s : roster) s.release();
+                roster.clear();
+                break;
+            case SCALE: {
+                String bands = readString(d);
+                int n = d.readUnsignedShort();
+                Map<String, Float> weights = new LinkedHashMap<>();
+                for (int i = 0; i < n; i++) weights.put(readString(d), d.readFloat());
+                try {
+                    roster.setScale(GradeScale.parse(bands, "").withWeights(weights));
+                } catch (IllegalArgumentException ex) {
+                    throw new IOException("Journal holds an invalid grade scale: " + ex.getMessage());
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private static String readString(DataInputStream d) throws IOException {
+        byte[] b = new byte[d.readInt()];
+        d.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    // ---- files ----
+
+    private static File snapshotFile(File dir, long g) {
+        return new File(dir, "snapshot-" + g + ".bin");
+    }
+
+    private static File journalFile(File dir, long g) {
+        return new File(dir, "journal-" + g + ".log");
+    }
+
+    // <gen> from prefix<gen>suffix, or -1
+    private static long generation(String name, String prefix, String suffix) {
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) return -1;
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+
+// A batch of mark changes from a delta CSV, one change per line, e.g. one exam's results:
+//
+//   roll,subject,mark          (a header line like this one is skipped)
+//   1024,Maths,78
+//   1031,Maths,Absent
+//
+// Lines starting with # are comments. A mark is 0-100 or Absent; an empty mark is an error,
+// not Absent, so a half-filled sheet cannot wipe out marks. Subjects match the subject list
+// exactly, else ignoring case. A later line for the same roll and subject wins: only it is
+// compared with the stored mark, and the earlier ones count as unchanged.
+//
+// read() parses the file on any thread into flat arrays. apply() then makes one pass over them
+// through the roll index on the roster's owner thread and changes every affected student in a
+// single Roster.updateMarks, so only they are recomputed. Unknown rolls, unknown subjects and
+// bad lines are collected into one Report instead of stopping the run.
+class MarkDelta {
+    private int size;
+    private int[] rolls = new int[1024];
+    private int[] subjects = new int[1024]; // index into subjectNames
+    private byte[] marks = new byte[1024];
+    // subject names as written in the file, resolved against the roster's list by apply()
+    private final List<String> subjectNames = new ArrayList<>();
+    private final Map<String, Integer> subjectIds = new HashMap<>();
+    private final Report report = new Report();
+
+    // What a delta did, or could not do
+    static final class Report {
+        static final int LISTED = 20; // bad lines and unknown rolls listed; the rest are counted
+
+        int lines;      // change lines read
+        int changed;    // lines that set a mark different from the stored one
+        int unchanged;  // lines that left a mark as it was (same value, or a later line for it)
+        int students;   // students recomputed
+        int badLines;
+        private final List<String> bad = new ArrayList<>();
+        private final SortedSet<Integer> unknownRolls = new TreeSet<>();
+        private int unknownRollLines;
+        private final Map<String, Integer> unknownSubjects = new TreeMap<>();
+
+        void badLine(int line, String why) {
+            badLines++;
+            if (bad.size() < LISTED) bad.add("line " + line + ": " + why);
+        }
+
+        int unknownRolls() {
+            return unknownRolls.size();
+        }
+
+        int problems() {
+            return badLines + unknownRollLines + unknownSubjects.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        // One line for a status message or stderr
+        String summary() {
+            return String.format("%,d lines: %,d marks changed for %,d students, %,d unchanged, %,d not applied",
+                    lines, changed, students, unchanged, problems());
+        }
+
+        // summary() plus the unknown rolls and subjects and the bad lines
+        String text() {
+            StringBuilder sb = new StringBuilder(summary()).append('\n');
+            if (!unknownRolls.isEmpty()) {
+                sb.append(String.format("Unknown rolls (%,d):", unknownRolls.size()));
+                int n = 0;
+                for (int roll : unknownRolls) {
+                    if (n++ == LISTED) { sb.append(" ..."); break; }
+                    sb.append(' ').append(roll);
+                }
+                sb.append('\n');
+            }
+            for (Map.Entry<String, Integer> e : unknownSubjects.entrySet()) {
+                sb.append(String.format("Unknown subject %s (%,d line%s)%n", e.getKey(), e.getValue(), (e.getValue() == 1) ? "" : "s"));
+            }
+            if (badLines > 0) {
+                sb.append(String.format("Invalid lines (%,d):%n", badLines));
+                for (String b : bad) sb.append("  ").append(b).append('\n');
+                if (badLines > bad.size()) sb.append(String.format("  ... and %,d more%n", badLines - bad.size()));
+            }
+            return sb.toString();
+        }
+    }
+
+    static MarkDelta read(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    // Parses every line; malformed ones go to the report
+    static MarkDelta read(InputStream raw) throws IOException {
+        MarkDelta d = new MarkDelta();
+        BufferedReader in = new BufferedReader(new InputStreamReader(raw, StandardCharsets.UTF_8), 1 << 16);
+        int lineNo = 0;
+        boolean first = true;
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            lineNo++;
+            String t = line.trim();
+            if (t.isEmpty() || t.startsWith("#")) continue;
+            boolean header = first && t.toLowerCase(Locale.ROOT).startsWith("roll");
+            first = false;
+            if (!header) d.parseLine(t, lineNo);
+        }
+        return d;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void parseLine(String line, int lineNo) {
+        report.lines++;
+        String[] parts = CsvImport.splitCSVLine(line);
+        if (parts.length != 3) {
+            report.badLine(lineNo, "expected roll,subject,mark: " + line);
+            return;
+        }
+        int roll;
+        try {
+            roll = Integer.parseInt(parts[0].trim());
+        } catch (NumberFormatException ex) {
+            report.badLine(lineNo, "not a roll number: " + parts[0].trim());
+            return;
+        }
+        String subject = parts[1].trim();
+        if (subject.length() >= 2 && subject.startsWith("\"") && subject.endsWith("\"")) subject = subject.substring(1, subject.length() - 1);
+        if (subject.isEmpty()) {
+            report.badLine(lineNo, "no subject");
+            return;
+        }
+        String markText = parts[2].trim();
+        int mark;
+        if (markText.equalsIgnoreCase("Absent")) mark = MarkStore.ABSENT;
+        else {
+            try {
+                mark = Integer.parseInt(markText);
+            } catch (NumberFormatException ex) {
+                mark = -2;
+            }
+            if (mark < 0 || mark > 100) {
+                report.badLine(lineNo, "mark must be 0-100 or Absent, not \"" + markText + "\"");
+                return;
+            }
+        }
+        if (size == rolls.length) {
+            int n = size * 2;
+            rolls = Arrays.copyOf(rolls, n);
+            subjects = Arrays.copyOf(subjects, n);
+            marks = Arrays.copyOf(marks, n);
+        }
+        Integer id = subjectIds.get(subject);
+        if (id == null) {
+            id = subjectNames.size();
+            subjectNames.add(subject);
+            subjectIds.put(subject, id);
+        }
+        rolls[size] = roll;
+        subjects[size] = id;
+        marks[size] = (byte) mark;
+        size++;
+    }
+
+    // Sets the marks on the roster's owner thread; returns the students changed (for the
+    // journal) and fills the report
+    List<Student> apply(Roster roster) {
+        MarkStore store = roster.marks;
+        int[] pos = new int[subjectNames.size()];
+        for (int i = 0; i < pos.length; i++) pos[i] = position(store, subjectNames.get(i));
+
+        // resolve every line through the roll index, last line first: only the last line for a
+        // student and subject counts (later[row * width + position] marks it as seen), and a
+        // student is changed if one of those differs from the stored mark. who[i] is set for the
+        // lines to apply.
+        Student[] who = new Student[size];
+        List<Student> changed = new ArrayList<>();
+        BitSet seen = new BitSet(), later = new BitSet();
+        int width = store.subjectCount();
+        for (int i = size - 1; i >= 0; i--) {
+            int p = pos[subjects[i]];
+            if (p < 0) {
+                report.unknownSubjects.merge(subjectNames.get(subjects[i]), 1, Integer::sum);
+                continue;
+            }
+            Student s = roster.byRoll(rolls[i]);
+            if (s == null) {
+                report.unknownRolls.add(rolls[i]);
+                report.unknownRollLines++;
+                continue;
+            }
+            int key = s.row * width + p;
+            boolean superseded = later.get(key);
+            later.set(key);
+            if (superseded || store.get(s.row, p) == marks[i]) {
+                report.unchanged++;
+                continue;
+            }
+            who[i] = s;
+            report.changed++;
+            if (!seen.get(s.row)) {
+                seen.set(s.row);
+                changed.add(s);
+            }
+        }
+        Collections.reverse(changed); // back to file order (of each student's last change)
+        report.students = changed.size();
+        if (changed.isEmpty()) return changed;
+
+        roster.updateMarks(changed, () -> {
+            for (int i = 0; i < size; i++) {
+                if (who[i] != null) who[i].setMark(pos[subjects[i]], marks[i]);
+            }
+            for (Student s : changed) s.calculateAverageAndGrade();
+        });
+        return changed;
+    }
+
+    Report report() {
+        return report;
+    }
+
+    private static int position(MarkStore store, String subject) {
+        int p = store.positionOf(subject);
+        if (p >= 0) return p;
+        for (int i = 0; i < store.subjectCount(); i++) {
+            if (store.subjectName(i).equalsIgnoreCase(subject)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,452 @@
+import java.util.*;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+// Columnar mark storage shared by all students.
+// Subject names are interned to column ids once; every student owns one row of a byte[]
+// matrix (one byte per mark, ABSENT = -1), so a mark costs 1 byte instead of a
+// boxed Integer plus a LinkedHashMap entry and a repeated subject-name reference.
+//
+// Measured heap for 100k students x 12 subjects (JDK 17, compressed oops):
+//   LinkedHashMap<String,Integer> per student : ~600 B/student -> ~59 MB
+//   MarkStore row (stride 16)                 :   16 B/student -> ~1.9 MB (incl. growth slack)
+//
+// The matrix is cut into blocks of BLOCK rows, LEAF blocks to a leaf, each stamped with the
+// epoch it was made in. freeze() hands out the current leaves as a read-only Frozen view in
+// O(1) and starts a new epoch; from then on a write copies its block (and that block's leaf,
+// and the short leaf table) once before changing it, so a frozen view never changes and costs
+// memory only for the blocks written after it. Each row also keeps a reference to its student's
+// name (set by Roster), so a view holds everything a RosterVersion needs.
+class MarkStore {
+    static final byte ABSENT = -1;
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK = 1 << BLOCK_SHIFT; // rows per block
+    private static final int LEAF_SHIFT = 8;
+    private static final int LEAF = 1 << LEAF_SHIFT;   // blocks per leaf
+    private static final int MIN_STRIDE = 8;
+
+    private static final class Block {
+        final int epoch;
+        final byte[] marks;   // BLOCK rows x stride
+        final String[] names; // per row
+
+        Block(int epoch, byte[] marks, String[] names) {
+            this.epoch = epoch;
+            this.marks = marks;
+            this.names = names;
+        }
+    }
+
+    private static final class Leaf {
+        final int epoch;
+        final Block[] blocks;
+
+        Leaf(int epoch, Block[] blocks) {
+            this.epoch = epoch;
+            this.blocks = blocks;
+        }
+    }
+
+    // subject table: name -> column id; schema = column ids in display order
+    private final Map<String, Integer> columnByName = new HashMap<>();
+    private String[] nameByColumn = new String[MIN_STRIDE];
+    private int[] schema = new int[0];
+    private final BitSet usedColumns = new BitSet();
+    // freed columns that may still hold a dropped subject's marks; any other unused column is
+    // Absent in every row, so a new subject there needs no fill
+    private final BitSet dirtyColumns = new BitSet();
+    // subjects removed in Manage Subjects (removeSubject) until the next setSubjects()
+    private final Set<String> removed = new HashSet<>();
+    // bumped by every change that can move averages without going through a student:
+    // a new schema (added, removed or reordered subjects), a cleared subject or a new scale
+    private int version;
+    private GradeScale scale = GradeScale.DEFAULT;
+    private float[] weightAt; // scale weight per schema position; null when every weight is 1
+
+    // row-major blocks, stride bytes per row; blocks and leaves from an older epoch are shared
+    // with a Frozen view and copied before they are written
+    private int stride = MIN_STRIDE;
+    private Leaf[] leaves = new Leaf[0];
+    private int leavesEpoch;
+    private int epoch;
+    private int rowCapacity; // rows in the blocks made so far
+    private int rowHigh; // rows [0, rowHigh) have been handed out at least once
+    private int[] freeRows = new int[16];
+    private int freeCount;
+
+    // told when a column is set Absent for every row (new subject, clearSubject)
+    private IntConsumer columnReset = col -> { };
+
+    public MarkStore(List<String> subjects) {
+        setSubjects(subjects);
+    }
+
+    public void setColumnResetListener(IntConsumer listener) {
+        columnReset = listener;
+    }
+
+    // ---- schema ----
+
+    // Averages computed at an older version are out of date (see Student.average())
+    public int version() {
+        return version;
+    }
+
+    public GradeScale scale() {
+        return scale;
+    }
+
+    // Grade bands and weights for every average computed from now on
+    public void setScale(GradeScale newScale) {
+        if (newScale.equals(scale)) return;
+        scale = newScale;
+        weightAt = weights();
+        version++;
+    }
+
+    public int subjectCount() {
+        return schema.length;
+    }
+
+    public String subjectName(int pos) {
+        return nameByColumn[schema[pos]];
+    }
+
+    public List<String> subjectNames() {
+        List<String> out = new ArrayList<>(schema.length);
+        for (int c : schema) out.add(nameByColumn[c]);
+        return out;
+    }
+
+    // Column id of schema position pos; stable while the subject stays in (or detached from) the schema
+    public int columnAt(int pos) {
+        return schema[pos];
+    }
+
+    // Column ids are below this bound
+    public int columnLimit() {
+        return stride;
+    }
+
+    // True for schema columns and for detached ones that still hold marks
+    public boolean isColumnUsed(int col) {
+        return usedColumns.get(col);
+    }
+
+    // position of a subject in the current schema, or -1
+    public int positionOf(String name) {
+        Integer col = columnByName.get(name);
+        if (col == null) return -1;
+        for (int i = 0; i < schema.length; i++) if (schema[i] == col) return i;
+        return -1;
+    }
+
+    // Replace the schema. Subjects kept by name keep their column (and marks); new subjects
+    // start Absent for everyone. Dropped subjects stay detached with their marks until
+    // dropDetachedSubjects(), so a later setSubjects() can still bring them back.
+    // A subject given to removeSubject() since the last call is new even if its name is back:
+    // it gets a new column and its old one is left detached, with no name, for
+    // dropDetachedSubjects().
+    public void setSubjects(List<String> names) {
+        int[] newSchema = new int[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            String nm = names.get(i);
+            Integer col = columnByName.get(nm);
+            if (col != null && removed.contains(nm)) {
+                columnByName.remove(nm); // the old column stays detached, with no name
+                col = null;
+            }
+            if (col == null) {
+                col = newColumn(nm);
+                if (dirtyColumns.get(col)) fillColumn(col, ABSENT);
+                else columnReset.accept(col);
+            }
+            newSchema[i] = col;
+        }
+        removed.clear();
+        if (Arrays.equals(newSchema, schema)) return;
+        schema = newSchema;
+        weightAt = weights();
+        version++;
+    }
+
+    // Free the columns of subjects that are no longer in the schema
+    public void dropDetachedSubjects() {
+        BitSet live = new BitSet();
+        for (int c : schema) live.set(c);
+        for (int col = usedColumns.nextSetBit(0); col >= 0; col = usedColumns.nextSetBit(col + 1)) {
+            if (live.get(col)) continue;
+            Integer named = columnByName.get(nameByColumn[col]);
+            if (named != null && named == col) columnByName.remove(nameByColumn[col]);
+            usedColumns.clear(col);
+            dirtyColumns.set(col);
+            nameByColumn[col] = null;
+        }
+    }
+
+    // The subject is being removed from the list (Manage Subjects): if the next setSubjects()
+    // has the name again, it starts Absent for everyone in a new column rather than keeping
+    // these marks. Touches no rows; the marks go when the old column is detached and dropped.
+    public void removeSubject(String name) {
+        if (columnByName.containsKey(name)) removed.add(name);
+    }
+
+    // Names passed to removeSubject() since the last setSubjects()
+    public Set<String> removedSubjects() {
+        return Collections.unmodifiableSet(removed);
+    }
+
+    // Forget removeSubject() calls (the dialog was closed without applying them)
+    public void cancelRemovals() {
+        removed.clear();
+    }
+
+    // Mark every student Absent for this subject (column stays in the schema)
+    public void clearSubject(String name) {
+        Integer col = columnByName.get(name);
+        if (col == null) return;
+        fillColumn(col, ABSENT);
+        version++;
+    }
+
+    private float[] weights() {
+        if (scale == null || !scale.isWeighted()) return null;
+        float[] w = new float[schema.length];
+        for (int i = 0; i < w.length; i++) w[i] = scale.weight(nameByColumn[schema[i]]);
+        return w;
+    }
+
+    private int newColumn(String name) {
+        int col = usedColumns.nextClearBit(0);
+        if (col >= stride) restride(Math.max(stride * 2, col + 1));
+        usedColumns.set(col);
+        nameByColumn[col] = name;
+        columnByName.put(name, col);
+        return col;
+    }
+
+    private void fillColumn(int col, byte value) {
+        for (int first = 0; first < rowHigh; first += BLOCK) {
+            byte[] m = writable(first).marks;
+            for (int off = col, end = Math.min(BLOCK, rowHigh - first) * stride; off < end; off += stride) m[off] = value;
+        }
+        if (value == ABSENT) {
+            dirtyColumns.clear(col);
+            columnReset.accept(col);
+        }
+    }
+
+    private void restride(int newStride) {
+        Leaf[] grown = new Leaf[leaves.length];
+        for (int l = 0; l < leaves.length; l++) {
+            Block[] blocks = new Block[LEAF];
+            for (int b = 0; b < LEAF; b++) {
+                Block old = leaves[l].blocks[b];
+                if (old == null) break;
+                byte[] m = new byte[BLOCK * newStride];
+                Arrays.fill(m, ABSENT);
+                for (int r = 0; r < BLOCK; r++) System.arraycopy(old.marks, r * stride, m, r * newStride, stride);
+                blocks[b] = new Block(epoch, m, old.names.clone());
+            }
+            grown[l] = new Leaf(epoch, blocks);
+        }
+        leaves = grown;
+        leavesEpoch = epoch;
+        stride = newStride;
+        nameByColumn = Arrays.copyOf(nameByColumn, newStride);
+    }
+
+    // ---- blocks ----
+
+    private static Block block(Leaf[] leaves, int row) {
+        return leaves[row >>> (BLOCK_SHIFT + LEAF_SHIFT)].blocks[(row >>> BLOCK_SHIFT) & (LEAF - 1)];
+    }
+
+    private byte[] rowBlock(int row) {
+        return block(leaves, row).marks;
+    }
+
+    private int offset(int row) {
+        return (row & (BLOCK - 1)) * stride;
+    }
+
+    // The block holding row, copied first if it (or its leaf, or the leaf table) is shared with
+    // a Frozen view
+    private Block writable(int row) {
+        Leaf leaf = writableLeaf(row >>> (BLOCK_SHIFT + LEAF_SHIFT));
+        int b = (row >>> BLOCK_SHIFT) & (LEAF - 1);
+        Block blk = leaf.blocks[b];
+        if (blk.epoch != epoch) leaf.blocks[b] = blk = new Block(epoch, blk.marks.clone(), blk.names.clone());
+        return blk;
+    }
+
+    private Leaf writableLeaf(int l) {
+        if (leavesEpoch != epoch) {
+            leaves = leaves.clone();
+            leavesEpoch = epoch;
+        }
+        Leaf leaf = leaves[l];
+        if (leaf.epoch != epoch) leaves[l] = leaf = new Leaf(epoch, leaf.blocks.clone());
+        return leaf;
+    }
+
+    private void addBlock() {
+        int b = rowCapacity >>> BLOCK_SHIFT, l = b >>> LEAF_SHIFT;
+        if (l == leaves.length) {
+            leaves = Arrays.copyOf(leaves, l + 1);
+            leavesEpoch = epoch;
+            leaves[l] = new Leaf(epoch, new Block[LEAF]);
+        }
+        writableLeaf(l).blocks[b & (LEAF - 1)] = new Block(epoch, new byte[BLOCK * stride], new String[BLOCK]);
+        rowCapacity += BLOCK;
+    }
+
+    // This store as it is now, in O(1): the rows written from here on are copied first, so the
+    // view never changes and can be read from any thread
+    public Frozen freeze() {
+        Frozen f = new Frozen(leaves, rowHigh, stride, schema, subjectNames(), scale);
+        epoch++;
+        return f;
+    }
+
+    // Read-only view of the rows, subjects and scale at a freeze()
+    static final class Frozen {
+        private final Leaf[] leaves;
+        private final int rowHigh;
+        private final int stride;
+        private final int[] schema;
+        final List<String> subjects;
+        final GradeScale scale;
+
+        private Frozen(Leaf[] leaves, int rowHigh, int stride, int[] schema, List<String> subjects, GradeScale scale) {
+            this.leaves = leaves;
+            this.rowHigh = rowHigh;
+            this.stride = stride;
+            this.schema = schema;
+            this.subjects = Collections.unmodifiableList(subjects);
+            this.scale = scale;
+        }
+
+        int subjectCount() {
+            return schema.length;
+        }
+
+        // mark of the subject at position pos of this view's subject list; -1 means Absent
+        int get(int row, int pos) {
+            return block(leaves, row).marks[(row & (BLOCK - 1)) * stride + schema[pos]];
+        }
+
+        String name(int row) {
+            return (row < rowHigh) ? block(leaves, row).names[row & (BLOCK - 1)] : null;
+        }
+
+        void copyRow(int row, byte[] dst, int off) {
+            byte[] m = block(leaves, row).marks;
+            int base = (row & (BLOCK - 1)) * stride;
+            for (int i = 0; i < schema.length; i++) dst[off + i] = m[base + schema[i]];
+        }
+    }
+
+    // ---- rows ----
+
+    // New row with every subject Absent
+    public int allocRow() {
+        int row;
+        if (freeCount > 0) row = freeRows[--freeCount];
+        else {
+            if (rowHigh == rowCapacity) addBlock();
+            row = rowHigh++;
+        }
+        Block blk = writable(row);
+        int off = offset(row);
+        Arrays.fill(blk.marks, off, off + stride, ABSENT);
+        blk.names[row & (BLOCK - 1)] = null;
+        return row;
+    }
+
+    // Drop every row at once (Overwrite load); the blocks are kept
+    public void clearRows() {
+        rowHigh = 0;
+        freeCount = 0;
+    }
+
+    public void freeRow(int row) {
+        if (freeCount == freeRows.length) freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+        freeRows[freeCount++] = row;
+    }
+
+    // The name of the row's student, as Roster last saw it (for Frozen views)
+    public void setName(int row, String name) {
+        writable(row).names[row & (BLOCK - 1)] = name;
+    }
+
+    // mark of the subject at schema position pos; -1 means Absent
+    public int get(int row, int pos) {
+        return rowBlock(row)[offset(row) + schema[pos]];
+    }
+
+    // mark by column id rather than schema position
+    public int getColumn(int row, int col) {
+        return rowBlock(row)[offset(row) + col];
+    }
+
+    // mark must be 0-100 or -1 (Absent)
+    public void set(int row, int pos, int mark) {
+        writable(row).marks[offset(row) + schema[pos]] = (byte) mark;
+    }
+
+    // Copy a row's marks in schema order into dst[off..off + subjectCount())
+    public void copyRow(int row, byte[] dst, int off) {
+        byte[] m = rowBlock(row);
+        int base = offset(row);
+        for (int i = 0; i < schema.length; i++) dst[off + i] = m[base + schema[i]];
+    }
+
+    // Sum of present marks over the schema
+    public int sum(int row) {
+        byte[] m = rowBlock(row);
+        int base = offset(row), sum = 0;
+        for (int c : schema) {
+            int v = m[base + c];
+            if (v >= 0) sum += v;
+        }
+        return sum;
+    }
+
+    // Average of a row under the current scale; Absent counts as 0
+    public float average(int row) {
+        return (weightAt == null) ? plainAverage(rowBlock(row), offset(row)) : weightedAverage(rowBlock(row), offset(row));
+    }
+
+    // average(rows[i]) into out[i] for i in [from, to). Reads only, so disjoint ranges can run on
+    // several threads (GradeEngine) as long as nothing writes the store meanwhile.
+    public void averages(int[] rows, int from, int to, float[] out) {
+        if (weightAt == null) {
+            for (int i = from; i < to; i++) out[i] = plainAverage(rowBlock(rows[i]), offset(rows[i]));
+        } else {
+            for (int i = from; i < to; i++) out[i] = weightedAverage(rowBlock(rows[i]), offset(rows[i]));
+        }
+    }
+
+    private float plainAverage(byte[] m, int base) {
+        int[] cols = schema;
+        int sum = 0;
+        for (int c : cols) {
+            int v = m[base + c];
+            sum += v & ~(v >> 31); // Absent (-1) adds 0
+        }
+        return (float) sum / Math.max(1, cols.length);
+    }
+
+    private float weightedAverage(byte[] m, int base) {
+        int[] cols = schema;
+        float[] w = weightAt;
+        double sum = 0, total = 0;
+        for (int i = 0; i < cols.length; i++) {
+            int v = m[base + cols[i]];
+            sum += w[i] * (v & ~(v >> 31));
+            total += w[i];
+        }
+        return (total > 0) ? (float) (sum / total) : 0f;
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Process-wide counters, gauges and latency timers: what Diagnostics > Metrics shows and
+// exports, and what GradeBatch --metrics writes. Timed operations also commit a JFR event
+// (GradeEvents), so a flight recording has the same numbers with timestamps and threads.
+// Safe to use from any thread; no AWT classes, so the headless batch can use it too.
+final class Metrics {
+    private static final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static final Deque<Stall> stalls = new ArrayDeque<>();
+    private static final int MAX_STALLS = 20;
+    private static final long STARTED = System.currentTimeMillis();
+
+    static {
+        Runtime rt = Runtime.getRuntime();
+        gauge("heap.used", () -> rt.totalMemory() - rt.freeMemory());
+        gauge("heap.committed", rt::totalMemory);
+        gauge("heap.max", rt::maxMemory);
+    }
+
+    private Metrics() {
+    }
+
+    // Latency of one kind of operation: count, total, max and a histogram for percentiles.
+    // Buckets are quarter powers of two, so percentiles are within 19% of the true value.
+    static final class Timer {
+        private static final int SUB = 4;
+        private final long[] buckets = new long[64 * SUB];
+        private long count, total, max;
+
+        // Records the time since started (a System.nanoTime value); returns it
+        long since(long started) {
+            long nanos = System.nanoTime() - started;
+            record(nanos);
+            return nanos;
+        }
+
+        synchronized void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+            buckets[bucket(nanos)]++;
+        }
+
+        private static int bucket(long v) {
+            if (v < SUB) return (int) v;
+            int log = 63 - Long.numberOfLeadingZeros(v);
+            return log * SUB + (int) ((v >>> (log - 2)) & (SUB - 1));
+        }
+
+        // Upper bound of a bucket's values
+        private static long bound(int b) {
+            if (b < SUB) return b;
+            int log = b / SUB;
+            return ((long) (SUB + b % SUB + 1) << (log - 2)) - 1;
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized double meanMillis() {
+            return (count == 0) ? 0 : total / 1e6 / count;
+        }
+
+        synchronized double maxMillis() {
+            return max / 1e6;
+        }
+
+        // p in 0-100; 0 with no samples
+        synchronized double percentileMillis(double p) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * p / 100));
+            long seen = 0;
+            for (int b = 0; b < buckets.length; b++) {
+                seen += buckets[b];
+                if (seen >= rank) return Math.min(bound(b), max) / 1e6;
+            }
+            return max / 1e6;
+        }
+
+        synchronized double totalMillis() {
+            return total / 1e6;
+        }
+    }
+
+    // An EDT stall reported by EdtWatchdog
+    static final class Stall {
+        final long at;          // currentTimeMillis when it ended
+        final long blockedMillis;
+        final String stack;     // the EDT's stack when the stall was detected
+
+        Stall(long at, long blockedMillis, String stack) {
+            this.at = at;
+            this.blockedMillis = blockedMillis;
+            this.stack = stack;
+        }
+    }
+
+    static Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    static void count(String name, long n) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(n);
+    }
+
+    static long counter(String name) {
+        LongAdder a = counters.get(name);
+        return (a == null) ? 0 : a.sum();
+    }
+
+    // A value read when metrics are shown or exported; replaces any gauge of the same name
+    static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    static void stall(long blockedMillis, String stack) {
+        count("edt.stalls", 1);
+        synchronized (stalls) {
+            if (stalls.size() == MAX_STALLS) stalls.removeFirst();
+            stalls.addLast(new Stall(System.currentTimeMillis(), blockedMillis, stack));
+        }
+    }
+
+    static List<Stall> stalls() {
+        synchronized (stalls) {
+            return new ArrayList<>(stalls);
+        }
+    }
+
+    // Plain-text table for the Diagnostics window (monospace layout)
+    static String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-24s %8s %9s %9s %9s %9s%n", "Timer", "Count", "Mean ms", "P50 ms", "P99 ms", "Max ms"));
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            Timer t = e.getValue();
+            sb.append(String.format("%-24s %8d %9.2f %9.2f %9.2f %9.2f%n", e.getKey(), t.count(), t.meanMillis(),
+                    t.percentileMillis(50), t.percentileMillis(99), t.maxMillis()));
+        }
+        sb.append('\n').append(String.format("%-24s %16s%n", "Counter", "Value"));
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            sb.append(String.format("%-24s %,16d%n", e.getKey(), e.getValue().sum()));
+        }
+        Timer imports = timers.get("import");
+        if (imports != null && imports.totalMillis() > 0) {
+            sb.append(String.format("%-24s %,16.0f%n", "import.rowsPerSec", counter("import.rows") / (imports.totalMillis() / 1000)));
+        }
+        sb.append('\n');
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            sb.append(String.format("%-24s %,16d%n", e.getKey(), e.getValue().getAsLong()));
+        }
+        List<Stall> recent = stalls();
+        if (!recent.isEmpty()) {
+            sb.append("\nRecent EDT stalls (newest last):\n");
+            for (Stall s : recent) {
+                sb.append(String.format("%tT  blocked %,d ms%n", s.at, s.blockedMillis));
+                sb.append(s.stack);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Everything in report(), as JSON, atomically replacing file
+    static void write(File file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"started\": ").append(STARTED).append(",\n  \"written\": ").append(System.currentTimeMillis());
+        sb.append(",\n  \"timers\": {");
+        String sep = "\n";
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            Timer t = e.getValue();
+            sb.append(sep).append("    ").append(Json.quote(e.getKey())).append(String.format(Locale.ROOT,
+                    ": {\"count\": %d, \"totalMs\": %.3f, \"meanMs\": %.3f, \"p50Ms\": %.3f, \"p90Ms\": %.3f, \"p99Ms\": %.3f, \"maxMs\": %.3f}",
+                    t.count(), t.totalMillis(), t.meanMillis(), t.percentileMillis(50), t.percentileMillis(90),
+                    t.percentileMillis(99), t.maxMillis()));
+            sep = ",\n";
+        }
+        sb.append("\n  },\n  \"counters\": {");
+        sep = "\n";
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            sb.append(sep).append("    ").append(Json.quote(e.getKey())).append(": ").append(e.getValue().sum());
+            sep = ",\n";
+        }
+        sb.append("\n  },\n  \"gauges\": {");
+        sep = "\n";
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            sb.append(sep).append("    ").append(Json.quote(e.getKey())).append(": ").append(e.getValue().getAsLong());
+            sep = ",\n";
+        }
+        sb.append("\n  },\n  \"edtStalls\": [");
+        sep = "\n";
+        for (Stall s : stalls()) {
+            sb.append(sep).append("    {\"at\": ").append(s.at).append(", \"blockedMs\": ").append(s.blockedMillis)
+                    .append(", \"stack\": ").append(Json.quote(s.stack)).append('}');
+            sep = ",\n";
+        }
+        sb.append("\n  ]\n}\n");
+
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + ".tmp");
+        Files.write(tmp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Search-as-you-type field above the table.
+// Keystrokes restart a short debounce timer; when it fires the query runs against the roster's
+// NameIndex on a worker thread. Every new query bumps a generation number: an older query still
+// running sees it between slices and gives up, and a result that arrives late is ignored.
+class NameFilterBar extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private static final int DEBOUNCE_MS = 150;
+
+    private final Roster roster;
+    private final StudentTableModel model;
+    private final JTextField field = new JTextField(24);
+    private final JLabel status = new JLabel(" ");
+    private final Timer debounce;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "name-filter");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile int generation;
+
+    NameFilterBar(Roster roster, StudentTableModel model) {
+        super(new FlowLayout(FlowLayout.LEFT));
+        this.roster = roster;
+        this.model = model;
+        add(new JLabel("Filter by name:"));
+        add(field);
+        JButton clearBtn = new JButton("Clear");
+        clearBtn.addActionListener(e -> field.setText(""));
+        add(clearBtn);
+        add(status);
+
+        debounce = new Timer(DEBOUNCE_MS, e -> startQuery());
+        debounce.setRepeats(false);
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { changed(); }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) { changed(); }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) { changed(); }
+        });
+    }
+
+    // Filter immediately (no debounce, on the calling thread); returns the number of matches
+    public int apply(String text) {
+        debounce.stop();
+        setFieldQuietly(text);
+        int gen = ++generation;
+        String query = query(text);
+        if (query == null) {
+            show(gen, null, null);
+            return roster.size();
+        }
+        List<Student> matches = roster.names.studentsAt(roster.names.search(query, () -> false), query);
+        show(gen, query, matches);
+        return matches.size();
+    }
+
+    public void clear() {
+        apply("");
+    }
+
+    private void changed() {
+        generation++; // anything in flight is now stale
+        debounce.restart();
+    }
+
+    private void startQuery() {
+        int gen = ++generation;
+        String query = query(field.getText());
+        if (query == null) {
+            show(gen, null, null);
+            return;
+        }
+        status.setText("Searching...");
+        worker.execute(() -> {
+            GradeEvents.Query event = new GradeEvents.Query("filter", query);
+            int[] rows = roster.names.search(query, () -> generation != gen);
+            if (rows == null) return; // superseded; not a complete query, so not timed
+            event.results = rows.length;
+            event.done();
+            SwingUtilities.invokeLater(() -> {
+                if (generation != gen) return;
+                show(gen, query, roster.names.studentsAt(rows, query));
+            });
+        });
+    }
+
+    private void show(int gen, String query, List<Student> matches) {
+        if (generation != gen) return;
+        model.setFilter(query, matches);
+        refreshStatus();
+    }
+
+    // Match count; call after the table's rows changed
+    public void refreshStatus() {
+        if (!model.isFiltered()) status.setText(" ");
+        else status.setText(String.format("%,d of %,d students", model.getRowCount(), roster.size()));
+    }
+
+    private void setFieldQuietly(String text) {
+        if (field.getText().equals(text)) return;
+        field.setText(text);
+        debounce.stop(); // the document events above restarted it
+    }
+
+    // Normalized query, or null for an empty field
+    private static String query(String text) {
+        return text.trim().isEmpty() ? null : NameIndex.normalize(text);
+    }
+}
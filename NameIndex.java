@@ -0,0 +1,221 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+// Trigram index over lower-cased student names for substring search.
+// A query is answered from the posting list of its rarest trigram, and each candidate is checked
+// with contains() against the stored lower-case name, so results match the old
+// name.toLowerCase().contains(query) scan exactly. Queries under three characters scan the
+// stored names instead (their result sets are large anyway).
+// Students are identified by their MarkStore row. Removing or renaming a student does not touch
+// the posting lists: the old entries go stale and are dropped by the candidate check, and the
+// lists are rebuilt once stale entries outnumber live ones.
+// Roster updates it on the EDT; search() may run on another thread (methods lock the index,
+// and a long search releases the lock between slices so edits are not held up).
+class NameIndex {
+    private static final int SLICE = 1 << 14;
+
+    // growable int list; entries are MarkStore rows, possibly stale
+    private static final class Posting {
+        int[] rows = new int[4];
+        int size;
+
+        void add(int row) {
+            if (size == rows.length) rows = Arrays.copyOf(rows, size * 2);
+            rows[size++] = row;
+        }
+    }
+
+    // trigram -> posting, open addressing (linear probing) on the packed trigram
+    private long[] keys = new long[1024];
+    private Posting[] values = new Posting[1024];
+    private int distinct;
+    private Student[] byRow = new Student[64];
+    private String[] lowerByRow = new String[64];
+    private int rowHigh; // rows [0, rowHigh) may be in use
+    private long live, stale; // posting entries
+
+    static String normalize(String s) {
+        return s.toLowerCase();
+    }
+
+    public synchronized void add(Student s) {
+        int row = s.row;
+        if (row >= byRow.length) {
+            int n = Math.max(row + 1, byRow.length * 2);
+            byRow = Arrays.copyOf(byRow, n);
+            lowerByRow = Arrays.copyOf(lowerByRow, n);
+        }
+        byRow[row] = s;
+        lowerByRow[row] = normalize(s.name);
+        rowHigh = Math.max(rowHigh, row + 1);
+        for (long t : trigrams(lowerByRow[row])) {
+            posting(t).add(row);
+            live++;
+        }
+    }
+
+    public synchronized void remove(Student s) {
+        int row = s.row;
+        if (row >= byRow.length || byRow[row] != s) return;
+        retire(row);
+        byRow[row] = null;
+        lowerByRow[row] = null;
+        compactIfStale();
+    }
+
+    // s.name changed from the name it was indexed under
+    public synchronized void rename(Student s) {
+        int row = s.row;
+        if (row >= byRow.length || byRow[row] != s) return;
+        retire(row);
+        add(s);
+        compactIfStale();
+    }
+
+    public synchronized void clear() {
+        clearPostings();
+        Arrays.fill(byRow, null);
+        Arrays.fill(lowerByRow, null);
+        rowHigh = 0;
+        live = stale = 0;
+    }
+
+    // Does s's current name contain the (normalized) query?
+    public synchronized boolean matches(Student s, String query) {
+        int row = s.row;
+        return row < byRow.length && byRow[row] == s && lowerByRow[row].contains(query);
+    }
+
+    // Students for rows returned by search(), dropping any that no longer match
+    public synchronized List<Student> studentsAt(int[] rows, String query) {
+        List<Student> out = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            if (row < byRow.length && byRow[row] != null && lowerByRow[row].contains(query)) out.add(byRow[row]);
+        }
+        return out;
+    }
+
+    // Rows of students whose name contains the normalized query, ascending;
+    // null if cancelled (checked between slices)
+    public int[] search(String query, BooleanSupplier cancelled) {
+        int[] candidates;
+        int count;
+        synchronized (this) {
+            if (query.length() < 3) {
+                candidates = null;
+                count = rowHigh;
+            } else {
+                Posting best = null;
+                for (long t : trigrams(query)) {
+                    Posting p = find(t);
+                    if (p == null) return new int[0];
+                    if (best == null || p.size < best.size) best = p;
+                }
+                // the array is only appended to or replaced, so this prefix stays valid
+                candidates = best.rows;
+                count = best.size;
+            }
+        }
+        int[] out = new int[16];
+        int n = 0;
+        for (int from = 0; from < count; from += SLICE) {
+            if (cancelled.getAsBoolean()) return null;
+            synchronized (this) {
+                for (int i = from, to = Math.min(count, from + SLICE); i < to; i++) {
+                    int row = (candidates == null) ? i : candidates[i];
+                    String lower = (row < lowerByRow.length) ? lowerByRow[row] : null;
+                    if (lower == null || !lower.contains(query)) continue;
+                    if (n == out.length) out = Arrays.copyOf(out, n * 2);
+                    out[n++] = row;
+                }
+            }
+        }
+        out = Arrays.copyOf(out, n);
+        if (candidates == null) return out;
+        // a reused row can sit in a posting twice (stale + live)
+        Arrays.sort(out);
+        int u = 0;
+        for (int i = 0; i < n; i++) if (u == 0 || out[i] != out[u - 1]) out[u++] = out[i];
+        return Arrays.copyOf(out, u);
+    }
+
+    private void retire(int row) {
+        int n = trigrams(lowerByRow[row]).length;
+        live -= n;
+        stale += n;
+    }
+
+    private void compactIfStale() {
+        if (stale <= live || stale < SLICE) return;
+        clearPostings();
+        live = stale = 0;
+        for (int row = 0; row < rowHigh; row++) {
+            if (byRow[row] == null) continue;
+            for (long t : trigrams(lowerByRow[row])) {
+                posting(t).add(row);
+                live++;
+            }
+        }
+    }
+
+    private Posting find(long key) {
+        for (int i = slot(key, keys.length); values[i] != null; i = (i + 1) & (keys.length - 1)) {
+            if (keys[i] == key) return values[i];
+        }
+        return null;
+    }
+
+    // Posting for key, created if absent
+    private Posting posting(long key) {
+        int i = slot(key, keys.length);
+        for (; values[i] != null; i = (i + 1) & (keys.length - 1)) {
+            if (keys[i] == key) return values[i];
+        }
+        Posting p = new Posting();
+        keys[i] = key;
+        values[i] = p;
+        if (++distinct * 2 > keys.length) grow();
+        return p;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Posting[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Posting[oldKeys.length * 2];
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == null) continue;
+            int i = slot(oldKeys[j], keys.length);
+            while (values[i] != null) i = (i + 1) & (keys.length - 1);
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private void clearPostings() {
+        keys = new long[1024];
+        values = new Posting[1024];
+        distinct = 0;
+    }
+
+    private static int slot(long key, int capacity) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32) & (capacity - 1);
+    }
+
+    // Distinct trigrams of s, each packed as three 16-bit chars
+    private static long[] trigrams(String s) {
+        int n = s.length() - 2;
+        if (n <= 0) return new long[0];
+        long[] t = new long[n];
+        for (int i = 0; i < n; i++) {
+            t[i] = ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+        }
+        Arrays.sort(t);
+        int u = 0;
+        for (int i = 0; i < n; i++) if (u == 0 || t[i] != t[u - 1]) t[u++] = t[i];
+        return Arrays.copyOf(t, u);
+    }
+}
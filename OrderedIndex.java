@@ -0,0 +1,292 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Order-statistics tree over students (a treap with subtree sizes).
+// insert, remove, get(rank) and indexOf are O(log n) expected, so a table row can be mapped to
+// its student and back without a sorted copy of the roster.
+// The comparator must be a total order (ties broken by roll number) and a student's key must
+// not change while it is in the tree: remove it, change it, insert it again (see Roster.update).
+//
+// snapshot() copies the tree in O(1): both trees keep the shared nodes and give themselves a new
+// epoch, and a node from another epoch is copied (path copying) before it is changed, so neither
+// tree sees the other's changes. A tree that is never snapshotted owns every node and changes
+// them in place as before.
+class OrderedIndex implements Iterable<Student> {
+    private static final AtomicInteger EPOCHS = new AtomicInteger();
+
+    private static final class Node {
+        final Student s;
+        final int pri;
+        final int epoch;
+        int size = 1;
+        Node left, right;
+
+        Node(Student s, int pri, int epoch) {
+            this.s = s;
+            this.pri = pri;
+            this.epoch = epoch;
+        }
+    }
+
+    private final Comparator<Student> order;
+    private Node root;
+    private int seed = 0x2545F491;
+    private int epoch;
+
+    // split() results
+    private Node splitLeft, splitRight;
+
+    public OrderedIndex(Comparator<Student> order) {
+        this.order = order;
+    }
+
+    public Comparator<Student> order() {
+        return order;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    public void insert(Student s) {
+        root = insert(root, new Node(s, nextPriority(), epoch));
+    }
+
+    // false if s (by key) is not in the tree
+    public boolean remove(Student s) {
+        int before = size(root);
+        root = remove(root, s);
+        return size(root) != before;
+    }
+
+    // Copy of this tree in O(1); see the top of the file. Either may be changed afterwards, and a
+    // copy nobody changes can be read from any thread.
+    public OrderedIndex snapshot() {
+        OrderedIndex copy = new OrderedIndex(order);
+        copy.root = root;
+        copy.seed = seed;
+        copy.epoch = EPOCHS.incrementAndGet();
+        epoch = EPOCHS.incrementAndGet();
+        return copy;
+    }
+
+    // Student at sorted position index (0-based)
+    public Student get(int index) {
+        if (index < 0 || index >= size(root)) throw new IndexOutOfBoundsException("Index: " + index);
+        Node t = root;
+        while (true) {
+            int ls = size(t.left);
+            if (index < ls) t = t.left;
+            else if (index == ls) return t.s;
+            else {
+                index -= ls + 1;
+                t = t.right;
+            }
+        }
+    }
+
+    // Sorted position of s, or -1 if it is not in the tree
+    public int indexOf(Student s) {
+        Node t = root;
+        int rank = 0;
+        while (t != null) {
+            int c = order.compare(s, t.s);
+            if (c < 0) t = t.left;
+            else if (c > 0) {
+                rank += size(t.left) + 1;
+                t = t.right;
+            } else {
+                return (t.s == s) ? rank + size(t.left) : -1;
+            }
+        }
+        return -1;
+    }
+
+    // Length of the sorted prefix whose students match inPrefix; the predicate must hold for a
+    // prefix of the order and fail for the rest (e.g. "average above x" in the average order)
+    public int countPrefix(Predicate<Student> inPrefix) {
+        Node t = root;
+        int rank = 0;
+        while (t != null) {
+            if (inPrefix.test(t.s)) {
+                rank += size(t.left) + 1;
+                t = t.right;
+            } else {
+                t = t.left;
+            }
+        }
+        return rank;
+    }
+
+    // Replace the contents with students (any order) in O(n log n) sort + O(n) build
+    public void build(Collection<Student> students) {
+        Student[] sorted = students.toArray(new Student[0]);
+        Arrays.sort(sorted, order);
+        buildSorted(sorted);
+    }
+
+    // Replace the contents with students already in this order, in O(n)
+    public void buildSorted(Student[] sorted) {
+        // Cartesian tree over random priorities keeps the usual treap shape
+        Node[] stack = new Node[sorted.length];
+        int top = -1;
+        for (Student s : sorted) {
+            Node n = new Node(s, nextPriority(), epoch);
+            Node last = null;
+            while (top >= 0 && stack[top].pri < n.pri) last = stack[top--];
+            n.left = last;
+            if (top >= 0) stack[top].right = n;
+            stack[++top] = n;
+        }
+        root = (top >= 0) ? stack[0] : null;
+        fixSizes(root);
+    }
+
+    // Visit positions [from, to) in order
+    public void forRange(int from, int to, Consumer<Student> action) {
+        from = Math.max(0, from);
+        to = Math.min(to, size(root));
+        if (from >= to) return;
+        Iterator<Student> it = iteratorFrom(from);
+        for (int i = from; i < to; i++) action.accept(it.next());
+    }
+
+    @Override
+    public Iterator<Student> iterator() {
+        return iteratorFrom(0);
+    }
+
+    // In-order iterator starting at sorted position 'from'
+    public Iterator<Student> iteratorFrom(int from) {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node t = root;
+        while (t != null) {
+            int ls = size(t.left);
+            if (from < ls) {
+                stack.push(t);
+                t = t.left;
+            } else if (from == ls) {
+                stack.push(t);
+                break;
+            } else {
+                from -= ls + 1;
+                t = t.right;
+            }
+        }
+        return new Iterator<Student>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Student next() {
+                if (stack.isEmpty()) throw new NoSuchElementException();
+                Node n = stack.pop();
+                for (Node c = n.right; c != null; c = c.left) stack.push(c);
+                return n.s;
+            }
+        };
+    }
+
+    private Node insert(Node t, Node n) {
+        if (t == null) return n;
+        if (n.pri > t.pri) {
+            split(t, n.s);
+            n.left = splitLeft;
+            n.right = splitRight;
+            update(n);
+            return n;
+        }
+        t = own(t);
+        if (order.compare(n.s, t.s) < 0) t.left = insert(t.left, n);
+        else t.right = insert(t.right, n);
+        update(t);
+        return t;
+    }
+
+    // keys < key go to splitLeft, the rest to splitRight
+    private void split(Node t, Student key) {
+        if (t == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+        t = own(t);
+        if (order.compare(t.s, key) < 0) {
+            split(t.right, key);
+            t.right = splitLeft;
+            update(t);
+            splitLeft = t;
+        } else {
+            split(t.left, key);
+            t.left = splitRight;
+            update(t);
+            splitRight = t;
+        }
+    }
+
+    private Node remove(Node t, Student s) {
+        if (t == null) return null;
+        int c = order.compare(s, t.s);
+        if (c == 0) return merge(t.left, t.right);
+        t = own(t);
+        if (c < 0) t.left = remove(t.left, s);
+        else t.right = remove(t.right, s);
+        update(t);
+        return t;
+    }
+
+    private Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.pri > b.pri) {
+            a = own(a);
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b = own(b);
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    // t itself if this tree made it since its last snapshot(), else a copy to change instead
+    private Node own(Node t) {
+        if (t.epoch == epoch) return t;
+        Node c = new Node(t.s, t.pri, epoch);
+        c.size = t.size;
+        c.left = t.left;
+        c.right = t.right;
+        return c;
+    }
+
+    private static int fixSizes(Node t) {
+        if (t == null) return 0;
+        t.size = 1 + fixSizes(t.left) + fixSizes(t.right);
+        return t.size;
+    }
+
+    private static int size(Node t) {
+        return (t == null) ? 0 : t.size;
+    }
+
+    private static void update(Node t) {
+        t.size = 1 + size(t.left) + size(t.right);
+    }
+
+    private int nextPriority() {
+        int x = seed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seed = x;
+        return x;
+    }
+}
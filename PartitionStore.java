@@ -0,0 +1,330 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.List;
+
+// A directory of rosters, one per class and term ("10A/2025-T1"), each with its own subject
+// list and grade scale, stored as a snapshot file (RosterSnapshot) named after the partition.
+//
+// A partition is read the first time it is opened and then kept in memory; when the estimated
+// size of everything loaded goes over the memory budget, the least recently opened partitions
+// are saved (if changed) and dropped until it fits again. The one just opened always stays.
+// School-wide rankings (top) scan every partition in parallel: loaded ones in memory, the
+// others straight from their files, one file per worker thread at a time, without building
+// a Roster for them or keeping them afterwards.
+//
+// A roster owned elsewhere (the GUI's) can be attached as a partition's loaded copy: it counts
+// toward the budget and is ranked in memory, but is never evicted.
+//
+// Budget: -Dsgm.partitionBudgetMb=N (default a quarter of the maximum heap).
+// One owner thread opens, creates, saves and changes partitions; top() can run on any thread.
+// A Roster returned by open() is only valid until the next open() may have evicted it.
+class PartitionStore {
+    static final String SUFFIX = ".sgms";
+    // measured heap per loaded student (Student, indexes, name, roll slot), plus one byte per subject
+    static final int BYTES_PER_STUDENT = 384;
+
+    private final File dir;
+    private final long budget;
+    // loaded partitions, least recently opened first
+    private final LinkedHashMap<String, Partition> loaded = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Partition {
+        final String name;
+        final Roster roster;
+        final boolean attached;
+        long savedAt; // roster.changeCount() when last read or written
+
+        Partition(String name, Roster roster, long savedAt, boolean attached) {
+            this.name = name;
+            this.roster = roster;
+            this.savedAt = savedAt;
+            this.attached = attached;
+        }
+
+        boolean dirty() {
+            return roster.changeCount() != savedAt;
+        }
+    }
+
+    // One student of a school-wide ranking
+    static final class Ranked {
+        final String partition;
+        final String name;
+        final int roll;
+        final float average;
+        final char grade;
+
+        Ranked(String partition, String name, int roll, float average, char grade) {
+            this.partition = partition;
+            this.name = name;
+            this.roll = roll;
+            this.average = average;
+            this.grade = grade;
+        }
+    }
+
+    // the average order of Roster.SortKey.AVERAGE, then partition
+    static final Comparator<Ranked> BEST = (a, b) -> {
+        int c = Float.compare(b.average, a.average);
+        if (c == 0) c = a.name.compareToIgnoreCase(b.name);
+        if (c == 0) c = Integer.compare(a.roll, b.roll);
+        return (c != 0) ? c : a.partition.compareTo(b.partition);
+    };
+
+    PartitionStore(File dir, long budgetBytes) throws IOException {
+        this.dir = dir;
+        this.budget = budgetBytes;
+        Files.createDirectories(dir.toPath());
+    }
+
+    static long defaultBudget() {
+        long fallback = Runtime.getRuntime().maxMemory() / 4;
+        try {
+            String mb = System.getProperty("sgm.partitionBudgetMb");
+            return (mb == null) ? fallback : Math.max(1, Long.parseLong(mb.trim())) << 20;
+        } catch (NumberFormatException ex) {
+            return fallback;
+        }
+    }
+
+    File directory() {
+        return dir;
+    }
+
+    long budget() {
+        return budget;
+    }
+
+    // Every partition, loaded or not, sorted by name
+    List<String> names() {
+        SortedSet<String> out = new TreeSet<>(loadedNames());
+        String[] files = dir.list();
+        if (files != null) {
+            for (String f : files) {
+                if (f.endsWith(SUFFIX)) out.add(URLDecoder.decode(f.substring(0, f.length() - SUFFIX.length()), StandardCharsets.UTF_8));
+            }
+        }
+        return new ArrayList<>(out);
+    }
+
+    synchronized List<String> loadedNames() {
+        return new ArrayList<>(loaded.keySet());
+    }
+
+    synchronized boolean isLoaded(String name) {
+        return loaded.containsKey(name);
+    }
+
+    boolean exists(String name) {
+        return isLoaded(name) || file(name).isFile();
+    }
+
+    File file(String name) {
+        return new File(dir, URLEncoder.encode(name, StandardCharsets.UTF_8) + SUFFIX);
+    }
+
+    // Estimated heap held by loaded partitions
+    synchronized long loadedBytes() {
+        long total = 0;
+        for (Partition p : loaded.values()) total += estimate(p.roster);
+        return total;
+    }
+
+    static long estimate(Roster roster) {
+        return (long) roster.size() * (BYTES_PER_STUDENT + roster.marks.subjectCount());
+    }
+
+    // ---- owner thread ----
+
+    // The partition's roster, read from its file unless already loaded; IOException if it
+    // does not exist
+    Roster open(String name) throws IOException {
+        Partition p;
+        synchronized (this) {
+            p = loaded.get(name);
+        }
+        if (p == null) {
+            File f = file(name);
+            if (!f.isFile()) throw new IOException("No partition " + name);
+            Roster roster = new Roster(new MarkStore(Roster.DEFAULT_SUBJECTS));
+            RosterSnapshot.restore(roster, RosterSnapshot.read(f));
+            p = new Partition(name, roster, roster.changeCount(), false);
+            synchronized (this) {
+                loaded.put(name, p);
+            }
+            Metrics.count("partitions.loaded", 1);
+        }
+        evictOver(budget, p);
+        return p.roster;
+    }
+
+    // A new, empty partition (saved at once, so it is listed); IOException if the name is taken
+    Roster create(String name, List<String> subjects, GradeScale scale) throws IOException {
+        check(name);
+        if (exists(name)) throw new IOException("Partition " + name + " already exists");
+        Roster roster = new Roster(new MarkStore(subjects));
+        roster.setScale(scale);
+        Partition p = new Partition(name, roster, -1, false);
+        synchronized (this) {
+            loaded.put(name, p);
+        }
+        save(p);
+        evictOver(budget, p);
+        return roster;
+    }
+
+    // Replace (or create) a partition with a copy of a roster's contents, written at once
+    void put(String name, RosterSnapshot.Data data) throws IOException {
+        check(name);
+        synchronized (this) {
+            loaded.remove(name);
+        }
+        writeAtomically(file(name), data);
+    }
+
+    // Makes roster the loaded copy of a partition (replacing any); saved says whether it
+    // matches the partition's file
+    void attach(String name, Roster roster, boolean saved) throws IOException {
+        check(name);
+        Partition p = new Partition(name, roster, saved ? roster.changeCount() : -1, true);
+        synchronized (this) {
+            loaded.put(name, p);
+        }
+        evictOver(budget, p);
+    }
+
+    // Forgets an attached roster without saving it
+    synchronized void detach(String name) {
+        Partition p = loaded.get(name);
+        if (p != null && p.attached) loaded.remove(name);
+    }
+
+    // True if the partition is loaded with changes not yet in its file
+    synchronized boolean isDirty(String name) {
+        Partition p = loaded.get(name);
+        return p != null && p.dirty();
+    }
+
+    // Writes every changed partition
+    void saveAll() throws IOException {
+        for (Partition p : loadedPartitions()) if (p.dirty()) save(p);
+    }
+
+    // Saves (if changed) and drops every loaded partition
+    void close() throws IOException {
+        evictOver(-1, null);
+    }
+
+    private synchronized List<Partition> loadedPartitions() {
+        return new ArrayList<>(loaded.values());
+    }
+
+    // Drops least recently opened partitions, saving changed ones, until the rest fit in limit
+    private void evictOver(long limit, Partition keep) throws IOException {
+        while (true) {
+            Partition victim = null;
+            synchronized (this) {
+                long total = 0;
+                for (Partition p : loaded.values()) total += estimate(p.roster);
+                if (total <= limit) return;
+                for (Partition p : loaded.values()) {
+                    if (p != keep && (!p.attached || limit < 0)) { victim = p; break; }
+                }
+                if (victim == null) return;
+            }
+            if (victim.dirty()) save(victim);
+            synchronized (this) {
+                loaded.remove(victim.name);
+            }
+            Metrics.count("partitions.evicted", 1);
+        }
+    }
+
+    private void save(Partition p) throws IOException {
+        long at = p.roster.changeCount();
+        writeAtomically(file(p.name), RosterSnapshot.capture(p.roster));
+        p.savedAt = at;
+    }
+
+    // Written beside the target and moved over it, so a concurrent top() reads the old file or
+    // the new one, never half of one
+    private static void writeAtomically(File file, RosterSnapshot.Data data) throws IOException {
+        File tmp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        RosterSnapshot.write(tmp, data);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void check(String name) {
+        if (name == null || name.isBlank()) throw new IllegalArgumentException("A partition needs a name, e.g. 10A/2025-T1.");
+        if (name.length() > 100) throw new IllegalArgumentException("Partition names are at most 100 characters.");
+    }
+
+    // ---- school-wide queries ----
+
+    // The n best students over every partition, best first. Loaded partitions are read in
+    // memory (changes not yet saved included); the others from their files, in parallel.
+    List<Ranked> top(int n) throws IOException {
+        GradeEvents.Query event = new GradeEvents.Query("school.top", Integer.toString(n));
+        Map<String, Partition> inMemory = new HashMap<>();
+        for (Partition p : loadedPartitions()) inMemory.put(p.name, p);
+        List<Ranked> all;
+        try {
+            all = names().parallelStream().flatMap(name -> {
+                Partition p = inMemory.get(name);
+                try {
+                    return ((p != null) ? top(p, n) : top(name, RosterSnapshot.read(file(name)), n)).stream();
+                } catch (IOException ex) {
+                    throw new java.io.UncheckedIOException(name + ": " + ex.getMessage(), ex);
+                }
+            }).sorted(BEST).limit(n).collect(java.util.stream.Collectors.toList());
+        } catch (java.io.UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        event.results = all.size();
+        event.done();
+        return all;
+    }
+
+    private static List<Ranked> top(Partition p, int n) {
+        Roster r = p.roster;
+        return r.readLocked(() -> {
+            List<Ranked> out = new ArrayList<>();
+            for (Student s : r.top(n)) {
+                float avg = r.marks.average(s.row);
+                out.add(new Ranked(p.name, s.name, s.rollNumber, avg, r.marks.scale().grade(avg)));
+            }
+            return out;
+        });
+    }
+
+    // Best n of a partition file's students. Averages come from a one-row MarkStore with the
+    // partition's subjects and scale, so they equal what the loaded roster would compute.
+    private static List<Ranked> top(String partition, RosterSnapshot.Data data, int n) {
+        MarkStore marks = new MarkStore(data.subjects);
+        marks.setScale(data.scale);
+        int row = marks.allocRow(), width = data.subjects.size();
+        PriorityQueue<Ranked> best = new PriorityQueue<>(BEST.reversed()); // worst kept on top
+        for (int i = 0; i < data.size(); i++) {
+            for (int j = 0; j < width; j++) marks.set(row, j, data.mark(i, j));
+            float avg = marks.average(row);
+            Ranked head = best.peek();
+            if (best.size() == n && head != null && (avg < head.average
+                    || (avg == head.average && data.names[i].compareToIgnoreCase(head.name) > 0))) continue;
+            best.add(new Ranked(partition, data.names[i], data.rolls[i], avg, data.scale.grade(avg)));
+            if (best.size() > n) best.poll();
+        }
+        List<Ranked> out = new ArrayList<>(best);
+        out.sort(BEST);
+        return out;
+    }
+}
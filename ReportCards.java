@@ -0,0 +1,487 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+// One report card per student (the Student Details of the GUI plus rank, percentile and how
+// each mark compares with the class) as plain text or printable HTML, written as <roll>.txt or
+// <roll>.html into a directory, or into a zip when the target's name ends in .zip.
+//
+// Works from a RosterVersion, so edits made meanwhile do not reach the cards, and reads each
+// student's name and marks from it as the card is rendered: the only full pass is the one that
+// computes every average (kept in a float[]) for the ranks and the class statistics. A pool of
+// workers then claims students in blocks of the name order and renders their cards. A directory
+// is written by the workers themselves; a zip has one writer thread, fed through a queue of QUEUE
+// rendered cards, so however large the roster, at most that many cards (plus one per worker) are
+// held in memory.
+//
+// Resume: each file in a directory is written beside its name and renamed, so a card that
+// exists is complete, and a resumed run skips it. A zip is written as <target>.part and renamed
+// when complete; a resumed run copies the complete entries of the .part and skips those students.
+class ReportCards {
+    enum Format {
+        TEXT("txt"), HTML("html");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    static final int QUEUE = 256;
+    private static final int BLOCK = 64; // students claimed by a worker at a time
+    private static final Object[] END = new Object[0]; // last item for the zip writer
+
+    private final RosterVersion version;
+    private final File target;
+    private final Format format;
+    private String title = "Class";
+    private boolean resume;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private volatile boolean cancelled;
+
+    // progress, readable from any thread
+    private final AtomicInteger written = new AtomicInteger(), skipped = new AtomicInteger();
+
+    // from the version, filled in by run(); averages[i] is the i-th student's in name order
+    private float[] averages;
+    private float[] ascending;
+    private int[] gradeCounts;
+    private double[] means, medians;
+    private int[] highest;
+
+    ReportCards(RosterVersion version, File target, Format format) {
+        this.version = version;
+        this.target = target;
+        this.format = format;
+    }
+
+    // Heading of every card, e.g. the class/term partition
+    void setTitle(String title) {
+        this.title = title;
+    }
+
+    // Keep the cards of an earlier, unfinished run into the same target
+    void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    boolean isZip() {
+        return target.getName().toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    // True if the target holds cards from an earlier run that a resume would keep
+    boolean hasEarlierRun() {
+        if (isZip()) return partFile().isFile();
+        String[] files = target.list();
+        if (files == null) return false;
+        for (String f : files) if (f.endsWith("." + format.extension)) return true;
+        return false;
+    }
+
+    int total() {
+        return version.size();
+    }
+
+    int written() {
+        return written.get();
+    }
+
+    // Cards already there from an earlier run
+    int skipped() {
+        return skipped.get();
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Runs on the calling thread; false if cancelled (cards written so far are kept for a resume)
+    boolean run() throws IOException {
+        GradeEvents.Save event = new GradeEvents.Save("cards", target.getPath());
+        try {
+            summarize();
+            try (Sink sink = isZip() ? new ZipSink() : new DirectorySink()) {
+                if (!generate(sink)) return false;
+                sink.commit();
+            }
+            event.completed = true;
+            return true;
+        } finally {
+            event.rows = written.get();
+            event.done();
+        }
+    }
+
+    private boolean generate(Sink sink) throws IOException {
+        AtomicInteger next = new AtomicInteger();
+        IOException[] failure = new IOException[1];
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread w = new Thread(() -> {
+                List<Student> block = new ArrayList<>(BLOCK);
+                try {
+                    for (int from = next.getAndAdd(BLOCK); from < version.size(); from = next.getAndAdd(BLOCK)) {
+                        block.clear();
+                        version.forRange(from, from + BLOCK, block::add);
+                        for (int k = 0; k < block.size(); k++) {
+                            if (cancelled) return;
+                            Student s = block.get(k);
+                            String name = s.rollNumber + "." + format.extension;
+                            if (resume && sink.has(name)) {
+                                skipped.incrementAndGet();
+                                continue;
+                            }
+                            sink.put(name, render(from + k, s).getBytes(StandardCharsets.UTF_8));
+                            written.incrementAndGet();
+                        }
+                    }
+                } catch (Exception ex) {
+                    synchronized (failure) {
+                        if (failure[0] == null) failure[0] = (ex instanceof IOException) ? (IOException) ex : new IOException(ex.toString(), ex);
+                    }
+                    cancelled = true;
+                }
+            }, "report-cards-" + t);
+            w.setDaemon(true);
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers) {
+            try {
+                w.join();
+            } catch (InterruptedException ex) {
+                cancelled = true;
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (failure[0] != null) throw failure[0];
+        return !cancelled;
+    }
+
+    // ---- figures from the version ----
+
+    // Averages as Student computes them (a one-row MarkStore with the version's subjects and
+    // scale, as PartitionStore.top does), sorted for ranks, plus per-subject mark histograms
+    private void summarize() {
+        int n = version.size(), width = version.subjects().size();
+        GradeScale scale = version.scale();
+        MarkStore marks = new MarkStore(version.subjects());
+        marks.setScale(scale);
+        int row = marks.allocRow();
+        averages = new float[n];
+        gradeCounts = new int[scale.gradeCount()];
+        int[][] hist = new int[width][101];
+        int i = 0;
+        for (Student s : version.students()) {
+            for (int j = 0; j < width; j++) {
+                int m = version.mark(s, j);
+                marks.set(row, j, m);
+                if (m >= 0) hist[j][m]++;
+            }
+            averages[i] = marks.average(row);
+            int g = scale.indexOf(scale.grade(averages[i]));
+            if (g >= 0 && g < gradeCounts.length) gradeCounts[g]++;
+            i++;
+        }
+        ascending = averages.clone();
+        Arrays.sort(ascending);
+        means = new double[width];
+        medians = new double[width];
+        highest = new int[width];
+        for (int j = 0; j < width; j++) {
+            long count = 0, sum = 0;
+            for (int m = 0; m <= 100; m++) {
+                count += hist[j][m];
+                sum += (long) m * hist[j][m];
+                if (hist[j][m] > 0) highest[j] = m;
+            }
+            means[j] = (count == 0) ? Double.NaN : (double) sum / count;
+            medians[j] = (count == 0) ? Double.NaN : (markAt(hist[j], (count - 1) / 2) + markAt(hist[j], count / 2)) / 2.0;
+            if (count == 0) highest[j] = -1;
+        }
+    }
+
+    // i-th smallest present mark (0-based) of a histogram
+    private static int markAt(int[] hist, long i) {
+        for (int m = 0; m <= 100; m++) {
+            i -= hist[m];
+            if (i < 0) return m;
+        }
+        return 100;
+    }
+
+    // Competition rank, as Roster.rankOf: 1 + students with a strictly higher average
+    private int rank(float avg) {
+        return 1 + ascending.length - upperBound(avg);
+    }
+
+    // Percentile rank, as Roster.percentileOf: students below, ties counted as half
+    private double percentile(float avg) {
+        int below = lowerBound(avg), atOrBelow = upperBound(avg);
+        return 100.0 * (below + 0.5 * (atOrBelow - below)) / ascending.length;
+    }
+
+    private int lowerBound(float avg) {
+        int lo = 0, hi = ascending.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Float.compare(ascending[mid], avg) < 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private int upperBound(float avg) {
+        int lo = 0, hi = ascending.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Float.compare(ascending[mid], avg) <= 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    // ---- rendering ----
+
+    // Card of s, the i-th student of the version in name order
+    String render(int i, Student s) {
+        return (format == Format.HTML) ? html(i, s) : text(i, s);
+    }
+
+    private String text(int i, Student s) {
+        float avg = averages[i];
+        List<String> subjects = version.subjects();
+        GradeScale scale = version.scale();
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("Report Card - ").append(title).append("\n\n");
+        sb.append("Name: ").append(version.name(s)).append("\n");
+        sb.append("Roll Number: ").append(s.rollNumber).append("\n");
+        sb.append("Subjects & Marks:\n");
+        for (int j = 0; j < subjects.size(); j++) {
+            int m = version.mark(s, j);
+            sb.append(String.format("  %-16s %6s   (class mean %s, median %s, highest %s)%n", subjects.get(j) + ":",
+                    (m < 0) ? "Absent" : Integer.toString(m), decimal(means[j]), decimal(medians[j]),
+                    (highest[j] < 0) ? "-" : Integer.toString(highest[j])));
+        }
+        sb.append(String.format("Average: %.2f%n", avg));
+        sb.append("Grade: ").append(scale.grade(avg)).append("\n");
+        sb.append(String.format("Rank: %d of %d (percentile %.1f)%n%n", rank(avg), averages.length, percentile(avg)));
+        sb.append("Class grades:");
+        char[] letters = scale.letters();
+        for (int g = 0; g < letters.length && g < gradeCounts.length; g++) sb.append("  ").append(letters[g]).append(": ").append(gradeCounts[g]);
+        return sb.append("\n").toString();
+    }
+
+    private String html(int i, Student s) {
+        float avg = averages[i];
+        String name = version.name(s);
+        List<String> subjects = version.subjects();
+        GradeScale scale = version.scale();
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Report Card - ").append(escape(name))
+                .append("</title>\n<style>body{font-family:sans-serif;margin:2em}table{border-collapse:collapse}"
+                        + "th,td{border:1px solid #999;padding:4px 10px;text-align:right}th:first-child,td:first-child{text-align:left}"
+                        + "@media print{body{margin:0}}</style></head><body>\n");
+        sb.append("<h1>Report Card</h1>\n<p>").append(escape(title)).append("</p>\n");
+        sb.append("<p><b>Name:</b> ").append(escape(name)).append("<br><b>Roll Number:</b> ").append(s.rollNumber).append("</p>\n");
+        sb.append("<table>\n<tr><th>Subject</th><th>Mark</th><th>Class Mean</th><th>Median</th><th>Highest</th></tr>\n");
+        for (int j = 0; j < subjects.size(); j++) {
+            int m = version.mark(s, j);
+            sb.append("<tr><td>").append(escape(subjects.get(j))).append("</td><td>").append((m < 0) ? "Absent" : Integer.toString(m))
+                    .append("</td><td>").append(decimal(means[j])).append("</td><td>").append(decimal(medians[j]))
+                    .append("</td><td>").append((highest[j] < 0) ? "-" : Integer.toString(highest[j])).append("</td></tr>\n");
+        }
+        sb.append("</table>\n");
+        sb.append(String.format("<p><b>Average:</b> %.2f<br><b>Grade:</b> %c<br><b>Rank:</b> %d of %d (percentile %.1f)</p>%n",
+                avg, scale.grade(avg), rank(avg), averages.length, percentile(avg)));
+        sb.append("<p><b>Class grades:</b>");
+        char[] letters = scale.letters();
+        for (int g = 0; g < letters.length && g < gradeCounts.length; g++) sb.append(" &nbsp;").append(letters[g]).append(": ").append(gradeCounts[g]);
+        return sb.append("</p>\n</body></html>\n").toString();
+    }
+
+    private static String decimal(double v) {
+        return Double.isNaN(v) ? "-" : String.format("%.1f", v);
+    }
+
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                case '"': sb.append("&quot;"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // ---- output ----
+
+    private interface Sink extends Closeable {
+        // True if an earlier run already wrote this card
+        boolean has(String name);
+
+        // Called by the workers, concurrently
+        void put(String name, byte[] body) throws IOException, InterruptedException;
+
+        // Every card is in; make the output final
+        void commit() throws IOException;
+    }
+
+    private final class DirectorySink implements Sink {
+        DirectorySink() throws IOException {
+            Files.createDirectories(target.toPath());
+        }
+
+        @Override
+        public boolean has(String name) {
+            return new File(target, name).isFile();
+        }
+
+        @Override
+        public void put(String name, byte[] body) throws IOException {
+            File tmp = new File(target, "." + name + ".tmp");
+            Files.write(tmp.toPath(), body);
+            Files.move(tmp.toPath(), new File(target, name).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        public void commit() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private File partFile() {
+        return new File(target.getPath() + ".part");
+    }
+
+    private final class ZipSink implements Sink {
+        private final File part = partFile();
+        private final Set<String> done = new HashSet<>(); // entries kept from an earlier run
+        private final ZipOutputStream zip;
+        private final BlockingQueue<Object[]> queue = new ArrayBlockingQueue<>(QUEUE);
+        private final Thread writer;
+        private volatile IOException failure;
+        private boolean committed;
+
+        ZipSink() throws IOException {
+            File parent = part.getAbsoluteFile().getParentFile();
+            if (parent != null) Files.createDirectories(parent.toPath());
+            // an .old is left only if a resume stopped while copying it
+            File earlier = new File(part.getPath() + ".old");
+            if (resume && part.isFile()) Files.move(part.toPath(), earlier.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(part), 1 << 16));
+            if (resume && earlier.isFile()) salvage(earlier);
+            Files.deleteIfExists(earlier.toPath());
+            writer = new Thread(this::writeLoop, "report-cards-zip");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        // Copies the complete entries of an interrupted run's file; a torn last entry ends it
+        private void salvage(File earlier) throws IOException {
+            try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(new FileInputStream(earlier), 1 << 16))) {
+                for (ZipEntry e = in.getNextEntry(); e != null; e = in.getNextEntry()) {
+                    byte[] body = in.readAllBytes();
+                    zip.putNextEntry(new ZipEntry(e.getName()));
+                    zip.write(body);
+                    zip.closeEntry();
+                    done.add(e.getName());
+                }
+            } catch (EOFException | ZipException torn) {
+                // the rest is regenerated
+            }
+        }
+
+        @Override
+        public boolean has(String name) {
+            return done.contains(name);
+        }
+
+        @Override
+        public void put(String name, byte[] body) throws IOException, InterruptedException {
+            Object[] card = {name, body};
+            do {
+                if (failure != null) throw failure;
+            } while (!queue.offer(card, 100, java.util.concurrent.TimeUnit.MILLISECONDS));
+        }
+
+        private void writeLoop() {
+            try {
+                while (true) {
+                    Object[] card = queue.take();
+                    if (card == END) return;
+                    zip.putNextEntry(new ZipEntry((String) card[0]));
+                    zip.write((byte[]) card[1]);
+                    zip.closeEntry();
+                }
+            } catch (IOException ex) {
+                failure = ex; // workers see it at their next put()
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void stopWriter() throws IOException {
+            try {
+                while (writer.isAlive() && !queue.offer(END, 100, java.util.concurrent.TimeUnit.MILLISECONDS)) {
+                    // the writer is still draining; wait for room
+                }
+                writer.join();
+            } catch (InterruptedException ex) {
+                writer.interrupt();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (failure != null) throw failure;
+        }
+
+        @Override
+        public void commit() throws IOException {
+            stopWriter();
+            zip.close();
+            try {
+                Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            committed = true;
+        }
+
+        // Without commit() the .part stays, complete up to its last entry, for a resume
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            try {
+                stopWriter();
+            } finally {
+                zip.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load generator for ResultsServer: client threads request random students (and a share of
+// rank lookups) over keep-alive connections for a fixed time, then print requests/sec and
+// latency percentiles.
+//
+//   java ResultsLoad [--url http://localhost:8080] [--clients 32] [--seconds 10] [--rolls N] [--rank R]
+//   java ResultsLoad --self N [--edits PER_SEC] ...   serve a synthetic roster of N students in
+//                                                     this process, optionally edited meanwhile
+//
+// --rolls is the highest roll to ask for (rolls are 1..N in a synthetic roster); --rank the
+// share of requests that ask for the rank too (0-1).
+class ResultsLoad {
+    String url = "http://localhost:8080";
+    int clients = 32;
+    int seconds = 10;
+    int rolls = 100_000;
+    double rankShare = 0.1;
+    int self = -1;
+    int edits;
+
+    public static void main(String[] args) throws Exception {
+        ResultsLoad load = new ResultsLoad();
+        try {
+            load.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: java ResultsLoad [--url URL] [--clients N] [--seconds S] [--rolls N] [--rank R] [--self N [--edits PER_SEC]]");
+            System.exit(2);
+            return;
+        }
+        load.run();
+    }
+
+    void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            String v = (i + 1 < args.length) ? args[++i] : null;
+            if (v == null) throw new IllegalArgumentException(a + " needs a value");
+            switch (a) {
+                case "--url": url = v; break;
+                case "--clients": clients = Integer.parseInt(v); break;
+                case "--seconds": seconds = Integer.parseInt(v); break;
+                case "--rolls": rolls = Integer.parseInt(v); break;
+                case "--rank": rankShare = Double.parseDouble(v); break;
+                case "--self": self = Integer.parseInt(v); rolls = self; break;
+                case "--edits": edits = Integer.parseInt(v); break;
+                default: throw new IllegalArgumentException("Unknown option " + a);
+            }
+        }
+        if (clients < 1 || seconds < 1 || rolls < 1) throw new IllegalArgumentException("--clients, --seconds and --rolls must be positive");
+    }
+
+    void run() throws Exception {
+        ResultsServer server = null;
+        Thread editor = null;
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder edited = new LongAdder();
+        if (self >= 0) {
+            SyntheticRoster gen = new SyntheticRoster();
+            gen.students = self;
+            Roster roster = gen.populate();
+            server = ResultsServer.onLoopback(roster, 0);
+            url = "http://localhost:" + server.port();
+            System.err.printf("Serving %,d students on %s (%s)%n", roster.size(), url,
+                    server.virtualThreads() ? "virtual threads" : "thread pool");
+            if (edits > 0) {
+                editor = new Thread(() -> edit(roster, stop, edited), "editor");
+                editor.start();
+            }
+        }
+
+        Metrics.Timer latency = new Metrics.Timer();
+        LongAdder ok = new LongAdder(), notFound = new LongAdder(), failed = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        for (int c = 0; c < clients; c++) {
+            long seed = c;
+            Thread t = new Thread(() -> {
+                SplittableRandom rnd = new SplittableRandom(seed);
+                byte[] buf = new byte[8192];
+                while (System.nanoTime() < end) {
+                    int roll = 1 + rnd.nextInt(rolls);
+                    String path = "/api/students/" + roll + ((rnd.nextDouble() < rankShare) ? "/rank" : "");
+                    long t0 = System.nanoTime();
+                    try {
+                        HttpURLConnection conn = (HttpURLConnection) new URL(url + path).openConnection();
+                        int status = conn.getResponseCode();
+                        // read to the end so the connection goes back to the keep-alive pool
+                        try (InputStream in = (status < 400) ? conn.getInputStream() : conn.getErrorStream()) {
+                            if (in != null) while (in.read(buf) >= 0) { }
+                        }
+                        latency.since(t0);
+                        if (status == 200) ok.increment();
+                        else if (status == 404) notFound.increment();
+                        else failed.increment();
+                    } catch (IOException ex) {
+                        failed.increment();
+                    }
+                }
+            }, "client-" + c);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) t.join();
+        stop.set(true);
+        if (editor != null) editor.join();
+        if (server != null) server.close();
+
+        long total = ok.sum() + notFound.sum() + failed.sum();
+        System.out.printf("%,d requests in %d s: %,.0f requests/sec (%,d ok, %,d not found, %,d failed)%n",
+                total, seconds, total / (double) seconds, ok.sum(), notFound.sum(), failed.sum());
+        System.out.printf("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n", latency.percentileMillis(50),
+                latency.percentileMillis(90), latency.percentileMillis(99), latency.maxMillis());
+        if (editor != null) System.out.printf("%,d edits made meanwhile%n", edited.sum());
+        if (failed.sum() > 0) System.exit(1);
+    }
+
+    // Stands in for the admin: re-marks random students at about --edits per second
+    private void edit(Roster roster, AtomicBoolean stop, LongAdder edited) {
+        SplittableRandom rnd = new SplittableRandom(99);
+        long pause = Math.max(0, 1_000_000_000L / edits);
+        long next = System.nanoTime();
+        while (!stop.get()) {
+            Student s = roster.byRoll(1 + rnd.nextInt(rolls));
+            if (s != null) {
+                int pos = rnd.nextInt(roster.marks.subjectCount());
+                int mark = rnd.nextInt(101);
+                roster.update(s, () -> {
+                    s.setMark(pos, mark);
+                    s.calculateAverageAndGrade();
+                });
+                edited.increment();
+            }
+            next += pause;
+            long wait = next - System.nanoTime();
+            if (wait > 0) java.util.concurrent.locks.LockSupport.parkNanos(wait);
+        }
+    }
+}
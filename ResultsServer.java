@@ -0,0 +1,318 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Read-only JSON over HTTP, so students can look up their own results while the roster is
+// being edited:
+//
+//   GET /api/students/{roll}         name, marks, average and grade
+//   GET /api/students/{roll}/rank    the same plus rank and percentile
+//   GET /api/rankings?from=1&to=10   students at ranking positions from-to (at most 1000)
+//   GET /api/students?filter=Q       how many students match a FilterQuery, and the first
+//                                    limit of them by roll number (&limit=N, default 100;
+//                                    0 for the count alone)
+//   GET /api/health                  {"students": N}
+//
+// A plain lookup is an optimistic Roster.read() and never holds up an edit. Rank and the
+// rankings walk the average order under the read lock (Roster.readLocked), which takes a
+// few microseconds; so does a filter, as bitmap operations. JSON is built after the data
+// has been copied out, outside any lock.
+// Each request runs on a virtual thread where the JDK has them (21+). Older JDKs use a
+// fixed pool of daemon threads instead.
+// Listens on the loopback address unless given another.
+class ResultsServer implements Closeable {
+    static final int MAX_RANGE = 1000;
+
+    static {
+        // headers and body go out as separate writes; with Nagle on, each response waits for the
+        // client's delayed ACK (~40 ms). Read once when the first HttpServer is made.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final Roster roster;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    ResultsServer(Roster roster, InetSocketAddress address) throws IOException {
+        this.roster = roster;
+        server = HttpServer.create(address, 1024);
+        executor = executor();
+        server.setExecutor(executor);
+        server.createContext("/api/", this::handle);
+        server.start();
+    }
+
+    static ResultsServer onLoopback(Roster roster, int port) throws IOException {
+        return new ResultsServer(roster, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    // True if requests run on virtual threads
+    boolean virtualThreads() {
+        return !(executor instanceof java.util.concurrent.ThreadPoolExecutor);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() (Java 21) through reflection, so the code
+    // still compiles and runs on 17; otherwise a pool sized for short, CPU-bound requests
+    private static ExecutorService executor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newFixedThreadPool(Math.max(8, 4 * Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "results-http-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // ---- requests ----
+
+    private void handle(HttpExchange ex) throws IOException {
+        Metrics.count("http.requests", 1);
+        try {
+            String method = ex.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                ex.getResponseHeaders().set("Allow", "GET, HEAD");
+                send(ex, 405, error("Read-only: use GET."));
+                return;
+            }
+            URI uri = ex.getRequestURI();
+            String[] path = uri.getPath().substring("/api/".length()).split("/");
+            Map<String, String> query = query(uri.getRawQuery());
+            if (path.length == 1 && path[0].equals("health")) {
+                send(ex, 200, "{\"students\": " + roster.read(roster::size) + "}");
+            } else if (path.length == 1 && path[0].equals("rankings")) {
+                rankings(ex, query);
+            } else if (path.length == 1 && path[0].equals("students")) {
+                filter(ex, query);
+            } else if (path.length >= 2 && path.length <= 3 && path[0].equals("students")
+                    && (path.length == 2 || path[2].equals("rank"))) {
+                student(ex, path[1], path.length == 3);
+            } else {
+                send(ex, 404, error("No such resource: " + uri.getPath()));
+            }
+        } catch (BadRequest bad) {
+            send(ex, 400, error(bad.getMessage()));
+        } catch (RuntimeException failure) {
+            Metrics.count("http.errors", 1);
+            report(ex.getRequestURI().toString(), failure);
+            send(ex, 500, error("Internal error"));
+        } finally {
+            ex.close();
+        }
+    }
+
+    // The details stay on the server (stderr and the recording): clients only get the status
+    private static void report(String request, RuntimeException failure) {
+        StringWriter stack = new StringWriter();
+        failure.printStackTrace(new PrintWriter(stack));
+        GradeEvents.HttpError e = new GradeEvents.HttpError();
+        e.request = request;
+        e.exception = failure.toString();
+        e.stack = stack.toString();
+        e.commit();
+        System.err.printf("Results server: %s failed:%n%s", request, e.stack);
+    }
+
+    // Copy of one student's result, taken under a read
+    private static final class Card {
+        final String name;
+        final int roll;
+        final String[] subjects;
+        final int[] marks;
+        final float average;
+        final char grade;
+        int rank;
+        double percentile;
+
+        Card(Student s, MarkStore m) {
+            name = s.name;
+            roll = s.rollNumber;
+            subjects = m.subjectNames().toArray(new String[0]);
+            marks = new int[subjects.length];
+            for (int i = 0; i < marks.length; i++) marks[i] = m.get(s.row, i);
+            // straight from the marks, not s.average(): a read must not trigger the lazy catch-up
+            average = m.average(s.row);
+            grade = m.scale().grade(average);
+        }
+    }
+
+    private void student(HttpExchange ex, String rollText, boolean withRank) throws IOException {
+        int roll = number(rollText, "roll number");
+        GradeEvents.Query event = new GradeEvents.Query(withRank ? "http.rank" : "http.student", rollText);
+        Card card;
+        if (withRank) {
+            card = roster.readLocked(() -> {
+                Student s = roster.byRoll(roll);
+                if (s == null) return null;
+                Card c = new Card(s, roster.marks);
+                c.rank = roster.rankOf(s);
+                c.percentile = roster.percentileOf(s);
+                return c;
+            });
+        } else {
+            card = roster.read(() -> {
+                Student s = roster.byRoll(roll);
+                return (s == null) ? null : new Card(s, roster.marks);
+            });
+        }
+        event.results = (card == null) ? 0 : 1;
+        event.done();
+        if (card == null) {
+            send(ex, 404, error("No student with roll " + roll));
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        card(sb, card);
+        if (withRank) {
+            sb.setLength(sb.length() - 1);
+            sb.append(String.format(Locale.ROOT, ", \"rank\": %d, \"percentile\": %.1f}", card.rank, card.percentile));
+        }
+        send(ex, 200, sb.toString());
+    }
+
+    private void rankings(HttpExchange ex, Map<String, String> query) throws IOException {
+        int from = number(query.getOrDefault("from", "1"), "from");
+        int to = number(query.getOrDefault("to", Integer.toString(from + 9)), "to");
+        if (from < 1 || to < from) throw new BadRequest("Need 1 <= from <= to.");
+        if (to - from >= MAX_RANGE) throw new BadRequest("At most " + MAX_RANGE + " positions per request.");
+        GradeEvents.Query event = new GradeEvents.Query("http.rankings", from + "-" + to);
+        int[] total = new int[1];
+        List<Card> cards = roster.readLocked(() -> {
+            total[0] = roster.size();
+            List<Card> out = new ArrayList<>();
+            for (Student s : roster.rankRange(from, to)) out.add(new Card(s, roster.marks));
+            return out;
+        });
+        event.results = cards.size();
+        event.done();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"students\": ").append(total[0]).append(", \"from\": ").append(from).append(", \"results\": [");
+        for (int i = 0; i < cards.size(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append("{\"position\": ").append(from + i).append(", \"student\": ");
+            card(sb, cards.get(i));
+            sb.append('}');
+        }
+        send(ex, 200, sb.append("]}").toString());
+    }
+
+    private void filter(HttpExchange ex, Map<String, String> query) throws IOException {
+        String text = query.get("filter");
+        if (text == null || text.trim().isEmpty()) throw new BadRequest("Need filter=..., e.g. filter=grade in (D, F), Maths < 40");
+        int limit = number(query.getOrDefault("limit", "100"), "limit");
+        if (limit < 0 || limit > MAX_RANGE) throw new BadRequest("limit must be 0-" + MAX_RANGE + ".");
+        int[] counts = new int[2];
+        List<Card> cards;
+        try {
+            cards = roster.readLocked(() -> {
+                FilterQuery.Result result = FilterQuery.parse(text, roster.marks).evaluate(roster);
+                counts[0] = roster.size();
+                counts[1] = result.count();
+                // the lowest rolls, without sorting every match
+                PriorityQueue<Student> lowest = new PriorityQueue<>(limit + 1, (a, b) -> Integer.compare(b.rollNumber, a.rollNumber));
+                if (limit > 0) {
+                    result.forEach(s -> {
+                        if (lowest.size() < limit) lowest.add(s);
+                        else if (s.rollNumber < lowest.peek().rollNumber) {
+                            lowest.poll();
+                            lowest.add(s);
+                        }
+                    });
+                }
+                List<Card> out = new ArrayList<>();
+                for (Student s : lowest) out.add(new Card(s, roster.marks));
+                return out;
+            });
+        } catch (IllegalArgumentException bad) {
+            throw new BadRequest(bad.getMessage());
+        }
+        cards.sort((a, b) -> Integer.compare(a.roll, b.roll));
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"students\": ").append(counts[0]).append(", \"count\": ").append(counts[1]).append(", \"results\": [");
+        for (int i = 0; i < cards.size(); i++) {
+            if (i > 0) sb.append(", ");
+            card(sb, cards.get(i));
+        }
+        send(ex, 200, sb.append("]}").toString());
+    }
+
+    private static void card(StringBuilder sb, Card c) {
+        sb.append("{\"roll\": ").append(c.roll).append(", \"name\": ").append(Json.quote(c.name)).append(", \"marks\": {");
+        for (int i = 0; i < c.subjects.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(Json.quote(c.subjects[i])).append(": ").append((c.marks[i] < 0) ? "null" : Integer.toString(c.marks[i]));
+        }
+        sb.append(String.format(Locale.ROOT, "}, \"average\": %.2f, \"grade\": \"%c\"}", c.average, c.grade));
+    }
+
+    // ---- plumbing ----
+
+    private static final class BadRequest extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BadRequest(String message) {
+            super(message);
+        }
+    }
+
+    private static int number(String text, String what) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException ex) {
+            throw new BadRequest("Not a number for " + what + ": " + text);
+        }
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> out = new HashMap<>();
+        if (raw == null) return out;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) out.put(pair.substring(0, eq), java.net.URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    private static String error(String message) {
+        return "{\"error\": " + Json.quote(message) + "}";
+    }
+
+    private static void send(HttpExchange ex, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.getResponseHeaders().set("Cache-Control", "no-store");
+        boolean head = ex.getRequestMethod().equals("HEAD");
+        ex.sendResponseHeaders(status, head ? -1 : body.length);
+        if (!head) {
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+// Roll number -> Student lookup table.
+// Open addressing with linear probing over a primitive int[] so keys are never boxed.
+// Deletes use backward-shift instead of tombstones, so lookups stay O(1) after many removals.
+class RollIndex {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private Student[] vals; // null slot = empty
+    private int size;
+    private int mask;
+
+    public RollIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    public RollIndex(int expected) {
+        int cap = MIN_CAPACITY;
+        while (cap < expected * 2) cap <<= 1;
+        keys = new int[cap];
+        vals = new Student[cap];
+        mask = cap - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Student get(int roll) {
+        int i = slot(roll);
+        while (vals[i] != null) {
+            if (keys[i] == roll) return vals[i];
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean contains(int roll) {
+        return get(roll) != null;
+    }
+
+    // Inserts or replaces the entry for s.rollNumber; returns the previous student (or null)
+    public Student put(Student s) {
+        if ((size + 1) * 2 > keys.length) resize(keys.length << 1);
+        int roll = s.rollNumber;
+        int i = slot(roll);
+        while (vals[i] != null) {
+            if (keys[i] == roll) {
+                Student old = vals[i];
+                vals[i] = s;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = roll;
+        vals[i] = s;
+        size++;
+        return null;
+    }
+
+    public Student remove(int roll) {
+        int i = slot(roll);
+        while (vals[i] != null) {
+            if (keys[i] == roll) {
+                Student old = vals[i];
+                deleteAt(i);
+                size--;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        keys = new int[MIN_CAPACITY];
+        vals = new Student[MIN_CAPACITY];
+        mask = MIN_CAPACITY - 1;
+        size = 0;
+    }
+
+    // Pull later entries of the same probe run back into the freed slot
+    private void deleteAt(int hole) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (vals[i] == null) break;
+            int home = slot(keys[i]);
+            // move entry i into the hole if its home is not cyclically within (hole, i]
+            boolean movable = (hole <= i) ? (home <= hole || home > i) : (home <= hole && home > i);
+            if (movable) {
+                keys[hole] = keys[i];
+                vals[hole] = vals[i];
+                hole = i;
+            }
+        }
+        vals[hole] = null;
+    }
+
+    private void resize(int newCap) {
+        int[] oldKeys = keys;
+        Student[] oldVals = vals;
+        keys = new int[newCap];
+        vals = new Student[newCap];
+        mask = newCap - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldVals[j] == null) continue;
+            int i = slot(oldKeys[j]);
+            while (vals[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            vals[i] = oldVals[j];
+        }
+    }
+
+    private int slot(int roll) {
+        int h = roll * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
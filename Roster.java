@@ -0,0 +1,550 @@
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+// All students plus the indexes kept in sync with every change.
+// The name order (default table order and save order) is always maintained, and the average
+// order (rankings) starts out built; the other sort orders are built the first time they are
+// asked for and maintained from then on, so switching the table's sort key never re-sorts the roster.
+// A student's roll number never changes while it is in the roster; any other change goes
+// through update() so the sorted indexes, the aggregates (RosterStats), the filter bitmaps
+// (FilterIndex) and the name index can re-key it.
+// Subject list changes go through setSubjects()/clearSubject() and touch no student: each
+// student's average catches up with the new MarkStore version when it is next read, and only the
+// indexes the change can reorder are dropped, to be rebuilt when next used.
+//
+// One owner thread (the EDT in the GUI) makes every change; each change holds the write lock
+// of a StampedLock. Other threads read through read() (optimistic: never blocks a change, retried
+// under the read lock if one slipped in) or readLocked() (read lock, for walks over the orders).
+// The owner itself reads without locking, except for grades still catching up after a subject
+// list or scale change (average(), grade(), gradedStats()), which it brings up to date under the
+// write lock. Long reads (exports, report cards) and undo take a version() instead: an
+// immutable RosterVersion, O(1) to take, that they read without any lock.
+class Roster implements Iterable<Student> {
+    enum SortKey {
+        NAME("Name", (a, b) -> {
+            int c = a.name.compareToIgnoreCase(b.name);
+            return (c != 0) ? c : Integer.compare(a.rollNumber, b.rollNumber);
+        }),
+        ROLL("Roll Number", (a, b) -> Integer.compare(a.rollNumber, b.rollNumber)),
+        // highest average first; equal averages in name order, as the old stable sort gave
+        AVERAGE("Average", (a, b) -> {
+            int c = Float.compare(b.average(), a.average());
+            if (c == 0) c = a.name.compareToIgnoreCase(b.name);
+            return (c != 0) ? c : Integer.compare(a.rollNumber, b.rollNumber);
+        }),
+        GRADE("Grade", (a, b) -> {
+            int c = Character.compare(a.grade(), b.grade());
+            if (c == 0) c = a.name.compareToIgnoreCase(b.name);
+            return (c != 0) ? c : Integer.compare(a.rollNumber, b.rollNumber);
+        });
+
+        final String label;
+        final Comparator<Student> order;
+
+        SortKey(String label, Comparator<Student> order) {
+            this.label = label;
+            this.order = order;
+        }
+    }
+
+    // updateMarks() rebuilds rather than re-keys above size() / BULK_SHARE students
+    static final int BULK_SHARE = 16;
+
+    // subject list of a new roster, and of a CSV file without a #SUBJECTNAMES header
+    static final List<String> DEFAULT_SUBJECTS = Collections.unmodifiableList(Arrays.asList(
+            "Tamil", "English", "Maths", "Science", "Social"));
+
+    final MarkStore marks;
+    private final RollIndex byRoll = new RollIndex();
+    private final EnumMap<SortKey, OrderedIndex> orders = new EnumMap<>(SortKey.class);
+    final RosterStats stats;
+    final NameIndex names = new NameIndex();
+    final FilterIndex filters;
+    private final StampedLock lock = new StampedLock();
+    // MarkStore version every student was last graded at together; readLocked() regrades first
+    // when it is behind, so readers never trigger the lazy catch-up themselves
+    private int gradedVersion;
+    private long changes;
+    private RosterVersion version; // the last one taken, reused until the next change
+
+    public Roster(MarkStore marks) {
+        this.marks = marks;
+        this.stats = new RosterStats(marks);
+        this.filters = new FilterIndex(marks);
+        marks.setColumnResetListener(col -> {
+            stats.resetColumn(col);
+            filters.resetColumn(col);
+        });
+        orders.put(SortKey.NAME, new OrderedIndex(SortKey.NAME.order));
+        orders.put(SortKey.AVERAGE, new OrderedIndex(SortKey.AVERAGE.order));
+        gradedVersion = marks.version();
+    }
+
+    public int size() {
+        return byRoll.size();
+    }
+
+    // Bumped by every change to the students, subjects or scale (PartitionStore saves a
+    // partition only when it moved since the last save)
+    public long changeCount() {
+        return changes;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public Student byRoll(int roll) {
+        return byRoll.get(roll);
+    }
+
+    // false if the roll number is already taken
+    public boolean add(Student s) {
+        long stamp = lock.writeLock();
+        try {
+            if (byRoll.contains(s.rollNumber)) return false;
+            changes++;
+            byRoll.put(s);
+            marks.setName(s.row, s.name);
+            for (OrderedIndex idx : orders.values()) idx.insert(s);
+            stats.add(s);
+            filters.add(s);
+            names.add(s);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Add many students at once (rolls must be unique); rebuilds the orders instead of inserting
+    public void addAll(Collection<Student> students) {
+        long stamp = lock.writeLock();
+        try {
+            changes++;
+            for (Student s : students) {
+                byRoll.put(s);
+                marks.setName(s.row, s.name);
+                stats.add(s);
+                names.add(s);
+            }
+            filters.addAll(students);
+            List<Student> all = toList();
+            all.addAll(students);
+            for (OrderedIndex idx : orders.values()) idx.build(all);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean remove(Student s) {
+        long stamp = lock.writeLock();
+        try {
+            if (byRoll.get(s.rollNumber) != s) return false;
+            changes++;
+            byRoll.remove(s.rollNumber);
+            for (OrderedIndex idx : orders.values()) idx.remove(s);
+            stats.remove(s);
+            filters.remove(s);
+            names.remove(s);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Apply a change to a student's name, marks or average and re-key it in every order
+    public void update(Student s, Runnable change) {
+        long stamp = lock.writeLock();
+        try {
+            changes++;
+            for (OrderedIndex idx : orders.values()) idx.remove(s);
+            stats.remove(s);
+            filters.remove(s);
+            String oldName = s.name;
+            change.run();
+            for (OrderedIndex idx : orders.values()) idx.insert(s);
+            stats.add(s);
+            filters.add(s);
+            if (!s.name.equals(oldName)) {
+                names.rename(s);
+                marks.setName(s.row, s.name);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // update() for many students at once, under one write lock: change sets their marks (and
+    // recomputes their averages) but not their names, so only the orders keyed on marks move.
+    // When they are more than 1/BULK_SHARE of the roster, those orders and the failed list are
+    // rebuilt and the filter bitmaps cut in bulk instead of re-keying each student.
+    public void updateMarks(Collection<Student> students, Runnable change) {
+        long stamp = lock.writeLock();
+        try {
+            changes++;
+            boolean bulk = students.size() > size() / BULK_SHARE;
+            List<SortKey> byMarks = new ArrayList<>();
+            for (SortKey key : orders.keySet()) if (key == SortKey.AVERAGE || key == SortKey.GRADE) byMarks.add(key);
+            if (bulk) {
+                stats.removeAll(students);
+                filters.removeAll(students);
+            } else {
+                for (SortKey key : byMarks) for (Student s : students) orders.get(key).remove(s);
+                for (Student s : students) stats.remove(s);
+                for (Student s : students) filters.remove(s);
+            }
+            change.run();
+            if (bulk) {
+                List<Student> all = toList();
+                stats.addAll(students, all);
+                filters.addAll(students);
+                for (SortKey key : byMarks) orders.get(key).buildSorted(fromNameOrder(key, all));
+            } else {
+                for (Student s : students) stats.add(s);
+                for (Student s : students) filters.add(s);
+                for (SortKey key : byMarks) for (Student s : students) orders.get(key).insert(s);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Replace the subject list (MarkStore.setSubjects; detached columns are left to the caller).
+    // An average is the sum of present marks over the subject count, so when every subject added
+    // or dropped is one nobody has a mark in, all sums stay put and every average scales by the
+    // same factor: the average order is still valid. Otherwise it is rebuilt on next use.
+    public void setSubjects(List<String> names) {
+        long stamp = lock.writeLock();
+        try {
+            int version = marks.version();
+            BitSet before = schemaColumns();
+            marks.setSubjects(names);
+            if (marks.version() == version) return;
+            changes++;
+            BitSet changed = schemaColumns();
+            changed.xor(before);
+            boolean sumsKept = true;
+            for (int col = changed.nextSetBit(0); col >= 0; col = changed.nextSetBit(col + 1)) {
+                if (stats.hasMarks(col)) sumsKept = false;
+            }
+            averagesChanged(sumsKept);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Free the marks of subjects no longer in the list (MarkStore.dropDetachedSubjects)
+    public void dropDetachedSubjects() {
+        long stamp = lock.writeLock();
+        try {
+            marks.dropDetachedSubjects();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Mark everyone Absent for a subject (it stays in the subject list)
+    public void clearSubject(String name) {
+        long stamp = lock.writeLock();
+        try {
+            int version = marks.version();
+            int pos = marks.positionOf(name);
+            boolean sumsKept = pos < 0 || !stats.hasMarks(marks.columnAt(pos));
+            marks.clearSubject(name);
+            if (marks.version() != version) {
+                changes++;
+                averagesChanged(sumsKept);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // New grade bands and/or subject weights; every student is regraded at once (GradeEngine).
+    // New bands alone leave every average, and so the average order, as it was.
+    public void setScale(GradeScale scale) {
+        long stamp = lock.writeLock();
+        try {
+            GradeScale old = marks.scale();
+            marks.setScale(scale);
+            if (marks.scale() == old) return;
+            changes++;
+            averagesChanged(old.weights().equals(scale.weights()));
+            regradeAll();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Bring every student's average and grade up to date in one parallel pass, and the grade
+    // counts with them
+    public void recomputeAll() {
+        long stamp = lock.writeLock();
+        try {
+            regradeAll();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void regradeAll() {
+        List<Student> all = toList();
+        stats.regraded(GradeEngine.recompute(all, marks));
+        filters.regrade(all);
+        gradedVersion = marks.version();
+    }
+
+    private void averagesChanged(boolean orderKept) {
+        // grades cross band boundaries unevenly, so the grade order never survives
+        orders.remove(SortKey.GRADE);
+        if (!orderKept) orders.remove(SortKey.AVERAGE);
+        stats.gradesChanged();
+        filters.gradesChanged();
+    }
+
+    private BitSet schemaColumns() {
+        BitSet cols = new BitSet();
+        for (int pos = 0; pos < marks.subjectCount(); pos++) cols.set(marks.columnAt(pos));
+        return cols;
+    }
+
+    // Forget every student; their mark rows are left for the caller to release
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            changes++;
+            byRoll.clear();
+            for (OrderedIndex idx : orders.values()) idx.clear();
+            stats.clear();
+            filters.clear();
+            names.clear();
+            gradedVersion = marks.version();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // The roster as it is now, frozen (see RosterVersion); O(1), and the same object until the
+    // next change. Owner thread; the version itself can then be read from any thread.
+    public RosterVersion version() {
+        if (version == null || version.changeCount() != changes) {
+            version = new RosterVersion(changes, orders.get(SortKey.NAME).snapshot(), marks.freeze());
+        }
+        return version;
+    }
+
+    // Students in the given order, built on first use (under the write lock, as it is a change
+    // to readLocked() readers); owner thread only
+    public OrderedIndex order(SortKey key) {
+        OrderedIndex idx = orders.get(key);
+        if (idx == null) {
+            long stamp = lock.writeLock();
+            try {
+                idx = buildOrder(key);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+        return idx;
+    }
+
+    private OrderedIndex buildOrder(SortKey key) {
+        OrderedIndex idx = new OrderedIndex(key.order);
+        idx.buildSorted(fromNameOrder(key, toList()));
+        orders.put(key, idx);
+        return idx;
+    }
+
+    // ---- reads from other threads ----
+
+    // Runs query without blocking: if a change overlapped it (or it failed on the half-made
+    // state of one), it runs again under the read lock. query must only read, and must not
+    // read anything that catches up lazily (Student.average(), order()): use the MarkStore.
+    public <T> T read(Supplier<T> query) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = query.get();
+                if (lock.validate(stamp)) return result;
+            } catch (RuntimeException ex) {
+                if (lock.validate(stamp)) throw ex; // a real failure, not a torn read
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return query.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Runs query under the read lock, with every average and grade current and the average
+    // order built, so rankings (rankRange, rankOf, percentileOf) and FilterQuery.evaluate are
+    // safe to call from it
+    public <T> T readLocked(Supplier<T> query) {
+        long stamp = lock.readLock();
+        if (!current()) {
+            lock.unlockRead(stamp);
+            stamp = lock.writeLock();
+            try {
+                refresh();
+                stamp = lock.tryConvertToReadLock(stamp);
+            } catch (RuntimeException | Error ex) {
+                lock.unlockWrite(stamp);
+                throw ex;
+            }
+        }
+        try {
+            return query.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private boolean current() {
+        return gradedVersion == marks.version() && !filters.gradesStale() && orders.containsKey(SortKey.AVERAGE);
+    }
+
+    // Grades, the grade bitmaps and the average order up to date; under the write lock
+    private void refresh() {
+        if (gradedVersion != marks.version()) regradeAll();
+        if (filters.gradesStale()) filters.regrade(toList());
+        if (!orders.containsKey(SortKey.AVERAGE)) buildOrder(SortKey.AVERAGE);
+    }
+
+    // ---- filter queries, answered from the bitmaps ----
+
+    // Students matching a FilterQuery; owner thread (from other threads, evaluate the query
+    // inside readLocked). Brings grades up to date first, under the write lock, as order() does.
+    public FilterQuery.Result filter(FilterQuery query) {
+        catchUp();
+        return query.evaluate(this);
+    }
+
+    // ---- grades for the owner thread ----
+    // A subject list or scale change leaves averages and grades to catch up lazily. A readLocked()
+    // reader on another thread may be regrading everyone at the same time, so the owner catches
+    // up under the write lock too instead of through Student.average() and stats directly.
+
+    // The aggregates with every grade current, for reports on the grade counts or failed list
+    public RosterStats gradedStats() {
+        catchUp();
+        return stats;
+    }
+
+    // Students with the scale's failing grade, in name order
+    public OrderedIndex failed() {
+        return gradedStats().failed();
+    }
+
+    public int gradeCount(char grade) {
+        return gradedStats().gradeCount(grade);
+    }
+
+    // s's average and grade, caught up on their own (a table cell or a dialog)
+    public float average(Student s) {
+        catchUp(s);
+        return s.average();
+    }
+
+    public char grade(Student s) {
+        catchUp(s);
+        return s.grade();
+    }
+
+    private void catchUp() {
+        if (!current()) {
+            long stamp = lock.writeLock();
+            try {
+                refresh();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private void catchUp(Student s) {
+        if (!s.graded()) {
+            long stamp = lock.writeLock();
+            try {
+                s.calculateAverageAndGrade();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    // ---- rankings, served from the average order ----
+    // Each catches up first (see above); inside readLocked() everything is current already.
+
+    // Best n students (fewer if the roster is smaller)
+    public List<Student> top(int n) {
+        return rankRange(1, n);
+    }
+
+    // Students at ranking positions from..to (1-based, inclusive)
+    public List<Student> rankRange(int from, int to) {
+        catchUp();
+        List<Student> out = new ArrayList<>(Math.max(0, Math.min(to, size()) - from + 1));
+        order(SortKey.AVERAGE).forRange(from - 1, to, out::add);
+        return out;
+    }
+
+    // Competition rank: 1 + number of students with a strictly higher average (ties share a rank)
+    public int rankOf(Student s) {
+        catchUp();
+        return 1 + order(SortKey.AVERAGE).countPrefix(x -> x.average() > s.average());
+    }
+
+    // Percentile rank 0-100: share of students with a lower average, ties counted as half
+    public double percentileOf(Student s) {
+        if (isEmpty()) return 0;
+        catchUp();
+        OrderedIndex ranking = order(SortKey.AVERAGE);
+        int above = ranking.countPrefix(x -> x.average() > s.average());
+        int atOrAbove = ranking.countPrefix(x -> x.average() >= s.average());
+        int below = size() - atOrAbove;
+        return 100.0 * (below + 0.5 * (atOrAbove - above)) / size();
+    }
+
+    // Snapshot in name order
+    public List<Student> toList() {
+        List<Student> out = new ArrayList<>(size());
+        for (Student s : this) out.add(s);
+        return out;
+    }
+
+    // Students of byName (the name order) in key's order. Every order breaks ties by name and
+    // then roll, so a stable sort on its first key alone gives it without comparing names again.
+    private static Student[] fromNameOrder(SortKey key, List<Student> byName) {
+        Student[] in = byName.toArray(new Student[0]);
+        switch (key) {
+            case ROLL: return sortedBy(in, s -> s.rollNumber);
+            case AVERAGE: return sortedBy(in, s -> {
+                // highest first: the float's bits made to sort as ints (as Float.compare), inverted
+                int bits = Float.floatToIntBits(s.average());
+                return ~(bits ^ ((bits >> 31) & 0x7fffffff));
+            });
+            case GRADE: return sortedBy(in, Student::grade);
+            default: return in;
+        }
+    }
+
+    // Stable sort on an int key: key and position packed into one long and sorted as primitives
+    private static Student[] sortedBy(Student[] in, java.util.function.ToIntFunction<Student> key) {
+        long[] packed = new long[in.length];
+        for (int i = 0; i < in.length; i++) packed[i] = ((long) key.applyAsInt(in[i]) << 32) | i;
+        Arrays.sort(packed);
+        Student[] out = new Student[in.length];
+        for (int i = 0; i < in.length; i++) out[i] = in[(int) packed[i]];
+        return out;
+    }
+
+    // Name order
+    @Override
+    public Iterator<Student> iterator() {
+        return orders.get(SortKey.NAME).iterator();
+    }
+}
@@ -0,0 +1,352 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.*;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Microbenchmarks for the hot paths, on a SyntheticRoster. Self-contained (no JMH dependency)
+// but run the JMH way: each benchmark gets warmup iterations that are thrown away, then
+// measured iterations of a fixed wall time; a score is the mean time per operation over the
+// measured iterations, and every result goes through a sink so the JIT cannot drop the work.
+//
+//   java -Xmx2g RosterBench [--students N] [--subjects M] [--warmup W] [--iterations I]
+//                           [--time-ms T] [--only REGEX] [--out FILE.json]
+//                           [--baseline OLD.json] [--threshold PCT]
+//
+// --out writes the results in the layout of JMH's JSON result format (one benchmark per line),
+// so existing JMH tooling can read them; scoreError is the standard deviation of the measured
+// iterations. --baseline compares with an earlier run and exits with status 3 if any benchmark
+// got more than PCT percent slower.
+class RosterBench {
+    private static final Pattern BENCHMARK = Pattern.compile("\"benchmark\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern SCORE = Pattern.compile("\"score\"\\s*:\\s*([-0-9.eE+]+)");
+
+    // One timed call; returns something derived from the work for the sink
+    interface Op {
+        long run();
+    }
+
+    private static class Benchmark {
+        final String name;
+        final int opsPerCall; // operations one Op.run() performs
+        final Supplier<Op> setup;
+
+        Benchmark(String name, int opsPerCall, Supplier<Op> setup) {
+            this.name = name;
+            this.opsPerCall = opsPerCall;
+            this.setup = setup;
+        }
+    }
+
+    private static class Result {
+        final Benchmark bench;
+        final double[] nsPerOp;
+        final double mean, stdev;
+
+        Result(Benchmark bench, double[] nsPerOp) {
+            this.bench = bench;
+            this.nsPerOp = nsPerOp;
+            double sum = 0;
+            for (double v : nsPerOp) sum += v;
+            mean = sum / nsPerOp.length;
+            double sq = 0;
+            for (double v : nsPerOp) sq += (v - mean) * (v - mean);
+            stdev = (nsPerOp.length > 1) ? Math.sqrt(sq / (nsPerOp.length - 1)) : 0;
+        }
+    }
+
+    private final SyntheticRoster gen = new SyntheticRoster();
+    private int warmup = 3, iterations = 5;
+    private long timeMs = 1000;
+    private Pattern only;
+    private File out, baseline;
+    private double threshold = 10;
+    private volatile long sink;
+
+    private Roster roster;
+    private File csv;
+
+    public static void main(String[] args) throws IOException {
+        RosterBench b = new RosterBench();
+        try {
+            b.parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(2);
+        }
+        System.exit(b.run());
+    }
+
+    private void parse(String[] args) {
+        List<String> rest = gen.parse(args);
+        for (int i = 0; i < rest.size(); i++) {
+            String a = rest.get(i);
+            if (i + 1 >= rest.size()) throw new IllegalArgumentException("Unknown or incomplete option " + a);
+            String v = rest.get(++i);
+            switch (a) {
+                case "--warmup": warmup = Integer.parseInt(v); break;
+                case "--iterations": iterations = Math.max(1, Integer.parseInt(v)); break;
+                case "--time-ms": timeMs = Math.max(1, Long.parseLong(v)); break;
+                case "--only": only = Pattern.compile(v); break;
+                case "--out": out = new File(v); break;
+                case "--baseline": baseline = new File(v); break;
+                case "--threshold": threshold = Double.parseDouble(v); break;
+                default: throw new IllegalArgumentException("Unknown option " + a);
+            }
+        }
+    }
+
+    private int run() throws IOException {
+        System.err.printf("Generating %,d students x %d subjects...%n", gen.students, gen.subjects);
+        roster = gen.populate();
+        csv = File.createTempFile("roster-bench", ".csv");
+        csv.deleteOnExit();
+        gen.writeCsv(csv);
+
+        List<Result> results = new ArrayList<>();
+        for (Benchmark b : benchmarks()) {
+            if (only != null && !only.matcher(b.name).find()) continue;
+            Result r = measure(b);
+            results.add(r);
+            System.out.printf("%-28s %14s/op  +- %s%n", b.name, time(r.mean), time(r.stdev));
+        }
+        if (out != null) writeJson(results, out);
+        return (baseline != null && regressed(results)) ? 3 : 0;
+    }
+
+    // ---- benchmarks ----
+
+    private List<Benchmark> benchmarks() {
+        int n = roster.size();
+        List<Benchmark> list = new ArrayList<>();
+
+        // CSV load through the memory-mapped parser, into a fresh roster (loadFromCSV)
+        list.add(new Benchmark("csvLoad.mapped", 1, () -> () -> load(csv, true)));
+        // the line-based reader: splitCSVLine + parseRow for every line
+        list.add(new Benchmark("csvLoad.lines", 1, () -> () -> load(csv, false)));
+
+        list.add(new Benchmark("calculateAverageAndGrade", n, () -> {
+            List<Student> all = roster.toList();
+            return () -> {
+                long acc = 0;
+                for (Student s : all) {
+                    s.calculateAverageAndGrade();
+                    acc += s.grade();
+                }
+                return acc;
+            };
+        }));
+
+        // the same work through GradeEngine: chunked, on the fork/join pool, with the counts
+        list.add(new Benchmark("recomputeAll", n, () -> () -> {
+            roster.recomputeAll();
+            return roster.gradeCount('F');
+        }));
+
+        list.add(new Benchmark("rollLookup", 1024, () -> {
+            int[] rolls = new int[1024];
+            SplittableRandom rnd = new SplittableRandom(7);
+            for (int i = 0; i < rolls.length; i++) rolls[i] = 1 + rnd.nextInt(Math.max(1, gen.students));
+            return () -> {
+                long acc = 0;
+                for (int r : rolls) {
+                    Student s = roster.byRoll(r);
+                    if (s != null) acc += s.row;
+                }
+                return acc;
+            };
+        }));
+
+        // a 3-character query goes through the trigram postings, a 2-character one scans
+        list.add(new Benchmark("nameSearch.trigram", 1, () -> () -> search("kav")));
+        list.add(new Benchmark("nameSearch.short", 1, () -> () -> search("an")));
+
+        list.add(new Benchmark("top10", 1, () -> () -> roster.top(10).size()));
+        list.add(new Benchmark("rankOf", 1024, () -> {
+            List<Student> sample = sample(1024);
+            return () -> {
+                long acc = 0;
+                for (Student s : sample) acc += roster.rankOf(s);
+                return acc;
+            };
+        }));
+
+        // manageSubjectsDialog "Done": add an elective, then drop it again, reading what the
+        // window shows afterwards (top of the ranking and the grade counts)
+        list.add(new Benchmark("subjectRealign", 2, () -> {
+            List<String> base = roster.marks.subjectNames();
+            List<String> extra = new ArrayList<>(base);
+            extra.add("Elective");
+            return () -> {
+                long acc = 0;
+                for (List<String> names : Arrays.asList(extra, base)) {
+                    roster.setSubjects(names);
+                    roster.dropDetachedSubjects();
+                    acc += roster.top(10).size() + roster.gradeCount('A');
+                }
+                return acc;
+            };
+        }));
+
+        // table model: switching the sort key with a filter set rebuilds the filtered view;
+        // then one screen of cells is read, as JTable does
+        list.add(new Benchmark("tableModel.sortFiltered", 2, () -> {
+            StudentTableModel model = new StudentTableModel(roster);
+            model.setFilter("a", roster.names.studentsAt(roster.names.search("a", () -> false), "a"));
+            return () -> {
+                long acc = 0;
+                for (Roster.SortKey key : new Roster.SortKey[] {Roster.SortKey.AVERAGE, Roster.SortKey.NAME}) {
+                    model.setSortKey(key);
+                    acc += screen(model);
+                }
+                return acc;
+            };
+        }));
+        list.add(new Benchmark("tableModel.refilter", 1, () -> {
+            StudentTableModel model = new StudentTableModel(roster);
+            model.setFilter("an", Collections.emptyList());
+            return () -> {
+                model.refilter();
+                return model.getRowCount() + screen(model);
+            };
+        }));
+        return list;
+    }
+
+    private long load(File file, boolean mapped) {
+        try {
+            Roster r = new Roster(new MarkStore(Roster.DEFAULT_SUBJECTS));
+            CsvImport imp = new CsvImport(file, Roster.DEFAULT_SUBJECTS);
+            List<Student> added = new ArrayList<>();
+            RollIndex seen = new RollIndex();
+            CsvImport.Sink sink = new CsvImport.Sink() {
+                @Override
+                public void subjects(List<String> names) {
+                    r.setSubjects(names);
+                }
+
+                @Override
+                public void batch(CsvImport.RowBatch b) {
+                    for (int i = 0; i < b.size; i++) {
+                        if (seen.contains(b.rolls[i]) || !b.valid[i]) continue;
+                        Student s = new Student(b.names[i], b.rolls[i], r.marks);
+                        for (int j = 0; j < b.width; j++) s.setMark(j, b.mark(i, j));
+                        s.calculateAverageAndGrade();
+                        seen.put(s);
+                        added.add(s);
+                    }
+                }
+            };
+            if (mapped) imp.run(sink);
+            else {
+                try (InputStream in = new FileInputStream(file)) {
+                    imp.run(sink, in);
+                }
+            }
+            r.addAll(added);
+            return r.size();
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private long search(String query) {
+        return roster.names.studentsAt(roster.names.search(query, () -> false), query).size();
+    }
+
+    private List<Student> sample(int count) {
+        List<Student> all = roster.toList(), out = new ArrayList<>(count);
+        SplittableRandom rnd = new SplittableRandom(11);
+        for (int i = 0; i < count && !all.isEmpty(); i++) out.add(all.get(rnd.nextInt(all.size())));
+        return out;
+    }
+
+    private static long screen(StudentTableModel model) {
+        long acc = 0;
+        for (int row = 0, rows = Math.min(40, model.getRowCount()); row < rows; row++) {
+            for (int col = 0; col < model.getColumnCount(); col++) acc += model.getValueAt(row, col).hashCode();
+        }
+        return acc;
+    }
+
+    // ---- running ----
+
+    private Result measure(Benchmark b) {
+        Op op = b.setup.get();
+        for (int i = 0; i < warmup; i++) iteration(op, b);
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; i++) scores[i] = iteration(op, b);
+        return new Result(b, scores);
+    }
+
+    // ns per operation over one iteration of (at least) timeMs
+    private double iteration(Op op, Benchmark b) {
+        long deadline = timeMs * 1_000_000L;
+        long calls = 0, acc = 0;
+        long start = System.nanoTime(), elapsed;
+        do {
+            acc += op.run();
+            calls++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < deadline);
+        sink += acc;
+        return (double) elapsed / (calls * b.opsPerCall);
+    }
+
+    private static String time(double ns) {
+        if (ns >= 1e9) return String.format("%.3f s", ns / 1e9);
+        if (ns >= 1e6) return String.format("%.3f ms", ns / 1e6);
+        if (ns >= 1e3) return String.format("%.3f us", ns / 1e3);
+        return String.format("%.1f ns", ns);
+    }
+
+    // ---- results ----
+
+    private void writeJson(List<Result> results, File file) throws IOException {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            StringBuilder raw = new StringBuilder();
+            for (double v : r.nsPerOp) raw.append(raw.length() == 0 ? "" : ", ").append(v);
+            sb.append(String.format(Locale.ROOT, "  {\"benchmark\": \"%s\", \"mode\": \"avgt\", \"threads\": 1, \"forks\": 1, "
+                            + "\"jvm\": \"%s\", \"jdkVersion\": \"%s\", \"warmupIterations\": %d, \"measurementIterations\": %d, "
+                            + "\"measurementTime\": \"%d ms\", \"date\": \"%s\", "
+                            + "\"params\": {\"students\": \"%d\", \"subjects\": \"%d\", \"absent\": \"%s\", \"quoted\": \"%s\", \"duplicates\": \"%s\", \"seed\": \"%d\"}, "
+                            + "\"primaryMetric\": {\"score\": %s, \"scoreError\": %s, \"scoreUnit\": \"ns/op\", \"rawData\": [[%s]]}}%s\n",
+                    r.bench.name, json(System.getProperty("java.home")), json(System.getProperty("java.version")),
+                    warmup, iterations, timeMs, Instant.now(),
+                    gen.students, gen.subjects, gen.absentRatio, gen.quotedRatio, gen.duplicateRatio, gen.seed,
+                    r.mean, r.stdev, raw, (i + 1 < results.size()) ? "," : ""));
+        }
+        sb.append("]\n");
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String json(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    // Prints the change against the baseline for each benchmark; true if any is over the threshold
+    private boolean regressed(List<Result> results) throws IOException {
+        Map<String, Double> old = new HashMap<>();
+        for (String line : Files.readAllLines(baseline.toPath(), StandardCharsets.UTF_8)) {
+            Matcher name = BENCHMARK.matcher(line), score = SCORE.matcher(line);
+            if (name.find() && score.find()) old.put(name.group(1), Double.parseDouble(score.group(1)));
+        }
+        boolean worse = false;
+        System.out.println();
+        for (Result r : results) {
+            Double before = old.get(r.bench.name);
+            if (before == null || before <= 0) continue;
+            double change = 100.0 * (r.mean - before) / before;
+            boolean flag = change > threshold;
+            worse |= flag;
+            System.out.printf("%-28s %+7.1f%%%s%n", r.bench.name, change, flag ? "  REGRESSION" : "");
+        }
+        return worse;
+    }
+}
@@ -0,0 +1,314 @@
+import java.util.*;
+import java.util.List;
+
+// Multi-level undo and redo of the GUI's edits: adds, edits, deletes, mark changes, subject
+// list changes and grade scales.
+// A step is the RosterVersion before the change and the one after it, plus the students it
+// touched. Versions share everything the change did not touch (see RosterVersion), so a step
+// costs memory in proportion to what it changed, not to the roster. Undo makes the touched
+// students match the version before (name and marks copied back from it) and redo the version
+// after; a subject step brings back the marks of the subjects it dropped (or removed and added
+// again, which starts them Absent) from the version before.
+// Every undo and redo goes through the usual Roster changes, so the indexes stay in step, and
+// is written to the journal like any other change.
+//
+// The owner thread records each change right after making it. A change that was not recorded
+// (a load, an open, a journal replay) leaves the roster ahead of the last version this history
+// knows; the next record then starts the history over instead of recording a step it cannot undo.
+//
+// A deleted student keeps its MarkStore row while a step can still bring it back: the delete
+// on the undo list, or the add on the redo list. The row is freed when that step is dropped
+// (past LIMIT steps, by a new change clearing the redo list, or by reset()).
+class RosterHistory {
+    static final int LIMIT = 100;
+
+    enum Kind {
+        ADD("Add"), DELETE("Delete"), EDIT("Edit"), MARKS("Mark Changes"), SUBJECTS("Subject Changes"),
+        SCALE("Grade Scale");
+
+        final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final class Step {
+        final Kind kind;
+        final List<Student> students; // ADD, DELETE, EDIT and MARKS
+        final String what;            // a student's name
+        final List<String> replaced;  // SUBJECTS: removed and added again, so now all Absent
+        final RosterVersion before, after;
+
+        Step(Kind kind, List<Student> students, String what, List<String> replaced, RosterVersion before, RosterVersion after) {
+            this.kind = kind;
+            this.students = students;
+            this.what = what;
+            this.replaced = replaced;
+            this.before = before;
+            this.after = after;
+        }
+
+        String label() {
+            return (what == null) ? kind.label : kind.label + " " + what;
+        }
+    }
+
+    private final Roster roster;
+    private final ArrayDeque<Step> undo = new ArrayDeque<>(), redo = new ArrayDeque<>();
+    private RosterVersion last; // the roster after the newest step, undo or redo
+    private Journal journal;
+    private Runnable listener = () -> { };
+
+    RosterHistory(Roster roster) {
+        this.roster = roster;
+        last = roster.version();
+    }
+
+    // Undo and redo are logged here; null for none
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    // Told whenever what undo() or redo() would do changes
+    void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    // ---- recording (right after the change) ----
+
+    void added(Student s) {
+        record(Kind.ADD, Collections.singletonList(s), s.name, Collections.emptyList());
+    }
+
+    // s has been removed from the roster; its row is released here (now or when the step goes)
+    void deleted(Student s) {
+        record(Kind.DELETE, Collections.singletonList(s), s.name, Collections.emptyList());
+    }
+
+    void edited(Student s) {
+        record(Kind.EDIT, Collections.singletonList(s), s.name, Collections.emptyList());
+    }
+
+    // Marks of many students changed in one Roster.updateMarks (MarkDelta)
+    void marksChanged(List<Student> students) {
+        if (!students.isEmpty()) record(Kind.MARKS, new ArrayList<>(students), null, Collections.emptyList());
+    }
+
+    // replaced: subjects removed (MarkStore.removeSubject) and added again in the same change
+    void subjectsChanged(List<String> replaced) {
+        record(Kind.SUBJECTS, Collections.emptyList(), null, new ArrayList<>(replaced));
+    }
+
+    void scaleChanged() {
+        record(Kind.SCALE, Collections.emptyList(), null, Collections.emptyList());
+    }
+
+    private void record(Kind kind, List<Student> students, String what, List<String> replaced) {
+        RosterVersion now = roster.version();
+        if (now.changeCount() == last.changeCount()) {
+            // nothing changed (e.g. the same subject list again)
+            if (kind == Kind.DELETE) release(students);
+            return;
+        }
+        if (now.changeCount() != last.changeCount() + 1) {
+            // something unrecorded happened in between: the version before is unknown
+            reset();
+            if (kind == Kind.DELETE) release(students);
+            return;
+        }
+        for (Step s : redo) if (s.kind == Kind.ADD) release(s.students);
+        redo.clear();
+        undo.push(new Step(kind, students, what, replaced, last, now));
+        if (undo.size() > LIMIT) {
+            Step oldest = undo.removeLast();
+            if (oldest.kind == Kind.DELETE) release(oldest.students);
+        }
+        last = now;
+        listener.run();
+    }
+
+    // Forget every step (after a load or open replaced the roster) and free the rows only
+    // they kept
+    void reset() {
+        for (Step s : undo) if (s.kind == Kind.DELETE) release(s.students);
+        for (Step s : redo) if (s.kind == Kind.ADD) release(s.students);
+        undo.clear();
+        redo.clear();
+        last = roster.version();
+        listener.run();
+    }
+
+    // The roster was changed and then put back exactly as the newest step left it (a cancelled
+    // CSV load, CsvLoad.rollback): undo and redo carry on from here
+    void rolledBack() {
+        last = roster.version();
+        listener.run();
+    }
+
+    private static void release(List<Student> students) {
+        for (Student s : students) s.release();
+    }
+
+    // ---- undo / redo ----
+
+    boolean canUndo() {
+        return !undo.isEmpty() && current();
+    }
+
+    boolean canRedo() {
+        return !redo.isEmpty() && current();
+    }
+
+    // e.g. "Delete Ravi", for the menu; null if there is nothing to undo
+    String undoLabel() {
+        return canUndo() ? undo.peek().label() : null;
+    }
+
+    String redoLabel() {
+        return canRedo() ? redo.peek().label() : null;
+    }
+
+    // False once an unrecorded change has moved the roster on: the steps no longer apply
+    private boolean current() {
+        return roster.changeCount() == last.changeCount();
+    }
+
+    // Undo the newest step; false if there is none
+    boolean undo() {
+        if (!canUndo()) return false;
+        Step step = undo.pop();
+        GradeEvents.Query event = new GradeEvents.Query("undo", step.label());
+        revert(step);
+        redo.push(step);
+        last = roster.version();
+        event.results = step.students.size();
+        event.done();
+        listener.run();
+        return true;
+    }
+
+    // Redo the step undone last; false if there is none
+    boolean redo() {
+        if (!canRedo()) return false;
+        Step step = redo.pop();
+        GradeEvents.Query event = new GradeEvents.Query("redo", step.label());
+        replay(step);
+        undo.push(step);
+        last = roster.version();
+        event.results = step.students.size();
+        event.done();
+        listener.run();
+        return true;
+    }
+
+    private void revert(Step step) {
+        RosterVersion to = step.before;
+        switch (step.kind) {
+            case ADD:
+                for (Student s : step.students) remove(s);
+                break;
+            case DELETE:
+                for (Student s : step.students) add(s, to);
+                break;
+            case EDIT:
+            case MARKS:
+                update(step.students, to, step.kind == Kind.MARKS);
+                break;
+            case SUBJECTS: {
+                roster.setSubjects(to.subjects());
+                roster.dropDetachedSubjects();
+                log(j -> j.subjects(to.subjects()));
+                List<String> dropped = new ArrayList<>(to.subjects());
+                dropped.removeAll(step.after.subjects());
+                dropped.addAll(step.replaced);
+                restoreSubjects(dropped, to);
+                break;
+            }
+            case SCALE:
+                roster.setScale(to.scale());
+                log(j -> j.scale(to.scale()));
+                break;
+        }
+    }
+
+    private void replay(Step step) {
+        RosterVersion to = step.after;
+        switch (step.kind) {
+            case ADD:
+                for (Student s : step.students) add(s, to);
+                break;
+            case DELETE:
+                for (Student s : step.students) remove(s);
+                break;
+            case EDIT:
+            case MARKS:
+                update(step.students, to, step.kind == Kind.MARKS);
+                break;
+            case SUBJECTS:
+                // subjects the step added (or replaced) start Absent again, as they did the first time
+                for (String r : step.replaced) roster.marks.removeSubject(r);
+                roster.setSubjects(to.subjects());
+                roster.dropDetachedSubjects();
+                log(j -> j.subjects(to.subjects(), step.replaced));
+                break;
+            case SCALE:
+                roster.setScale(to.scale());
+                log(j -> j.scale(to.scale()));
+                break;
+        }
+    }
+
+    private void add(Student s, RosterVersion to) {
+        copy(s, to);
+        roster.add(s);
+        log(j -> j.put(s));
+    }
+
+    private void remove(Student s) {
+        roster.remove(s);
+        log(j -> j.delete(s.rollNumber));
+    }
+
+    private void update(List<Student> students, RosterVersion to, boolean marksOnly) {
+        if (marksOnly) roster.updateMarks(students, () -> { for (Student s : students) copy(s, to); });
+        else for (Student s : students) roster.update(s, () -> copy(s, to));
+        log(j -> { for (Student s : students) j.put(s); });
+    }
+
+    // Marks of the named subjects (in the roster's list again) back from version 'from', for
+    // every student who had one; the roster's students are those of 'from'
+    private void restoreSubjects(List<String> subjects, RosterVersion from) {
+        if (subjects.isEmpty()) return;
+        int[] pos = new int[subjects.size()];
+        for (int i = 0; i < pos.length; i++) pos[i] = from.subjects().indexOf(subjects.get(i));
+        List<Student> had = new ArrayList<>();
+        for (Student s : roster) {
+            for (int p : pos) {
+                if (from.mark(s, p) >= 0) {
+                    had.add(s);
+                    break;
+                }
+            }
+        }
+        if (had.isEmpty()) return;
+        roster.updateMarks(had, () -> {
+            for (Student s : had) {
+                for (int p : pos) s.setMark(p, from.mark(s, p));
+                s.calculateAverageAndGrade();
+            }
+        });
+        log(j -> { for (Student s : had) j.put(s); });
+    }
+
+    // s's name and marks as in version 'to' (whose subject list is the roster's)
+    private static void copy(Student s, RosterVersion to) {
+        s.name = to.name(s);
+        for (int p = 0; p < to.subjects().size(); p++) s.setMark(p, to.mark(s, p));
+        s.calculateAverageAndGrade();
+    }
+
+    private void log(java.util.function.Consumer<Journal> change) {
+        if (journal != null) change.accept(journal);
+    }
+}
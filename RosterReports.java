@@ -0,0 +1,80 @@
+import java.util.List;
+
+// Report text shared by the GUI dialogs and the headless GradeBatch: ranked lists, the failed
+// list and class statistics. Everything is read from the roster's indexes and aggregates.
+class RosterReports {
+    private RosterReports() {
+    }
+
+    // "1. Name (Roll: 7) - Average: 91.20, Grade: A" per student, numbered from firstRank
+    static String ranked(List<Student> students, int firstRank) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < students.size(); i++) {
+            Student s = students.get(i);
+            sb.append(String.format("%d. %s (Roll: %d) - Average: %.2f, Grade: %c\n", firstRank + i, s.name, s.rollNumber, s.average(), s.grade()));
+        }
+        return sb.toString();
+    }
+
+    // A school-wide ranking (PartitionStore.top), each student with its partition
+    static String schoolRanked(List<PartitionStore.Ranked> students) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < students.size(); i++) {
+            PartitionStore.Ranked r = students.get(i);
+            sb.append(String.format("%d. %s (Roll: %d, %s) - Average: %.2f, Grade: %c\n", i + 1, r.name, r.roll, r.partition, r.average, r.grade));
+        }
+        return sb.toString();
+    }
+
+    // Filter results (FilterQuery) in name order, one line each as in the failed list
+    static String matches(List<Student> students) {
+        List<Student> sorted = new java.util.ArrayList<>(students);
+        sorted.sort(Roster.SortKey.NAME.order);
+        StringBuilder sb = new StringBuilder();
+        for (Student s : sorted) {
+            sb.append(String.format("%s (Roll: %d) - Average: %.2f, Grade: %c\n", s.name, s.rollNumber, s.average(), s.grade()));
+        }
+        return sb.toString();
+    }
+
+    // Students with the lowest grade, in name order; "None" if there are none
+    static String failed(RosterStats stats) {
+        return failedTitle(stats) + ":\n" + failedList(stats);
+    }
+
+    // "Failed Students (Grade F)", with the scale's failing grade
+    private static String failedTitle(RosterStats stats) {
+        char[] grades = stats.grades();
+        return "Failed Students (Grade " + grades[grades.length - 1] + ")";
+    }
+
+    private static String failedList(RosterStats stats) {
+        StringBuilder sb = new StringBuilder();
+        for (Student s : stats.failed()) {
+            sb.append(String.format("%s (Roll: %d) - Average: %.2f\n", s.name, s.rollNumber, s.average()));
+        }
+        if (stats.failed().size() == 0) sb.append("None");
+        return sb.toString();
+    }
+
+    // Grade distribution and one line of statistics per subject (monospace layout)
+    static String statistics(RosterStats stats, List<String> subjects) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Students: ").append(stats.students()).append("\n\nGrades:");
+        for (char g : stats.grades()) sb.append("  ").append(g).append(": ").append(stats.gradeCount(g));
+        sb.append("\n\n").append(String.format("%-16s %7s %7s %7s %7s %4s %4s %7s %4s%n",
+                "Subject", "Marks", "Absent", "Mean", "StdDev", "Min", "Max", "Median", "P90"));
+        for (int i = 0; i < subjects.size(); i++) {
+            RosterStats.SubjectStats st = stats.subject(i);
+            if (st.count() == 0) {
+                sb.append(String.format("%-16s %7d %7d %7s %7s %4s %4s %7s %4s%n",
+                        subjects.get(i), 0, st.absent(), "-", "-", "-", "-", "-", "-"));
+            } else {
+                sb.append(String.format("%-16s %7d %7d %7.2f %7.2f %4d %4d %7.1f %4d%n",
+                        subjects.get(i), st.count(), st.absent(), st.mean(), Math.sqrt(st.variance()),
+                        st.min(), st.max(), st.median(), st.percentile(90)));
+            }
+        }
+        return sb.toString();
+    }
+}
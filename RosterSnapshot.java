@@ -0,0 +1,322 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Binary roster snapshot, a compact alternative to the CSV format for save/load.
+//
+//   int     magic 'SGMS'
+//   short   version
+//   varint  subject count, then each subject name      (string = varint byte length + UTF-8)
+//   string  grade bands (GradeScale.bandsText)                             } version 2 only;
+//   varint  weight count, then each: string subject, int float bits        } version 1 = default scale
+//   varint  name pool size, then each distinct name
+//   varint  student count, then per student in roll order:
+//             zigzag varint  roll - previous roll
+//             varint         index into the name pool
+//             byte[subjects] marks in subject order, -1 = Absent
+//   int     CRC32C of every byte before it
+//
+// Holds the same data as a CSV save (subjects, names, rolls, marks) plus the grade scale, so either
+// format can be converted to the other without losing students; averages and grades are
+// recomputed on load.
+class RosterSnapshot {
+    static final int MAGIC = 0x53474D53; // "SGMS"
+    static final int VERSION = 2;
+    private static final int BUFFER = 1 << 20;
+
+    // Decoded contents; marks are row-major by student, in the order of 'subjects'
+    static class Data {
+        final List<String> subjects;
+        final String[] names;
+        final int[] rolls;
+        final byte[] marks;
+        final GradeScale scale;
+
+        Data(List<String> subjects, String[] names, int[] rolls, byte[] marks, GradeScale scale) {
+            this.subjects = subjects;
+            this.names = names;
+            this.rolls = rolls;
+            this.marks = marks;
+            this.scale = scale;
+        }
+
+        int size() {
+            return rolls.length;
+        }
+
+        int mark(int i, int pos) {
+            return marks[i * subjects.size() + pos];
+        }
+    }
+
+    public static void write(File file, Roster roster) throws IOException {
+        write(file, capture(roster));
+    }
+
+    // Copy of the roster's contents in name order; call on the thread that owns the roster.
+    // The copy can then be written from any thread.
+    public static Data capture(Roster roster) {
+        int width = roster.marks.subjectCount();
+        int n = roster.size();
+        String[] names = new String[n];
+        int[] rolls = new int[n];
+        byte[] marks = new byte[n * width];
+        int i = 0;
+        for (Student s : roster) {
+            names[i] = s.name;
+            rolls[i] = s.rollNumber;
+            roster.marks.copyRow(s.row, marks, i * width);
+            i++;
+        }
+        return new Data(roster.marks.subjectNames(), names, rolls, marks, roster.marks.scale());
+    }
+
+    // Writes and fsyncs; data in name order pools equal names by comparing neighbours
+    public static void write(File file, Data data) throws IOException {
+        GradeEvents.Save event = new GradeEvents.Save("snapshot", file.getPath());
+        try {
+            writeFile(file, data);
+            event.completed = true;
+            event.bytes = file.length();
+        } finally {
+            event.rows = data.size();
+            event.done();
+        }
+    }
+
+    private static void writeFile(File file, Data data) throws IOException {
+        int width = data.subjects.size();
+        int n = data.size();
+        // students are written in roll order, found by sorting (roll, index) pairs packed into longs
+        int[] poolIndex = new int[n];
+        long[] byRoll = new long[n];
+        List<String> poolNames = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String nm = data.names[i];
+            if (poolNames.isEmpty() || !poolNames.get(poolNames.size() - 1).equals(nm)) poolNames.add(nm);
+            poolIndex[i] = poolNames.size() - 1;
+            byRoll[i] = ((long) data.rolls[i] << 32) | i;
+        }
+        Arrays.sort(byRoll);
+
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Out out = new Out(ch);
+            out.fixed(MAGIC, 4);
+            out.fixed(VERSION, 2);
+            out.varint(width);
+            for (String subject : data.subjects) out.string(subject);
+            out.string(data.scale.bandsText());
+            out.varint(data.scale.weights().size());
+            for (Map.Entry<String, Float> e : data.scale.weights().entrySet()) {
+                out.string(e.getKey());
+                out.fixed(Float.floatToIntBits(e.getValue()), 4);
+            }
+            out.varint(poolNames.size());
+            for (String nm : poolNames) out.string(nm);
+            out.varint(n);
+            int prev = 0;
+            for (long key : byRoll) {
+                int i = (int) key;
+                out.ensure(10 + 5 + width);
+                out.varint(zigzag((long) data.rolls[i] - prev));
+                out.varint(poolIndex[i]);
+                System.arraycopy(data.marks, i * width, out.buf, out.pos, width);
+                out.pos += width;
+                prev = data.rolls[i];
+            }
+            out.finish();
+            ch.force(true);
+        }
+    }
+
+    // Replace the roster's students and subjects with the snapshot's (bulk index build)
+    public static void restore(Roster roster, Data data) {
+        MarkStore marks = roster.marks;
+        for (Student s : roster) s.release();
+        roster.clear();
+        roster.setSubjects(data.subjects);
+        roster.dropDetachedSubjects();
+        roster.setScale(data.scale);
+        int width = data.subjects.size();
+        List<Student> students = new ArrayList<>(data.size());
+        for (int i = 0; i < data.size(); i++) {
+            Student s = new Student(data.names[i], data.rolls[i], marks);
+            for (int j = 0; j < width; j++) s.setMark(j, data.mark(i, j));
+            s.calculateAverageAndGrade();
+            students.add(s);
+        }
+        roster.addAll(students);
+    }
+
+    // Reads and verifies a snapshot through a memory map
+    public static Data read(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Snapshot too large: " + size + " bytes");
+            if (size < 10) throw new IOException("Not a student snapshot");
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (map.getInt(0) != MAGIC) throw new IOException("Not a student snapshot");
+            int version = map.getShort(4) & 0xFFFF;
+            if (version < 1 || version > VERSION) throw new IOException("Unsupported snapshot version " + version);
+
+            int bodyEnd = (int) size - 4;
+            CRC32C crc = new CRC32C();
+            crc.update(map.duplicate().limit(bodyEnd));
+            if ((int) crc.getValue() != map.getInt(bodyEnd)) throw new IOException("Snapshot checksum mismatch");
+
+            In in = new In(map.limit(bodyEnd).position(6));
+            int width = in.count();
+            List<String> subjects = new ArrayList<>(width);
+            for (int i = 0; i < width; i++) subjects.add(in.string());
+            GradeScale scale = GradeScale.DEFAULT;
+            if (version >= 2) {
+                String bands = in.string();
+                int n = in.count();
+                Map<String, Float> weights = new LinkedHashMap<>();
+                for (int i = 0; i < n; i++) weights.put(in.string(), Float.intBitsToFloat(in.buf.getInt()));
+                try {
+                    scale = GradeScale.parse(bands, "").withWeights(weights);
+                } catch (IllegalArgumentException ex) {
+                    throw corrupt();
+                }
+            }
+            String[] pool = new String[in.count()];
+            for (int i = 0; i < pool.length; i++) pool[i] = in.string();
+
+            int n = in.count();
+            String[] names = new String[n];
+            int[] rolls = new int[n];
+            byte[] marks = new byte[n * width];
+            long roll = 0;
+            for (int i = 0; i < n; i++) {
+                long next = roll + unzigzag(in.varint());
+                // strictly increasing, which also rules out duplicate rolls
+                if ((i > 0 && next <= roll) || next < Integer.MIN_VALUE || next > Integer.MAX_VALUE) throw corrupt();
+                roll = next;
+                rolls[i] = (int) roll;
+                long p = in.varint();
+                if (p < 0 || p >= pool.length) throw corrupt();
+                names[i] = pool[(int) p];
+                in.bytes(marks, i * width, width);
+            }
+            for (byte m : marks) if (m < -1 || m > 100) throw corrupt();
+            if (in.buf.hasRemaining()) throw corrupt();
+            return new Data(subjects, names, rolls, marks, scale);
+        } catch (java.nio.BufferUnderflowException ex) {
+            throw corrupt();
+        }
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Snapshot is corrupt");
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    // Buffered channel writer that keeps a running checksum; big-endian like ByteBuffer
+    private static class Out {
+        final FileChannel ch;
+        final byte[] buf = new byte[BUFFER];
+        int pos;
+        final CRC32C crc = new CRC32C();
+
+        Out(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        void ensure(int n) throws IOException {
+            if (buf.length - pos < n) flush();
+        }
+
+        void fixed(int v, int bytes) throws IOException {
+            ensure(bytes);
+            for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) buf[pos++] = (byte) (v >>> shift);
+        }
+
+        void varint(long v) throws IOException {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void string(String s) throws IOException {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length);
+            for (int off = 0; off < b.length; ) {
+                ensure(1);
+                int n = Math.min(buf.length - pos, b.length - off);
+                System.arraycopy(b, off, buf, pos, n);
+                pos += n;
+                off += n;
+            }
+        }
+
+        void flush() throws IOException {
+            crc.update(buf, 0, pos);
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, pos);
+            while (bb.hasRemaining()) ch.write(bb);
+            pos = 0;
+        }
+
+        void finish() throws IOException {
+            flush();
+            fixed((int) crc.getValue(), 4);
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, pos);
+            while (bb.hasRemaining()) ch.write(bb);
+        }
+    }
+
+    private static class In {
+        final ByteBuffer buf;
+        private byte[] scratch = new byte[64];
+
+        In(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        long varint() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buf.get();
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw corrupt();
+        }
+
+        // a non-negative count that fits what is left of the file
+        int count() throws IOException {
+            long v = varint();
+            if (v < 0 || v > buf.remaining()) throw corrupt();
+            return (int) v;
+        }
+
+        String string() throws IOException {
+            int len = count();
+            if (len > scratch.length) scratch = new byte[Math.max(len, scratch.length * 2)];
+            buf.get(scratch, 0, len);
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        void bytes(byte[] dst, int off, int len) {
+            buf.get(dst, off, len);
+        }
+    }
+}
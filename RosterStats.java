@@ -0,0 +1,238 @@
+import java.util.*;
+
+// Aggregates over the roster, kept up to date by Roster on every add, remove and update.
+// Reading any of them is O(1) or O(subjects); nothing here walks the students. After a subject
+// list or scale change the grade counts and the failed list wait until Roster regrades everyone
+// (GradeEngine) under its write lock: read them through Roster.gradedStats(), failed() or
+// gradeCount(), which catch up first.
+// Grades are those of the MarkStore's GradeScale; the failed list holds its lowest grade.
+// Subject statistics are kept per MarkStore column rather than per schema position, so
+// reordering, adding or detaching subjects needs no rebuild: a new column starts with no
+// marks (everyone Absent) and a detached one keeps its numbers in case it comes back.
+class RosterStats {
+    private final MarkStore marks;
+    private int students;
+    private int[] gradeCounts; // by GradeScale band, best first
+    private final OrderedIndex failed = new OrderedIndex(Roster.SortKey.NAME.order);
+    private boolean gradesStale; // gradeCounts and failed wait for regraded()
+    private SubjectStats[] byColumn = new SubjectStats[0];
+
+    // Present (non-Absent) marks of one subject; a histogram over 0-100 gives min, max,
+    // median and percentiles without keeping the marks themselves
+    class SubjectStats {
+        private final int[] hist = new int[101];
+        private int count;
+        private long sum, sumSquares;
+
+        private void add(int m) {
+            hist[m]++;
+            count++;
+            sum += m;
+            sumSquares += (long) m * m;
+        }
+
+        private void remove(int m) {
+            hist[m]--;
+            count--;
+            sum -= m;
+            sumSquares -= (long) m * m;
+        }
+
+        // Students with a mark for this subject
+        public int count() {
+            return count;
+        }
+
+        public int absent() {
+            return students - count;
+        }
+
+        public long sum() {
+            return sum;
+        }
+
+        // -1 when nobody has a mark
+        public int min() {
+            for (int m = 0; m <= 100; m++) if (hist[m] > 0) return m;
+            return -1;
+        }
+
+        public int max() {
+            for (int m = 100; m >= 0; m--) if (hist[m] > 0) return m;
+            return -1;
+        }
+
+        public double mean() {
+            return (count == 0) ? 0 : (double) sum / count;
+        }
+
+        // Population variance
+        public double variance() {
+            if (count == 0) return 0;
+            double mean = mean();
+            return Math.max(0, (double) sumSquares / count - mean * mean);
+        }
+
+        public double median() {
+            if (count == 0) return -1;
+            if (count % 2 == 1) return markAt(count / 2);
+            return (markAt(count / 2 - 1) + markAt(count / 2)) / 2.0;
+        }
+
+        // Nearest-rank percentile (p in 0-100); -1 when nobody has a mark
+        public int percentile(double p) {
+            if (count == 0) return -1;
+            int rank = (int) Math.ceil(p / 100.0 * count);
+            return markAt(Math.max(0, Math.min(count - 1, rank - 1)));
+        }
+
+        // i-th smallest present mark (0-based)
+        private int markAt(int i) {
+            for (int m = 0; m <= 100; m++) {
+                i -= hist[m];
+                if (i < 0) return m;
+            }
+            return 100;
+        }
+    }
+
+    RosterStats(MarkStore marks) {
+        this.marks = marks;
+        this.gradeCounts = new int[marks.scale().gradeCount()];
+    }
+
+    public int students() {
+        return students;
+    }
+
+    // Grades of the current scale, best first
+    public char[] grades() {
+        return marks.scale().letters();
+    }
+
+    public int gradeCount(char grade) {
+        int i = gradeIndex(grade);
+        return (i < 0) ? 0 : gradeCounts[i];
+    }
+
+    // Students with the lowest grade (F by default) in name order; enumerating it costs O(failed)
+    public OrderedIndex failed() {
+        return failed;
+    }
+
+    // True if some student has a mark in this MarkStore column
+    boolean hasMarks(int col) {
+        return col < byColumn.length && byColumn[col] != null && byColumn[col].count > 0;
+    }
+
+    // Statistics of the subject at schema position pos
+    public SubjectStats subject(int pos) {
+        return column(marks.columnAt(pos));
+    }
+
+    // ---- maintenance (called by Roster) ----
+
+    void add(Student s) {
+        students++;
+        addGrade(s);
+        columns(s, 1);
+    }
+
+    void remove(Student s) {
+        students--;
+        removeGrade(s);
+        columns(s, -1);
+    }
+
+    // remove() for many students at once; the failed list is left to addAll()
+    void removeAll(Collection<Student> changed) {
+        for (Student s : changed) {
+            students--;
+            if (!gradesStale) {
+                int i = gradeIndex(s.grade());
+                if (i >= 0) gradeCounts[i]--;
+            }
+            columns(s, -1);
+        }
+    }
+
+    // add() for the students given to removeAll(), now changed. Instead of re-keying each failing
+    // student, the failed list is rebuilt from all (the whole roster, in name order, so the
+    // build's sort is one pass over sorted input).
+    void addAll(Collection<Student> changed, List<Student> all) {
+        for (Student s : changed) {
+            students++;
+            if (!gradesStale) {
+                int i = gradeIndex(s.grade());
+                if (i >= 0) gradeCounts[i]++;
+            }
+            columns(s, 1);
+        }
+        if (gradesStale) return;
+        char lowest = marks.scale().failing();
+        List<Student> failing = new ArrayList<>();
+        for (Student s : all) if (s.grade() == lowest) failing.add(s);
+        failed.build(failing);
+    }
+
+    // Grades may have changed for everyone (subject list change); recounted by the next regraded()
+    void gradesChanged() {
+        gradesStale = true;
+    }
+
+    // Counts from a bulk recompute of every student (Roster.recomputeAll)
+    void regraded(GradeEngine.Result r) {
+        gradesStale = false;
+        gradeCounts = r.gradeCounts.clone();
+        failed.build(r.failing);
+    }
+
+    void clear() {
+        students = 0;
+        gradesStale = false;
+        gradeCounts = new int[marks.scale().gradeCount()];
+        failed.clear();
+        byColumn = new SubjectStats[0];
+    }
+
+    // The column was set Absent for every row
+    void resetColumn(int col) {
+        if (col < byColumn.length) byColumn[col] = null;
+    }
+
+    private void addGrade(Student s) {
+        if (gradesStale) return; // counted by regraded()
+        int i = gradeIndex(s.grade());
+        if (i >= 0) gradeCounts[i]++;
+        if (s.grade() == marks.scale().failing()) failed.insert(s);
+    }
+
+    private void removeGrade(Student s) {
+        if (gradesStale) return;
+        int i = gradeIndex(s.grade());
+        if (i >= 0) gradeCounts[i]--;
+        if (s.grade() == marks.scale().failing()) failed.remove(s);
+    }
+
+    // Adds (sign 1) or removes (sign -1) the student's marks in every column
+    private void columns(Student s, int sign) {
+        for (int col = 0, n = marks.columnLimit(); col < n; col++) {
+            if (!marks.isColumnUsed(col)) continue;
+            int m = marks.getColumn(s.row, col);
+            if (m < 0) continue;
+            if (sign > 0) column(col).add(m);
+            else column(col).remove(m);
+        }
+    }
+
+    private SubjectStats column(int col) {
+        if (col >= byColumn.length) byColumn = Arrays.copyOf(byColumn, Math.max(col + 1, byColumn.length * 2));
+        if (byColumn[col] == null) byColumn[col] = new SubjectStats();
+        return byColumn[col];
+    }
+
+    private int gradeIndex(char grade) {
+        int i = marks.scale().indexOf(grade);
+        return (i < gradeCounts.length) ? i : -1;
+    }
+}
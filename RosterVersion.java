@@ -0,0 +1,79 @@
+import java.util.*;
+import java.util.List;
+import java.util.function.Consumer;
+
+// The roster as it was at one change (Roster.version()): its students in name order with their
+// names, roll numbers and marks, the subject list and the grade scale.
+// Taking one is O(1): it shares the name order's tree nodes (OrderedIndex.snapshot) and the
+// MarkStore's row blocks (MarkStore.freeze) with the live roster, which copies a node or block
+// before its first change afterwards. So a version costs memory only for what changed after it,
+// never changes itself, and can be read from any thread while the owner thread keeps editing:
+// an export or a report run reads a version instead of a copy made on the EDT, and
+// RosterHistory keeps one per step for undo and redo.
+class RosterVersion {
+    private final long changeCount;
+    private final OrderedIndex byName; // only each Student's row and roll are read
+    private final MarkStore.Frozen marks;
+
+    RosterVersion(long changeCount, OrderedIndex byName, MarkStore.Frozen marks) {
+        this.changeCount = changeCount;
+        this.byName = byName;
+        this.marks = marks;
+    }
+
+    // Roster.changeCount() when this version was taken
+    long changeCount() {
+        return changeCount;
+    }
+
+    int size() {
+        return byName.size();
+    }
+
+    List<String> subjects() {
+        return marks.subjects;
+    }
+
+    GradeScale scale() {
+        return marks.scale;
+    }
+
+    // s's name in this version; s must be one of its students
+    String name(Student s) {
+        return marks.name(s.row);
+    }
+
+    // s's mark for the subject at position pos of subjects(); -1 means Absent
+    int mark(Student s, int pos) {
+        return marks.get(s.row, pos);
+    }
+
+    // The students in name order; a student's name and marks here are name() and mark(), not
+    // the live fields
+    Iterable<Student> students() {
+        return byName;
+    }
+
+    // Students at positions [from, to) of the name order, O(log n) to reach from
+    void forRange(int from, int to, Consumer<Student> action) {
+        byName.forRange(from, to, action);
+    }
+
+    // Flat copy in name order, as RosterSnapshot.capture() makes from the live roster; O(n), but
+    // on whichever thread calls it
+    RosterSnapshot.Data toData() {
+        int width = marks.subjectCount();
+        int n = size();
+        String[] names = new String[n];
+        int[] rolls = new int[n];
+        byte[] m = new byte[n * width];
+        int i = 0;
+        for (Student s : byName) {
+            names[i] = marks.name(s.row);
+            rolls[i] = s.rollNumber;
+            marks.copyRow(s.row, m, i * width);
+            i++;
+        }
+        return new RosterSnapshot.Data(new ArrayList<>(marks.subjects), names, rolls, m, marks.scale);
+    }
+}
@@ -0,0 +1,365 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+// Compressed set of MarkStore rows, for FilterIndex. Rows are split into chunks of 65536 by
+// their high 16 bits; a chunk with at most 4096 rows is a sorted char[] of the low bits (2 bytes
+// per row), a fuller one a 1024-word bitset (8 KB, however many rows). And, or and andNot go
+// chunk by chunk and return new bitmaps; cardinality() is a sum kept per chunk, so a count
+// never walks the rows.
+final class RowBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1 << 10;
+
+    private char[] keys = new char[4];  // high 16 bits of each chunk, ascending
+    private Chunk[] chunks = new Chunk[4];
+    private int size;                   // chunks in use
+
+    // Low 16 bits of one chunk's rows: array (sorted, n used) or bits, whichever is smaller
+    private static final class Chunk {
+        char[] array;
+        long[] bits;
+        int card;
+
+        static Chunk ofArray(char[] array, int card) {
+            Chunk c = new Chunk();
+            c.array = array;
+            c.card = card;
+            return c;
+        }
+
+        static Chunk ofBits(long[] bits, int card) {
+            Chunk c = new Chunk();
+            c.bits = bits;
+            c.card = card;
+            return c;
+        }
+
+        boolean contains(char low) {
+            if (bits != null) return (bits[low >>> 6] & (1L << low)) != 0;
+            return Arrays.binarySearch(array, 0, card, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | (1L << low);
+                if (before == bits[low >>> 6]) return false;
+                card++;
+                return true;
+            }
+            // rows mostly arrive in ascending order: try the end first
+            int i = (card > 0 && array[card - 1] < low) ? -card - 1 : Arrays.binarySearch(array, 0, card, low);
+            if (i >= 0) return false;
+            i = -i - 1;
+            if (card == ARRAY_MAX) {
+                toBits();
+                return add(low);
+            }
+            if (card == array.length) array = Arrays.copyOf(array, Math.min(ARRAY_MAX, Math.max(4, card * 2)));
+            System.arraycopy(array, i, array, i + 1, card - i);
+            array[i] = low;
+            card++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before & ~(1L << low);
+                if (before == bits[low >>> 6]) return false;
+                if (--card <= ARRAY_MAX / 2) toArray(); // hysteresis: no flapping at the threshold
+                return true;
+            }
+            int i = Arrays.binarySearch(array, 0, card, low);
+            if (i < 0) return false;
+            System.arraycopy(array, i + 1, array, i, card - i - 1);
+            card--;
+            return true;
+        }
+
+        private void toBits() {
+            bits = new long[WORDS];
+            for (int i = 0; i < card; i++) bits[array[i] >>> 6] |= 1L << array[i];
+            array = null;
+        }
+
+        private void toArray() {
+            array = lows(bits, card);
+            bits = null;
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if (bits == null) {
+                for (int i = 0; i < card; i++) action.accept(high | array[i]);
+                return;
+            }
+            for (int w = 0; w < WORDS; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                }
+            }
+        }
+
+        Chunk copy() {
+            return (bits != null) ? ofBits(bits.clone(), card) : ofArray(Arrays.copyOf(array, card), card);
+        }
+
+        // ---- chunk operations; null for an empty result ----
+
+        static Chunk and(Chunk a, Chunk b) {
+            if (a.bits != null && b.bits != null) {
+                long[] out = new long[WORDS];
+                int card = 0;
+                for (int w = 0; w < WORDS; w++) card += Long.bitCount(out[w] = a.bits[w] & b.bits[w]);
+                return fromBits(out, card);
+            }
+            if (a.bits != null) return and(b, a);
+            char[] out = new char[Math.min(a.card, b.card)];
+            int n = 0;
+            if (b.bits != null) {
+                for (int i = 0; i < a.card; i++) if (b.contains(a.array[i])) out[n++] = a.array[i];
+            } else {
+                for (int i = 0, j = 0; i < a.card && j < b.card; ) {
+                    if (a.array[i] < b.array[j]) i++;
+                    else if (a.array[i] > b.array[j]) j++;
+                    else { out[n++] = a.array[i]; i++; j++; }
+                }
+            }
+            return (n == 0) ? null : ofArray(out, n);
+        }
+
+        static Chunk or(Chunk a, Chunk b) {
+            if (a.bits == null && b.bits == null && a.card + b.card <= ARRAY_MAX) {
+                char[] out = new char[a.card + b.card];
+                int i = 0, j = 0, n = 0;
+                while (i < a.card && j < b.card) {
+                    if (a.array[i] < b.array[j]) out[n++] = a.array[i++];
+                    else if (a.array[i] > b.array[j]) out[n++] = b.array[j++];
+                    else { out[n++] = a.array[i++]; j++; }
+                }
+                while (i < a.card) out[n++] = a.array[i++];
+                while (j < b.card) out[n++] = b.array[j++];
+                return ofArray(out, n);
+            }
+            long[] out = new long[WORDS];
+            orInto(out, a);
+            orInto(out, b);
+            int card = 0;
+            for (long w : out) card += Long.bitCount(w);
+            return fromBits(out, card);
+        }
+
+        static Chunk andNot(Chunk a, Chunk b) {
+            if (a.bits == null) {
+                char[] out = new char[a.card];
+                int n = 0;
+                for (int i = 0; i < a.card; i++) if (!b.contains(a.array[i])) out[n++] = a.array[i];
+                return (n == 0) ? null : ofArray(out, n);
+            }
+            long[] out = a.bits.clone();
+            if (b.bits != null) {
+                for (int w = 0; w < WORDS; w++) out[w] &= ~b.bits[w];
+            } else {
+                for (int i = 0; i < b.card; i++) out[b.array[i] >>> 6] &= ~(1L << b.array[i]);
+            }
+            int card = 0;
+            for (long w : out) card += Long.bitCount(w);
+            return fromBits(out, card);
+        }
+
+        private static void orInto(long[] out, Chunk c) {
+            if (c.bits != null) {
+                for (int w = 0; w < WORDS; w++) out[w] |= c.bits[w];
+            } else {
+                for (int i = 0; i < c.card; i++) out[c.array[i] >>> 6] |= 1L << c.array[i];
+            }
+        }
+
+        private static Chunk fromBits(long[] bits, int card) {
+            if (card == 0) return null;
+            return (card <= ARRAY_MAX) ? ofArray(lows(bits, card), card) : ofBits(bits, card);
+        }
+
+        private static char[] lows(long[] bits, int card) {
+            char[] out = new char[card];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    out[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                }
+            }
+            return out;
+        }
+    }
+
+    // ---- single rows ----
+
+    boolean contains(int row) {
+        int i = find((char) (row >>> 16));
+        return i >= 0 && chunks[i].contains((char) row);
+    }
+
+    void add(int row) {
+        char high = (char) (row >>> 16);
+        int i = find(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, high, Chunk.ofArray(new char[4], 0));
+        }
+        chunks[i].add((char) row);
+    }
+
+    void remove(int row) {
+        int i = find((char) (row >>> 16));
+        if (i < 0) return;
+        Chunk c = chunks[i];
+        c.remove((char) row);
+        if (c.card == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(chunks, i + 1, chunks, i, size - i - 1);
+            chunks[--size] = null;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(chunks, 0, size, null);
+        size = 0;
+    }
+
+    // The rows of rows[0..n), which must be ascending with no repeats
+    static RowBitmap of(int[] rows, int n) {
+        RowBitmap out = new RowBitmap();
+        out.addAll(rows, 0, n);
+        return out;
+    }
+
+    // Adds rows[from..to), which must be ascending with no repeats: one merge per chunk rather
+    // than one insert per row (bulk loads)
+    void addAll(int[] rows, int from, int to) {
+        for (int i = from; i < to; ) {
+            char high = (char) (rows[i] >>> 16);
+            int j = i;
+            while (j < to && (rows[j] >>> 16) == high) j++;
+            char[] lows = new char[j - i];
+            for (int k = i; k < j; k++) lows[k - i] = (char) rows[k];
+            Chunk c = Chunk.ofArray(lows, lows.length);
+            if (c.card > ARRAY_MAX) c.toBits();
+            int at = find(high);
+            if (at < 0) insertChunk(-at - 1, high, c);
+            else chunks[at] = Chunk.or(chunks[at], c);
+            i = j;
+        }
+    }
+
+    // ---- whole bitmaps ----
+
+    int cardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++) n += chunks[i].card;
+        return n;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Rows in ascending order
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) chunks[i].forEach(keys[i] << 16, action);
+    }
+
+    RowBitmap copy() {
+        RowBitmap out = new RowBitmap();
+        for (int i = 0; i < size; i++) out.appendChunk(keys[i], chunks[i].copy());
+        return out;
+    }
+
+    RowBitmap and(RowBitmap o) {
+        RowBitmap out = new RowBitmap();
+        for (int i = 0, j = 0; i < size && j < o.size; ) {
+            if (keys[i] < o.keys[j]) i++;
+            else if (keys[i] > o.keys[j]) j++;
+            else {
+                out.appendChunk(keys[i], Chunk.and(chunks[i], o.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    RowBitmap or(RowBitmap o) {
+        RowBitmap out = new RowBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < o.size) {
+            if (j == o.size || (i < size && keys[i] < o.keys[j])) {
+                out.appendChunk(keys[i], chunks[i++].copy());
+            } else if (i == size || o.keys[j] < keys[i]) {
+                out.appendChunk(o.keys[j], o.chunks[j++].copy());
+            } else {
+                out.appendChunk(keys[i], Chunk.or(chunks[i++], o.chunks[j++]));
+            }
+        }
+        return out;
+    }
+
+    // Rows in this and not in o
+    RowBitmap andNot(RowBitmap o) {
+        RowBitmap out = new RowBitmap();
+        for (int i = 0, j = 0; i < size; i++) {
+            while (j < o.size && o.keys[j] < keys[i]) j++;
+            out.appendChunk(keys[i], (j < o.size && o.keys[j] == keys[i]) ? Chunk.andNot(chunks[i], o.chunks[j]) : chunks[i].copy());
+        }
+        return out;
+    }
+
+    // Rows of this that pass the test
+    RowBitmap filter(IntPredicate test) {
+        int[] rows = new int[Math.min(cardinality(), 1 << 16)];
+        int[] n = {0};
+        RowBitmap out = new RowBitmap();
+        for (int i = 0; i < size; i++) {
+            n[0] = 0;
+            chunks[i].forEach(keys[i] << 16, row -> { if (test.test(row)) rows[n[0]++] = row; });
+            out.appendChunk(keys[i], of(rows, n[0]).single());
+        }
+        return out;
+    }
+
+    // Bytes held by the chunks (for Metrics)
+    long bytes() {
+        long b = 0;
+        for (int i = 0; i < size; i++) b += (chunks[i].bits != null) ? 8L * WORDS : 2L * chunks[i].array.length;
+        return b;
+    }
+
+    // ---- plumbing ----
+
+    private Chunk single() {
+        return (size == 0) ? null : chunks[0];
+    }
+
+    private int find(char high) {
+        if (size > 0 && keys[size - 1] == high) return size - 1; // appends mostly hit the last chunk
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void insertChunk(int i, char high, Chunk c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(chunks, i, chunks, i + 1, size - i);
+        keys[i] = high;
+        chunks[i] = c;
+        size++;
+    }
+
+    // keys must arrive ascending; null (an empty chunk) is skipped
+    private void appendChunk(char high, Chunk c) {
+        if (c == null || c.card == 0) return;
+        insertChunk(size, high, c);
+    }
+}
@@ -0,0 +1,64 @@
+// One student: name, roll number, a row of marks in the shared MarkStore, and the average and
+// grade derived from them.
+class Student {
+    String name;
+    int rollNumber;
+    // marks live in one row of the shared MarkStore, indexed by subject position; -1 means Absent
+    final MarkStore marks;
+    final int row;
+    // as of MarkStore version 'version'; read them through average() and grade(), which bring
+    // them up to date after a subject list change
+    private float average;
+    private char grade;
+    private int version = -1;
+
+    public Student(String name, int rollNumber, MarkStore marks) {
+        this.name = name;
+        this.rollNumber = rollNumber;
+        this.marks = marks;
+        this.row = marks.allocRow();
+    }
+
+    public int getMark(int subjectPos) {
+        return marks.get(row, subjectPos);
+    }
+
+    public void setMark(int subjectPos, int mark) {
+        marks.set(row, subjectPos, mark);
+    }
+
+    public float average() {
+        if (version != marks.version()) calculateAverageAndGrade();
+        return average;
+    }
+
+    public char grade() {
+        if (version != marks.version()) calculateAverageAndGrade();
+        return grade;
+    }
+
+    // False while average and grade wait to catch up with a subject list or scale change
+    boolean graded() {
+        return version == marks.version();
+    }
+
+    // Give the mark row back to the store once the student is deleted
+    public void release() {
+        marks.freeRow(row);
+    }
+
+    // Average over the store's subjects (Absent counts as 0) and the grade for it, under the
+    // store's GradeScale
+    public void calculateAverageAndGrade() {
+        average = marks.average(row);
+        grade = marks.scale().grade(average);
+        version = marks.version();
+    }
+
+    // Result of a bulk recompute (GradeEngine) for MarkStore version 'version'
+    void graded(float average, char grade, int version) {
+        this.average = average;
+        this.grade = grade;
+        this.version = version;
+    }
+}
@@ -1,61 +1,35 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.io.*;
 import java.util.*;
 import java.util.List;
 
-class Student {
-    String name;
-    int rollNumber;
-    // mark = -1 means Absent
-    Map<String, Integer> subjectMarks = new LinkedHashMap<>();
-    float average;
-    char grade;
-
-    public Student(String name, int rollNumber) {
-        this.name = name;
-        this.rollNumber = rollNumber;
-    }
-
-    // Calculate average and grade using globalSubjects as denominator when > 0
-    public void calculateAverageAndGrade(int globalSubjects) {
-        int sum = 0;
-        int denominator;
-
-        if (globalSubjects > 0) {
-            denominator = globalSubjects;
-            for (Integer mark : subjectMarks.values()) {
-                if (mark != null && mark >= 0) sum += mark;
-            }
-            // missing subjects count as absent (0)
-        } else {
-            denominator = (subjectMarks.size() > 0) ? subjectMarks.size() : 1;
-            for (Integer mark : subjectMarks.values()) {
-                if (mark != null && mark >= 0) sum += mark;
-            }
-        }
-
-        if (denominator <= 0) average = 0f;
-        else average = (float) sum / denominator;
-
-        if (average >= 90) grade = 'A';
-        else if (average >= 80) grade = 'B';
-        else if (average >= 70) grade = 'C';
-        else if (average >= 60) grade = 'D';
-        else grade = 'F';
-    }
-}
-
 public class StudentGradeManagerGUI extends JFrame {
-    private final List<Student> students = new ArrayList<>();
     private JTable table;
-    private DefaultTableModel tableModel;
-
-    // Default global subject list
-    private List<String> subjectNames = new ArrayList<>(Arrays.asList(
-            "Tamil", "English", "Maths", "Science", "Social"
-    ));
+    private StudentTableModel tableModel;
+    private NameFilterBar filterBar;
+    private final Map<Roster.SortKey, JRadioButtonMenuItem> sortItems = new EnumMap<>(Roster.SortKey.class);
+
+    // Global subject list
+    private List<String> subjectNames = new ArrayList<>(Roster.DEFAULT_SUBJECTS);
+    // Marks for every student, one column per entry of subjectNames
+    private final MarkStore markStore = new MarkStore(subjectNames);
+    private final Roster roster = new Roster(markStore);
+    // Write-ahead journal in the data directory; null if it could not be opened
+    private Journal journal;
+    // A CSV import is applying rows (CsvLoad.subjects until commit or rollback): the roster is
+    // half-loaded and the journal does not have it yet, so it must not be compacted
+    private boolean csvLoading;
+    // Undo/redo of the edits made in this window (Edit menu)
+    private final RosterHistory history = new RosterHistory(roster);
+    // Flight recording started from the Diagnostics menu; null when none is running
+    private jdk.jfr.Recording recording;
+    // Results lookup over HTTP (Admin > Results Server); null when stopped
+    private ResultsServer resultsServer;
+    // Class/term partitions in the data directory; null if it could not be opened
+    private PartitionStore partitions;
+    // Partition the roster was opened from or last saved to (attached to the store); null if none
+    private String currentPartition;
 
     public StudentGradeManagerGUI() {
         setTitle("Student Grade Manager");
@@ -64,19 +38,117 @@ public class StudentGradeManagerGUI extends JFrame {
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
 
+        openJournal();
+        history.setJournal(journal);
+        history.reset();
+        openPartitions();
+        startDiagnostics();
+
         // Menu Bar
         JMenuBar menuBar = new JMenuBar();
 
+        JMenu fileMenu = new JMenu("File");
+        JMenuItem saveSnapshotItem = new JMenuItem("Save Snapshot...");
+        saveSnapshotItem.addActionListener(e -> saveSnapshot());
+        JMenuItem openSnapshotItem = new JMenuItem("Open Snapshot...");
+        openSnapshotItem.addActionListener(e -> openSnapshot());
+        fileMenu.add(saveSnapshotItem);
+        fileMenu.add(openSnapshotItem);
+        fileMenu.addSeparator();
+        JMenuItem deltaItem = new JMenuItem("Apply Mark Changes...");
+        deltaItem.addActionListener(e -> applyMarkDelta());
+        JMenuItem cardsItem = new JMenuItem("Report Cards...");
+        cardsItem.addActionListener(e -> generateReportCards());
+        fileMenu.add(deltaItem);
+        fileMenu.add(cardsItem);
+        fileMenu.addSeparator();
+        JMenuItem openPartitionItem = new JMenuItem("Open Class/Term...");
+        openPartitionItem.addActionListener(e -> openPartition());
+        JMenuItem savePartitionItem = new JMenuItem("Save as Class/Term...");
+        savePartitionItem.addActionListener(e -> savePartition());
+        JMenuItem schoolTopItem = new JMenuItem("School Top 10...");
+        schoolTopItem.addActionListener(e -> showSchoolTop());
+        fileMenu.add(openPartitionItem);
+        fileMenu.add(savePartitionItem);
+        fileMenu.add(schoolTopItem);
+        menuBar.add(fileMenu);
+
+        JMenu editMenu = new JMenu("Edit");
+        JMenuItem undoItem = new JMenuItem("Undo");
+        undoItem.setAccelerator(KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Z, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        undoItem.addActionListener(e -> undoRedo(true));
+        JMenuItem redoItem = new JMenuItem("Redo");
+        redoItem.setAccelerator(KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Y, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        redoItem.addActionListener(e -> undoRedo(false));
+        editMenu.add(undoItem);
+        editMenu.add(redoItem);
+        // labels follow the history; re-checked on opening, as an unrecorded change (a load) voids it
+        Runnable undoLabels = () -> {
+            String u = history.undoLabel(), r = history.redoLabel();
+            undoItem.setText((u != null) ? "Undo " + u : "Undo");
+            undoItem.setEnabled(u != null);
+            redoItem.setText((r != null) ? "Redo " + r : "Redo");
+            redoItem.setEnabled(r != null);
+        };
+        history.setListener(undoLabels);
+        editMenu.addMenuListener(new javax.swing.event.MenuListener() {
+            @Override
+            public void menuSelected(javax.swing.event.MenuEvent e) {
+                undoLabels.run();
+            }
+
+            @Override
+            public void menuDeselected(javax.swing.event.MenuEvent e) {
+            }
+
+            @Override
+            public void menuCanceled(javax.swing.event.MenuEvent e) {
+            }
+        });
+        undoLabels.run();
+        menuBar.add(editMenu);
+
         JMenu adminMenu = new JMenu("Admin");
         JMenuItem manageSubjectsItem = new JMenuItem("Manage Subjects");
         manageSubjectsItem.addActionListener(e -> manageSubjectsDialog());
         adminMenu.add(manageSubjectsItem);
+        JMenuItem gradeScaleItem = new JMenuItem("Grade Scale...");
+        gradeScaleItem.addActionListener(e -> gradeScaleDialog());
+        adminMenu.add(gradeScaleItem);
+        JMenuItem resultsServerItem = new JMenuItem("Results Server...");
+        resultsServerItem.addActionListener(e -> resultsServerDialog());
+        adminMenu.add(resultsServerItem);
         menuBar.add(adminMenu);
 
         JMenu viewMenu = new JMenu("View");
         JMenuItem displayMenuItem = new JMenuItem("Display All Students");
-        displayMenuItem.addActionListener(e -> refreshTable());
+        displayMenuItem.addActionListener(e -> { filterBar.clear(); tableModel.setQuery(null, null); refreshTable(); });
         viewMenu.add(displayMenuItem);
+        JMenuItem filterItem = new JMenuItem("Filter Students...");
+        filterItem.addActionListener(e -> showFilterDialog());
+        viewMenu.add(filterItem);
+
+        JMenu sortMenu = new JMenu("Sort By");
+        ButtonGroup sortGroup = new ButtonGroup();
+        for (Roster.SortKey key : Roster.SortKey.values()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(key.label, key == Roster.SortKey.NAME);
+            item.addActionListener(e -> sortTable(key));
+            sortGroup.add(item);
+            sortMenu.add(item);
+            sortItems.put(key, item);
+        }
+        viewMenu.add(sortMenu);
+
+        viewMenu.addSeparator();
+        JMenuItem rankRangeItem = new JMenuItem("Students by Rank...");
+        rankRangeItem.addActionListener(e -> showRankRangeDialog());
+        viewMenu.add(rankRangeItem);
+        JMenuItem rankOfItem = new JMenuItem("Rank of Student...");
+        rankOfItem.addActionListener(e -> showRankOfDialog());
+        viewMenu.add(rankOfItem);
+        JMenuItem statsItem = new JMenuItem("Class Statistics...");
+        statsItem.addActionListener(e -> showStatisticsDialog());
+        viewMenu.add(statsItem);
 
         JMenu searchMenu = new JMenu("Search");
         JMenuItem searchByRollItem = new JMenuItem("Search by Roll Number");
@@ -86,8 +158,21 @@ public class StudentGradeManagerGUI extends JFrame {
         searchMenu.add(searchByRollItem);
         searchMenu.add(searchByNameItem);
 
+        JMenu diagnosticsMenu = new JMenu("Diagnostics");
+        JMenuItem metricsItem = new JMenuItem("Metrics...");
+        metricsItem.addActionListener(e -> showMetricsDialog());
+        JMenuItem exportMetricsItem = new JMenuItem("Export Metrics...");
+        exportMetricsItem.addActionListener(e -> exportMetrics(this));
+        JMenuItem recordingItem = new JMenuItem("Start Flight Recording");
+        recordingItem.addActionListener(e -> toggleRecording(recordingItem));
+        diagnosticsMenu.add(metricsItem);
+        diagnosticsMenu.add(exportMetricsItem);
+        diagnosticsMenu.addSeparator();
+        diagnosticsMenu.add(recordingItem);
+
         menuBar.add(viewMenu);
         menuBar.add(searchMenu);
+        menuBar.add(diagnosticsMenu);
         setJMenuBar(menuBar);
 
         // Top panel with buttons
@@ -113,17 +198,24 @@ public class StudentGradeManagerGUI extends JFrame {
         add(topPanel, BorderLayout.NORTH);
 
         // Table Model & JTable
-        tableModel = new DefaultTableModel(new String[] {
-                "Roll Number", "Name", "Subjects & Marks", "Average", "Grade"
-        }, 0) {
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new StudentTableModel(roster);
 
         table = new JTable(tableModel);
+        // clicking a column header switches the sort order (no re-sort: each order is an index)
+        table.getTableHeader().addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent e) {
+                int col = table.convertColumnIndexToModel(table.columnAtPoint(e.getPoint()));
+                Roster.SortKey key = StudentTableModel.sortKeyForColumn(col);
+                if (key != null) sortItems.get(key).doClick();
+            }
+        });
         JScrollPane scrollPane = new JScrollPane(table);
-        add(scrollPane, BorderLayout.CENTER);
+        filterBar = new NameFilterBar(roster, tableModel);
+        JPanel centerPanel = new JPanel(new BorderLayout());
+        centerPanel.add(filterBar, BorderLayout.NORTH);
+        centerPanel.add(scrollPane, BorderLayout.CENTER);
+        add(centerPanel, BorderLayout.CENTER);
 
         // Button Actions
         addBtn.addActionListener(e -> showAddStudentDialog());
@@ -140,6 +232,160 @@ public class StudentGradeManagerGUI extends JFrame {
         refreshTable();
     }
 
+    // Recover the roster saved in the data directory (last snapshot + journal) and keep logging
+    // every change to it; compaction is checked periodically
+    private void openJournal() {
+        File dir = dataDir();
+        try {
+            journal = Journal.open(dir, roster);
+            subjectNames = markStore.subjectNames();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Could not open saved data in " + dir + ": " + ex.getMessage()
+                    + "\nChanges in this session will not be saved automatically.");
+            return;
+        }
+        new javax.swing.Timer(30_000, e -> checkJournal()).start();
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                try {
+                    journal.close();
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(StudentGradeManagerGUI.this, "Error saving changes: " + ex.getMessage());
+                }
+            }
+        });
+    }
+
+    private static File dataDir() {
+        return new File(System.getProperty("sgm.dataDir",
+                System.getProperty("user.home") + File.separator + ".student-grade-manager"));
+    }
+
+    // Class/term partitions live in the data directory's "partitions" folder (see PartitionStore)
+    private void openPartitions() {
+        try {
+            partitions = new PartitionStore(new File(dataDir(), "partitions"), PartitionStore.defaultBudget());
+        } catch (IOException ex) {
+            System.err.println("Class/term partitions unavailable: " + ex.getMessage());
+        }
+    }
+
+    private void checkJournal() {
+        IOException failure = journal.takeFailure();
+        if (failure != null) JOptionPane.showMessageDialog(this, "Error saving changes: " + failure.getMessage());
+        if (journal.needsCompaction() && !csvLoading) {
+            try {
+                journal.compact(roster.version());
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Error saving changes: " + ex.getMessage());
+            }
+        }
+    }
+
+    // EDT watchdog, roster gauges for Metrics, and the roster sample for flight recordings
+    private void startDiagnostics() {
+        EdtWatchdog.start();
+        Metrics.gauge("roster.students", roster::size);
+        Metrics.gauge("roster.subjects", markStore::subjectCount);
+        Metrics.gauge("roster.filterIndexBytes", roster.filters::bytes);
+        Thread jfr = new Thread(() -> GradeEvents.watch(roster), "jfr-setup");
+        jfr.setDaemon(true);
+        jfr.start();
+    }
+
+    // Live view of Metrics.report(), refreshed every second while open
+    private void showMetricsDialog() {
+        JDialog dialog = new JDialog(this, "Metrics", false);
+        dialog.setSize(720, 520);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout());
+
+        JTextArea area = new JTextArea(Metrics.report());
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        area.setEditable(false);
+        dialog.add(new JScrollPane(area), BorderLayout.CENTER);
+
+        JPanel bottom = new JPanel();
+        JButton exportBtn = new JButton("Export...");
+        exportBtn.addActionListener(e -> exportMetrics(dialog));
+        JButton closeBtn = new JButton("Close");
+        closeBtn.addActionListener(e -> dialog.dispose());
+        bottom.add(exportBtn);
+        bottom.add(closeBtn);
+        dialog.add(bottom, BorderLayout.SOUTH);
+
+        javax.swing.Timer ticker = new javax.swing.Timer(1000, e -> {
+            int caret = area.getCaretPosition();
+            area.setText(Metrics.report());
+            area.setCaretPosition(Math.min(caret, area.getDocument().getLength()));
+        });
+        dialog.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                ticker.stop();
+            }
+        });
+        ticker.start();
+        dialog.setVisible(true);
+    }
+
+    // Metrics as JSON, for attaching to a "the app froze" report
+    private void exportMetrics(Component parent) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("student-grade-manager-metrics.json"));
+        if (fileChooser.showSaveDialog(parent) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            Metrics.write(fileChooser.getSelectedFile());
+            JOptionPane.showMessageDialog(parent, "Metrics saved.");
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(parent, "Error saving metrics: " + ex.getMessage());
+        }
+    }
+
+    // Starts a flight recording with the JDK's default settings plus the GradeEvents; the second
+    // click stops it and saves the .jfr file
+    private void toggleRecording(JMenuItem item) {
+        if (recording == null) {
+            try {
+                recording = new jdk.jfr.Recording(jdk.jfr.Configuration.getConfiguration("default"));
+            } catch (IOException | java.text.ParseException ex) {
+                JOptionPane.showMessageDialog(this, "Could not start recording: " + ex.getMessage());
+                return;
+            }
+            recording.setName("Student Grade Manager");
+            recording.start();
+            item.setText("Stop Flight Recording...");
+            return;
+        }
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("student-grade-manager.jfr"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return; // keeps recording
+        try {
+            recording.stop();
+            recording.dump(fileChooser.getSelectedFile().toPath());
+            JOptionPane.showMessageDialog(this, "Recording saved. Open it in JDK Mission Control.");
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Error saving recording: " + ex.getMessage());
+        } finally {
+            recording.close();
+            recording = null;
+            item.setText("Start Flight Recording");
+        }
+    }
+
+    // Record a change in the journal (no-op without one)
+    private void log(java.util.function.Consumer<Journal> change) {
+        if (journal != null) change.accept(journal);
+    }
+
+    // Undo or redo one step of the history (Edit menu)
+    private void undoRedo(boolean undo) {
+        if (!(undo ? history.undo() : history.redo())) return;
+        subjectNames = markStore.subjectNames();
+        refreshTable();
+    }
+
     // Manage global subject list (add/remove). Maintains order.
     private void manageSubjectsDialog() {
         JDialog dialog = new JDialog(this, "Manage Subjects (Global)", true);
@@ -195,52 +441,161 @@ public class StudentGradeManagerGUI extends JFrame {
 
             listModel.remove(idx);
 
-            // Remove from all students
-            for (Student s : students) {
-                s.subjectMarks.remove(subjToRemove);
-            }
+            // Its marks go with its column on Done; added again before that, it starts Absent
+            markStore.removeSubject(subjToRemove);
         });
 
         doneBtn.addActionListener(e -> {
             List<String> newNames = new ArrayList<>();
             for (int i = 0; i < listModel.size(); i++) newNames.add(listModel.get(i));
             subjectNames = newNames;
+            List<String> replaced = new ArrayList<>(markStore.removedSubjects());
+            replaced.retainAll(newNames);
 
-            // Align each student's marks to new subject order and fill missing with Absent
-            for (Student s : students) {
-                Map<String, Integer> newMap = new LinkedHashMap<>();
-                for (String subj : subjectNames) {
-                    Integer val = s.subjectMarks.containsKey(subj) ? s.subjectMarks.get(subj) : -1;
-                    newMap.put(subj, val);
-                }
-                s.subjectMarks = newMap;
-                s.calculateAverageAndGrade(subjectNames.size());
-            }
+            // Re-map columns to the new subject order; new (and removed then re-added) subjects
+            // start Absent, and removed ones are detached: no student row is touched.
+            // Averages and grades catch up as students are read, not here.
+            roster.setSubjects(subjectNames);
+            roster.dropDetachedSubjects();
+            log(j -> j.subjects(newNames, replaced));
+            history.subjectsChanged(replaced);
 
             refreshTable();
             dialog.dispose();
         });
 
         dialog.setVisible(true);
+        markStore.cancelRemovals(); // closed without Done
+    }
+
+    // Grade bands and subject weights; every average and grade is recomputed on OK
+    private void gradeScaleDialog() {
+        GradeScale current = markStore.scale();
+        JTextField bandsField = new JTextField(current.bandsText(), 28);
+        JTextField weightsField = new JTextField(current.weightsText(), 28);
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        panel.add(new JLabel("Grades, best first (minimum average each; the last grade takes none):"));
+        panel.add(bandsField);
+        panel.add(new JLabel("Subject weights, e.g. Maths:2,Science:1.5 (others weigh 1):"));
+        panel.add(weightsField);
+
+        while (true) {
+            int ok = JOptionPane.showConfirmDialog(this, panel, "Grade Scale", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (ok != JOptionPane.OK_OPTION) return;
+            GradeScale scale;
+            try {
+                scale = GradeScale.parse(bandsField.getText(), weightsField.getText());
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage(), "Grade Scale", JOptionPane.ERROR_MESSAGE);
+                continue;
+            }
+            if (scale.equals(current)) return;
+            roster.setScale(scale);
+            log(j -> j.scale(scale));
+            history.scaleChanged();
+            refreshTable();
+            return;
+        }
+    }
+
+    // Start or stop the read-only results endpoint (ResultsServer) on this machine
+    private void resultsServerDialog() {
+        if (resultsServer != null) {
+            int c = JOptionPane.showConfirmDialog(this, "Results are served at http://localhost:" + resultsServer.port()
+                    + "/api/students/{roll}\nStop the server?", "Results Server", JOptionPane.YES_NO_OPTION);
+            if (c != JOptionPane.YES_OPTION) return;
+            resultsServer.close();
+            resultsServer = null;
+            return;
+        }
+        String in = JOptionPane.showInputDialog(this, "Serve results on port:", "8080");
+        if (in == null || in.trim().isEmpty()) return;
+        int port;
+        try {
+            port = Integer.parseInt(in.trim());
+            if (port < 0 || port > 65535) throw new NumberFormatException();
+        } catch (NumberFormatException ex) { JOptionPane.showMessageDialog(this, "Enter a port number from 0 to 65535."); return; }
+        try {
+            resultsServer = ResultsServer.onLoopback(roster, port);
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Could not start the results server: " + ex.getMessage());
+            return;
+        }
+        JOptionPane.showMessageDialog(this, "Serving results at http://localhost:" + resultsServer.port() + "/api/students/{roll}"
+                + "\nand /api/rankings?from=1&to=10 (read-only, this machine only).");
     }
 
-    // Always show subjects in global order. Sort students A->Z by name.
+    // Repaint everything; single edits use the row events below instead
     private void refreshTable() {
-        students.sort((s1, s2) -> s1.name.compareToIgnoreCase(s2.name));
-        tableModel.setRowCount(0);
-
-        for (Student s : students) {
-            StringBuilder subjMarks = new StringBuilder();
-            for (String subj : subjectNames) {
-                Integer val = s.subjectMarks.get(subj);
-                String value = (val == null || val == -1) ? "Absent" : String.valueOf(val);
-                subjMarks.append(subj).append(": ").append(value).append("; ");
+        GradeEvents.Refresh event = new GradeEvents.Refresh();
+        tableModel.refilter();
+        tableModel.fireTableDataChanged();
+        filterBar.refreshStatus();
+        event.rows = tableModel.getRowCount();
+        event.done();
+    }
+
+    // Show only the students matching a FilterQuery, answered from the roster's bitmap indexes
+    private void showFilterDialog() {
+        JPanel panel = new JPanel(new BorderLayout(0, 6));
+        panel.add(new JLabel("<html>Filter, e.g. <tt>grade in (D, F), Maths is absent, Science &lt; 40</tt><br>"
+                + "Conditions: <tt>grade = F</tt>, <tt>average &gt;= 75</tt>, <tt>Maths &lt; 40</tt>, <tt>Maths is absent</tt>;"
+                + " join with <tt>and</tt> (or a comma), <tt>or</tt>, <tt>not</tt> and parentheses.</html>"), BorderLayout.NORTH);
+        JTextField field = new JTextField((tableModel.getQuery() != null) ? tableModel.getQuery().text() : "", 40);
+        panel.add(field, BorderLayout.CENTER);
+        while (true) {
+            int ok = JOptionPane.showConfirmDialog(this, panel, "Filter Students", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (ok != JOptionPane.OK_OPTION) return;
+            if (field.getText().trim().isEmpty()) {
+                tableModel.setQuery(null, null);
+                filterBar.refreshStatus();
+                return;
+            }
+            try {
+                FilterQuery query = FilterQuery.parse(field.getText(), markStore);
+                tableModel.setQuery(query, roster.filter(query).students());
+                filterBar.refreshStatus();
+                return;
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage(), "Filter Students", JOptionPane.ERROR_MESSAGE);
             }
-            String subjMarksStr = subjMarks.length() > 2 ? subjMarks.substring(0, subjMarks.length() - 2) : subjMarks.toString();
-            tableModel.addRow(new Object[] { s.rollNumber, s.name, subjMarksStr, String.format("%.2f", s.average), s.grade });
         }
     }
 
+    // Switch the table to another order; building a dropped order is the slow case
+    private void sortTable(Roster.SortKey key) {
+        GradeEvents.Query event = new GradeEvents.Query("sort", key.label);
+        tableModel.setSortKey(key);
+        event.results = tableModel.getRowCount();
+        event.done();
+    }
+
+    private void addStudentRow(Student s) {
+        roster.add(s);
+        log(j -> j.put(s));
+        history.added(s);
+        int row = tableModel.admit(s);
+        if (row >= 0) tableModel.fireTableRowsInserted(row, row);
+        filterBar.refreshStatus();
+    }
+
+    // Apply a change to the student shown at row and move the row if its sort position changed
+    // (or drop it if the change takes it out of the name filter or the filter query)
+    private void updateStudentRow(int row, Student s, Runnable change) {
+        tableModel.withdraw(s);
+        roster.update(s, change);
+        log(j -> j.put(s));
+        history.edited(s);
+        int newRow = tableModel.admit(s);
+        if (newRow == row) {
+            tableModel.fireTableRowsUpdated(row, row);
+        } else {
+            tableModel.fireTableRowsDeleted(row, row);
+            if (newRow >= 0) tableModel.fireTableRowsInserted(newRow, newRow);
+        }
+        filterBar.refreshStatus();
+    }
+
     private void showAddStudentDialog() {
         JDialog dialog = new JDialog(this, "Add Student", true);
         dialog.setSize(520, 650);
@@ -278,27 +633,13 @@ public class StudentGradeManagerGUI extends JFrame {
             catch (NumberFormatException ex) { JOptionPane.showMessageDialog(dialog, "Invalid roll number."); return; }
             if (findStudentByRoll(roll) != null) { JOptionPane.showMessageDialog(dialog, "Roll number already exists."); return; }
 
-            Map<String, Integer> subjMarks = new LinkedHashMap<>();
-            for (int i = 0; i < subjectNames.size(); i++) {
-                String subj = subjectNames.get(i);
-                String markStr = markFields.get(i).getText().trim();
-                if (markStr.isEmpty()) subjMarks.put(subj, -1);
-                else {
-                    try {
-                        int m = Integer.parseInt(markStr);
-                        if (m < 0 || m > 100) { JOptionPane.showMessageDialog(dialog, "Mark must be 0-100 for " + subj); return; }
-                        subjMarks.put(subj, m);
-                    } catch (NumberFormatException ex) {
-                        subjMarks.put(subj, -1);
-                    }
-                }
-            }
+            int[] subjMarks = readMarkFields(dialog, markFields);
+            if (subjMarks == null) return;
 
-            Student student = new Student(name, roll);
-            student.subjectMarks = subjMarks;
-            student.calculateAverageAndGrade(subjectNames.size());
-            students.add(student);
-            refreshTable();
+            Student student = new Student(name, roll, markStore);
+            for (int i = 0; i < subjMarks.length; i++) student.setMark(i, subjMarks[i]);
+            student.calculateAverageAndGrade();
+            addStudentRow(student);
             JOptionPane.showMessageDialog(dialog, "Student added successfully!");
             dialog.dispose();
         });
@@ -309,7 +650,7 @@ public class StudentGradeManagerGUI extends JFrame {
     private void showUpdateStudentDialog() {
         int sel = table.getSelectedRow();
         if (sel == -1) { JOptionPane.showMessageDialog(this, "Please select a student to update."); return; }
-        Student s = students.get(sel);
+        Student s = tableModel.studentAt(sel);
 
         JDialog dialog = new JDialog(this, "Update Student", true);
         dialog.setSize(520, 650);
@@ -322,10 +663,10 @@ public class StudentGradeManagerGUI extends JFrame {
         panel.add(nameField);
 
         List<JTextField> markFields = new ArrayList<>();
-        for (String subj : subjectNames) {
-            panel.add(new JLabel(subj + ":"));
-            Integer val = s.subjectMarks.get(subj);
-            JTextField f = new JTextField((val == null || val == -1) ? "" : String.valueOf(val));
+        for (int i = 0; i < subjectNames.size(); i++) {
+            panel.add(new JLabel(subjectNames.get(i) + ":"));
+            int val = s.getMark(i);
+            JTextField f = new JTextField((val == -1) ? "" : String.valueOf(val));
             markFields.add(f);
             panel.add(f);
         }
@@ -337,27 +678,14 @@ public class StudentGradeManagerGUI extends JFrame {
         saveBtn.addActionListener(ev -> {
             String newName = nameField.getText().trim();
             if (newName.isEmpty()) { JOptionPane.showMessageDialog(dialog, "Name cannot be empty."); return; }
-            s.name = newName;
-
-            Map<String, Integer> newMarks = new LinkedHashMap<>();
-            for (int i = 0; i < subjectNames.size(); i++) {
-                String subj = subjectNames.get(i);
-                String markStr = markFields.get(i).getText().trim();
-                if (markStr.isEmpty()) newMarks.put(subj, -1);
-                else {
-                    try {
-                        int m = Integer.parseInt(markStr);
-                        if (m < 0 || m > 100) { JOptionPane.showMessageDialog(dialog, "Mark must be 0-100 for " + subj); return; }
-                        newMarks.put(subj, m);
-                    } catch (NumberFormatException ex) {
-                        newMarks.put(subj, -1);
-                    }
-                }
-            }
-
-            s.subjectMarks = newMarks;
-            s.calculateAverageAndGrade(subjectNames.size());
-            refreshTable();
+            int[] newMarks = readMarkFields(dialog, markFields);
+            if (newMarks == null) return;
+
+            updateStudentRow(sel, s, () -> {
+                s.name = newName;
+                for (int i = 0; i < newMarks.length; i++) s.setMark(i, newMarks[i]);
+                s.calculateAverageAndGrade();
+            });
             JOptionPane.showMessageDialog(dialog, "Student updated successfully.");
             dialog.dispose();
         });
@@ -365,14 +693,37 @@ public class StudentGradeManagerGUI extends JFrame {
         dialog.setVisible(true);
     }
 
+    // Marks typed into the dialog, in subjectNames order (-1 = Absent); null if a mark is out of range
+    private int[] readMarkFields(Component parent, List<JTextField> markFields) {
+        int[] out = new int[subjectNames.size()];
+        for (int i = 0; i < out.length; i++) {
+            String markStr = markFields.get(i).getText().trim();
+            if (markStr.isEmpty()) out[i] = -1;
+            else {
+                try {
+                    int m = Integer.parseInt(markStr);
+                    if (m < 0 || m > 100) { JOptionPane.showMessageDialog(parent, "Mark must be 0-100 for " + subjectNames.get(i)); return null; }
+                    out[i] = m;
+                } catch (NumberFormatException ex) {
+                    out[i] = -1;
+                }
+            }
+        }
+        return out;
+    }
+
     private void deleteSelectedStudent() {
         int sel = table.getSelectedRow();
         if (sel == -1) { JOptionPane.showMessageDialog(this, "Select a student to delete."); return; }
-        Student s = students.get(sel);
+        Student s = tableModel.studentAt(sel);
         int c = JOptionPane.showConfirmDialog(this, "Delete " + s.name + "?", "Confirm", JOptionPane.YES_NO_OPTION);
         if (c == JOptionPane.YES_OPTION) {
-            students.remove(sel);
-            refreshTable();
+            tableModel.withdraw(s);
+            roster.remove(s);
+            log(j -> j.delete(s.rollNumber));
+            history.deleted(s); // keeps the row while the delete can be undone
+            tableModel.fireTableRowsDeleted(sel, sel);
+            filterBar.refreshStatus();
         }
     }
 
@@ -386,25 +737,309 @@ public class StudentGradeManagerGUI extends JFrame {
             if (c != JOptionPane.YES_OPTION) return;
         }
 
-        try (PrintWriter pw = new PrintWriter(new FileWriter(file))) {
-            pw.println("#SUBJECTNAMES=" + String.join(";;", subjectNames));
-            for (Student s : students) {
-                StringBuilder sb = new StringBuilder();
-                String safeName = s.name.contains(",") ? "\"" + s.name + "\"" : s.name;
-                sb.append(safeName).append(",").append(s.rollNumber);
-                for (String subj : subjectNames) {
-                    Integer val = s.subjectMarks.get(subj);
-                    String markStr = (val == null || val == -1) ? "Absent" : String.valueOf(val);
-                    sb.append(",").append(subj).append(":").append(markStr);
-                }
-                pw.println(sb.toString());
+        // the version is taken here, on the EDT (O(1)), so the file is the roster as of this
+        // moment even if it is edited while the export runs
+        CsvExport export = new CsvExport(roster.version(), file);
+        JDialog progress = new JDialog(this, "Saving " + file.getName(), false);
+
+        Thread worker = new Thread(() -> {
+            boolean completed = false;
+            IOException error = null;
+            try {
+                completed = export.run();
+            } catch (IOException ex) {
+                error = ex;
             }
+            boolean ok = completed;
+            IOException err = error;
+            SwingUtilities.invokeLater(() -> {
+                progress.dispose();
+                if (err != null) JOptionPane.showMessageDialog(this, "Error saving: " + err.getMessage());
+                else if (!ok) JOptionPane.showMessageDialog(this, "Save cancelled. The file was not changed.");
+                else JOptionPane.showMessageDialog(this, "Saved successfully.");
+            });
+        }, "csv-export");
+        worker.setDaemon(true);
+
+        showProgress(progress, "rows written", export.rows(), () -> export.rowsWritten, export::cancel, export::isCancelled, worker);
+    }
+
+    // Non-modal progress window for a background export (done() of total items, named by what);
+    // the table stays usable meanwhile
+    private void showProgress(JDialog dialog, String what, int total, java.util.function.IntSupplier done,
+                              Runnable cancelJob, java.util.function.BooleanSupplier cancelled, Thread worker) {
+        dialog.setSize(420, 140);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout());
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+
+        JProgressBar bar = new JProgressBar(0, 1000);
+        bar.setStringPainted(true);
+        JLabel rateLabel = new JLabel("Starting...");
+        JPanel center = new JPanel(new GridLayout(0, 1, 6, 6));
+        center.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        center.add(bar);
+        center.add(rateLabel);
+        dialog.add(center, BorderLayout.CENTER);
+
+        JButton cancelBtn = new JButton("Cancel");
+        JPanel bottom = new JPanel();
+        bottom.add(cancelBtn);
+        dialog.add(bottom, BorderLayout.SOUTH);
+
+        Runnable cancel = () -> {
+            cancelJob.run();
+            cancelBtn.setEnabled(false);
+            rateLabel.setText("Cancelling...");
+        };
+        cancelBtn.addActionListener(e -> cancel.run());
+        dialog.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                cancel.run();
+            }
+        });
+
+        long started = System.nanoTime();
+        javax.swing.Timer ticker = new javax.swing.Timer(250, e -> {
+            int n = done.getAsInt();
+            bar.setValue((int) Math.min(1000, n * 1000L / Math.max(1, total)));
+            double secs = Math.max(1e-3, (System.nanoTime() - started) / 1e9);
+            if (!cancelled.getAsBoolean()) rateLabel.setText(String.format("%,d of %,d %s (%,.0f/sec)", n, total, what, n / secs));
+        });
+        dialog.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                ticker.stop();
+            }
+        });
+        ticker.start();
+        worker.start();
+        dialog.setVisible(true);
+    }
+
+    // One report card per student (ReportCards) into a folder, or a zip if the name ends in .zip,
+    // generated in the background from the roster's version as of now
+    private void generateReportCards() {
+        if (roster.isEmpty()) { JOptionPane.showMessageDialog(this, "No students available."); return; }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Report Cards: choose a folder, or type a name ending in .zip");
+        chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File target = chooser.getSelectedFile();
+
+        String[] formats = {"HTML", "Text"};
+        int f = JOptionPane.showOptionDialog(this, "Card format:", "Report Cards", JOptionPane.DEFAULT_OPTION,
+                JOptionPane.QUESTION_MESSAGE, null, formats, formats[0]);
+        if (f < 0) return;
+        ReportCards cards = new ReportCards(roster.version(), target, (f == 0) ? ReportCards.Format.HTML : ReportCards.Format.TEXT);
+        if (currentPartition != null) cards.setTitle(currentPartition);
+        if (cards.hasEarlierRun()) {
+            String[] modes = {"Resume", "Start Over"};
+            int m = JOptionPane.showOptionDialog(this, "Report cards from an earlier run are already there.", "Report Cards",
+                    JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, modes, modes[0]);
+            if (m < 0) return;
+            cards.setResume(m == 0);
+        }
+        JDialog progress = new JDialog(this, "Report Cards", false);
+
+        Thread worker = new Thread(() -> {
+            boolean completed = false;
+            IOException error = null;
+            try {
+                completed = cards.run();
+            } catch (IOException ex) {
+                error = ex;
+            }
+            boolean ok = completed;
+            IOException err = error;
+            SwingUtilities.invokeLater(() -> {
+                progress.dispose();
+                if (err != null) JOptionPane.showMessageDialog(this, "Error writing report cards: " + err.getMessage());
+                else if (!ok) JOptionPane.showMessageDialog(this, "Report cards cancelled after " + cards.written()
+                        + ". Choose the same target again and Resume to finish.");
+                else JOptionPane.showMessageDialog(this, cards.written() + " report cards written to " + target
+                        + (cards.skipped() > 0 ? " (" + cards.skipped() + " kept from the earlier run)." : "."));
+            });
+        }, "report-cards");
+        worker.setDaemon(true);
+
+        showProgress(progress, "report cards", cards.total(), () -> cards.written() + cards.skipped(), cards::cancel, cards::isCancelled, worker);
+    }
+
+    // Binary snapshot (see RosterSnapshot): same content as a CSV save, much faster to save and load
+    private void saveSnapshot() {
+        JFileChooser fileChooser = new JFileChooser();
+        int option = fileChooser.showSaveDialog(this);
+        if (option != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+        if (file.exists()) {
+            int c = JOptionPane.showConfirmDialog(this, "Overwrite file?", "Confirm", JOptionPane.YES_NO_OPTION);
+            if (c != JOptionPane.YES_OPTION) return;
+        }
+        try {
+            RosterSnapshot.write(file, roster);
             JOptionPane.showMessageDialog(this, "Saved successfully.");
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "Error saving: " + e.getMessage());
         }
     }
 
+    // Replaces the roster with a snapshot; the file is read and verified off the EDT
+    private void openSnapshot() {
+        JFileChooser fileChooser = new JFileChooser();
+        int option = fileChooser.showOpenDialog(this);
+        if (option != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+        if (!file.exists()) { JOptionPane.showMessageDialog(this, "File not found."); return; }
+        if (!roster.isEmpty()) {
+            int c = JOptionPane.showConfirmDialog(this, "Replace the current students with the snapshot?", "Confirm", JOptionPane.YES_NO_OPTION);
+            if (c != JOptionPane.YES_OPTION) return;
+        }
+
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        Thread worker = new Thread(() -> {
+            RosterSnapshot.Data data = null;
+            IOException error = null;
+            try {
+                data = RosterSnapshot.read(file);
+            } catch (IOException ex) {
+                error = ex;
+            }
+            RosterSnapshot.Data loaded = data;
+            IOException err = error;
+            SwingUtilities.invokeLater(() -> {
+                setCursor(Cursor.getDefaultCursor());
+                if (err != null) { JOptionPane.showMessageDialog(this, "Error reading file: " + err.getMessage()); return; }
+                replaceRoster(loaded);
+                JOptionPane.showMessageDialog(this, "Loaded " + loaded.size() + " students.");
+            });
+        }, "snapshot-load");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // ---- class/term partitions ----
+
+    // Replaces the roster with a saved class/term; asks first to save changes to the current one
+    private void openPartition() {
+        if (partitions == null) { JOptionPane.showMessageDialog(this, "Class/term partitions are unavailable."); return; }
+        List<String> names = partitions.names();
+        if (names.isEmpty()) { JOptionPane.showMessageDialog(this, "No classes saved yet. Use Save as Class/Term first."); return; }
+        Object choice = JOptionPane.showInputDialog(this, "Class/term:", "Open Class/Term", JOptionPane.QUESTION_MESSAGE,
+                null, names.toArray(), (currentPartition != null) ? currentPartition : names.get(0));
+        if (choice == null) return;
+        String name = (String) choice;
+        if (currentPartition != null && partitions.isDirty(currentPartition)) {
+            int c = JOptionPane.showConfirmDialog(this, "Save changes to " + currentPartition + " first?", "Confirm",
+                    JOptionPane.YES_NO_CANCEL_OPTION);
+            if (c == JOptionPane.CANCEL_OPTION || c == JOptionPane.CLOSED_OPTION) return;
+            if (c == JOptionPane.YES_OPTION && !writePartition(currentPartition)) return;
+        } else if (currentPartition == null && !roster.isEmpty()) {
+            int c = JOptionPane.showConfirmDialog(this, "Replace the current students with " + name + "?", "Confirm", JOptionPane.YES_NO_OPTION);
+            if (c != JOptionPane.YES_OPTION) return;
+        }
+
+        File file = partitions.file(name);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        Thread worker = new Thread(() -> {
+            RosterSnapshot.Data data = null;
+            IOException error = null;
+            try {
+                data = RosterSnapshot.read(file);
+            } catch (IOException ex) {
+                error = ex;
+            }
+            RosterSnapshot.Data loaded = data;
+            IOException err = error;
+            SwingUtilities.invokeLater(() -> {
+                setCursor(Cursor.getDefaultCursor());
+                if (err != null) { JOptionPane.showMessageDialog(this, "Error reading " + name + ": " + err.getMessage()); return; }
+                replaceRoster(loaded);
+                setPartition(name, true);
+            });
+        }, "partition-load");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Writes the roster as a class/term partition, which then becomes the current one
+    private void savePartition() {
+        if (partitions == null) { JOptionPane.showMessageDialog(this, "Class/term partitions are unavailable."); return; }
+        String name = JOptionPane.showInputDialog(this, "Class/term (e.g. 10A/2025-T1):", (currentPartition != null) ? currentPartition : "");
+        if (name == null) return;
+        name = name.trim();
+        if (name.isEmpty()) { JOptionPane.showMessageDialog(this, "Enter a class/term name."); return; }
+        if (!name.equals(currentPartition) && partitions.exists(name)) {
+            int c = JOptionPane.showConfirmDialog(this, name + " already exists. Replace it?", "Confirm", JOptionPane.YES_NO_OPTION);
+            if (c != JOptionPane.YES_OPTION) return;
+        }
+        if (writePartition(name)) JOptionPane.showMessageDialog(this, "Saved " + roster.size() + " students as " + name + ".");
+    }
+
+    private boolean writePartition(String name) {
+        try {
+            partitions.put(name, RosterSnapshot.capture(roster));
+        } catch (IOException | IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, "Error saving " + name + ": " + ex.getMessage());
+            return false;
+        }
+        setPartition(name, true);
+        return true;
+    }
+
+    private void setPartition(String name, boolean saved) {
+        if (currentPartition != null) partitions.detach(currentPartition);
+        currentPartition = name;
+        try {
+            partitions.attach(name, roster, saved);
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Error saving classes to make room: " + ex.getMessage());
+        }
+        setTitle("Student Grade Manager - " + name);
+    }
+
+    // Best 10 over every saved class/term (the current roster as it is now), ranked off the EDT
+    private void showSchoolTop() {
+        if (partitions == null) { JOptionPane.showMessageDialog(this, "Class/term partitions are unavailable."); return; }
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        Thread worker = new Thread(() -> {
+            String text;
+            try {
+                List<PartitionStore.Ranked> best = partitions.top(10);
+                text = best.isEmpty() ? "No classes saved yet." : "School Top 10 Students:\n" + RosterReports.schoolRanked(best);
+            } catch (IOException ex) {
+                text = "Error reading classes: " + ex.getMessage();
+            }
+            String message = text;
+            SwingUtilities.invokeLater(() -> {
+                setCursor(Cursor.getDefaultCursor());
+                JOptionPane.showMessageDialog(this, message);
+            });
+        }, "school-top");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Replaces the roster's contents; it no longer belongs to the class/term it was opened from
+    private void replaceRoster(RosterSnapshot.Data data) {
+        if (currentPartition != null) {
+            partitions.detach(currentPartition);
+            currentPartition = null;
+            setTitle("Student Grade Manager");
+        }
+        RosterSnapshot.restore(roster, data);
+        subjectNames = markStore.subjectNames();
+        log(j -> {
+            j.clear();
+            j.subjects(subjectNames);
+            j.scale(markStore.scale());
+            for (Student s : roster) j.put(s);
+        });
+        history.reset();
+        refreshTable();
+    }
+
     private void loadFromCSV() {
         JFileChooser fileChooser = new JFileChooser();
         int option = fileChooser.showOpenDialog(this);
@@ -416,122 +1051,286 @@ public class StudentGradeManagerGUI extends JFrame {
         int choice = JOptionPane.showOptionDialog(this, "Load mode:", "Load", JOptionPane.DEFAULT_OPTION,
                 JOptionPane.QUESTION_MESSAGE, null, modes, modes[0]);
         boolean overwrite = choice == 1;
-        if (overwrite) students.clear();
-
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            // Read possible header
-            br.mark(8192);
-            String first = br.readLine();
-            if (first != null && first.startsWith("#SUBJECTNAMES=")) {
-                String namesStr = first.substring("#SUBJECTNAMES=".length());
-                String[] arr = namesStr.split(";;", -1);
-                List<String> newNames = new ArrayList<>();
-                for (String nm : arr) if (!nm.trim().isEmpty()) newNames.add(nm);
-                if (!newNames.isEmpty()) subjectNames = newNames;
-            } else {
-                br.reset();
-            }
 
-            int loaded = 0, skipped = 0, dup = 0;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] parts = splitCSVLine(line);
-                if (parts.length < 2) { skipped++; continue; }
-
-                String name = parts[0].trim();
-                if (name.startsWith("\"") && name.endsWith("\"")) name = name.substring(1, name.length()-1);
-                if (name.isEmpty()) { skipped++; continue; }
-
-                int roll;
-                try { roll = Integer.parseInt(parts[1].trim()); }
-                catch (NumberFormatException ex) { skipped++; continue; }
-
-                if (findStudentByRoll(roll) != null) { dup++; continue; }
-
-                Student s = new Student(name, roll);
-                boolean ok = true;
-                for (int i = 2; i < parts.length; i++) {
-                    String[] sm = parts[i].split(":", 2);
-                    if (sm.length != 2) { ok = false; break; }
-                    String subj = sm[0].trim();
-                    String markPart = sm[1].trim();
-                    if (subj.isEmpty()) { ok = false; break; }
-                    if (markPart.equalsIgnoreCase("Absent")) s.subjectMarks.put(subj, -1);
-                    else {
-                        try {
-                            int m = Integer.parseInt(markPart);
-                            if (m < 0 || m > 100) { ok = false; break; }
-                            s.subjectMarks.put(subj, m);
-                        } catch (NumberFormatException ex) { ok = false; break; }
-                    }
-                }
-                if (!ok) { skipped++; continue; }
+        CsvImport imp = new CsvImport(file, subjectNames);
+        CsvLoad load = new CsvLoad(overwrite);
+        JDialog progress = new JDialog(this, "Loading " + file.getName(), true);
 
-                // Align student marks to global subject order and fill missing with Absent
-                Map<String, Integer> aligned = new LinkedHashMap<>();
-                for (String subj : subjectNames) {
-                    aligned.put(subj, s.subjectMarks.containsKey(subj) ? s.subjectMarks.get(subj) : -1);
+        GradeEvents.Import event = new GradeEvents.Import(file.getPath());
+        Thread worker = new Thread(() -> {
+            boolean completed = false;
+            Exception error = null;
+            try {
+                completed = imp.run(load);
+            } catch (Exception ex) {
+                error = ex;
+            }
+            boolean ok = completed;
+            Throwable err = (error instanceof java.lang.reflect.InvocationTargetException) ? error.getCause() : error;
+            SwingUtilities.invokeLater(() -> {
+                progress.dispose();
+                if (ok) {
+                    load.commit();
+                    history.reset();
+                } else {
+                    load.rollback();
+                    history.rolledBack();
                 }
-                s.subjectMarks = aligned;
+                refreshTable();
+                int skipped = imp.skipped + load.skipped;
+                event.completed = ok && err == null;
+                event.rows = ok ? load.loaded : 0;
+                event.skipped = skipped;
+                event.duplicates = load.dup;
+                event.bytes = imp.bytesRead;
+                event.done();
+                if (err != null) JOptionPane.showMessageDialog(this, "Error reading file: " + err.getMessage());
+                else if (!ok) JOptionPane.showMessageDialog(this, "Load cancelled. No students were changed.");
+                else JOptionPane.showMessageDialog(this, "Load complete: " + load.loaded + " loaded, " + skipped + " skipped, " + load.dup + " duplicates.");
+            });
+        }, "csv-import");
+        worker.setDaemon(true);
+
+        showImportProgress(progress, imp, load, worker);
+    }
+
+    // Apply a delta CSV of mark changes (MarkDelta), e.g. one exam's results: the file is read off
+    // the EDT, then every changed student is updated in one roster change, journaled, and shown
+    // with one table refresh
+    private void applyMarkDelta() {
+        JFileChooser fileChooser = new JFileChooser();
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = fileChooser.getSelectedFile();
+        if (!file.exists()) { JOptionPane.showMessageDialog(this, "File not found."); return; }
 
-                s.calculateAverageAndGrade(subjectNames.size());
-                students.add(s);
-                loaded++;
+        GradeEvents.Delta event = new GradeEvents.Delta(file.getPath());
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        Thread worker = new Thread(() -> {
+            MarkDelta read = null;
+            IOException error = null;
+            try {
+                read = MarkDelta.read(file);
+            } catch (IOException ex) {
+                error = ex;
             }
+            MarkDelta delta = read;
+            IOException err = error;
+            SwingUtilities.invokeLater(() -> {
+                setCursor(null);
+                if (err != null) { JOptionPane.showMessageDialog(this, "Error reading file: " + err.getMessage()); return; }
+                List<Student> changed = delta.apply(roster);
+                log(j -> { for (Student s : changed) j.put(s); });
+                history.marksChanged(changed);
+                refreshTable();
+                MarkDelta.Report report = delta.report();
+                event.done(report);
+                JTextArea text = new JTextArea(report.text(), Math.min(20, report.text().split("\n").length + 1), 60);
+                text.setEditable(false);
+                JOptionPane.showMessageDialog(this, new JScrollPane(text), "Mark Changes from " + file.getName(),
+                        (report.problems() > 0) ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+            });
+        }, "mark-delta");
+        worker.setDaemon(true);
+        worker.start();
+    }
 
-            refreshTable();
-            JOptionPane.showMessageDialog(this, "Load complete: " + loaded + " loaded, " + skipped + " skipped, " + dup + " duplicates.");
+    // Modal progress window for a running import; returns once the import has finished
+    private void showImportProgress(JDialog dialog, CsvImport imp, CsvLoad load, Thread worker) {
+        dialog.setSize(420, 170);
+        dialog.setLocationRelativeTo(this);
+        dialog.setLayout(new BorderLayout());
+        dialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+
+        JProgressBar bar = new JProgressBar(0, 1000);
+        bar.setStringPainted(true);
+        JLabel rateLabel = new JLabel("Starting...");
+        JLabel countLabel = new JLabel(" ");
+        JPanel center = new JPanel(new GridLayout(0, 1, 6, 6));
+        center.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
+        center.add(bar);
+        center.add(rateLabel);
+        center.add(countLabel);
+        dialog.add(center, BorderLayout.CENTER);
+
+        JButton cancelBtn = new JButton("Cancel");
+        JPanel bottom = new JPanel();
+        bottom.add(cancelBtn);
+        dialog.add(bottom, BorderLayout.SOUTH);
 
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error reading file: " + e.getMessage());
-        }
-    }
-
-    // split CSV but keep quoted names intact
-    private String[] splitCSVLine(String line) {
-        List<String> parts = new ArrayList<>();
-        StringBuilder cur = new StringBuilder();
-        boolean inQuotes = false;
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (c == '"') {
-                inQuotes = !inQuotes;
-                cur.append(c);
-            } else if (c == ',' && !inQuotes) {
-                parts.add(cur.toString());
-                cur.setLength(0);
-            } else {
-                cur.append(c);
+        Runnable cancel = () -> {
+            imp.cancel();
+            cancelBtn.setEnabled(false);
+            rateLabel.setText("Cancelling...");
+        };
+        cancelBtn.addActionListener(e -> cancel.run());
+        dialog.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                cancel.run();
+            }
+        });
+
+        long started = System.nanoTime();
+        long length = Math.max(1, imp.length());
+        javax.swing.Timer ticker = new javax.swing.Timer(250, e -> {
+            bar.setValue((int) Math.min(1000, imp.bytesRead * 1000 / length));
+            double secs = Math.max(1e-3, (System.nanoTime() - started) / 1e9);
+            if (!imp.isCancelled()) rateLabel.setText(String.format("%,d rows read (%,.0f rows/sec)", imp.rowsRead, imp.rowsRead / secs));
+            countLabel.setText(String.format("Loaded: %,d   Skipped: %,d   Duplicates: %,d", load.loaded, imp.skipped + load.skipped, load.dup));
+        });
+        ticker.start();
+        worker.start();
+        dialog.setVisible(true);
+        ticker.stop();
+    }
+
+    // Applies imported batches to the roster on the EDT and can undo them if the load is cancelled.
+    // Overwrite mode keeps the previous roster (and its mark rows) until commit.
+    private class CsvLoad implements CsvImport.Sink {
+        private final boolean overwrite;
+        private List<Student> previous;
+        private List<String> previousSubjects;
+        private final List<Student> added = new ArrayList<>();
+        private boolean subjectsChanged;
+        int loaded, skipped, dup;
+
+        CsvLoad(boolean overwrite) {
+            this.overwrite = overwrite;
+        }
+
+        @Override
+        public void subjects(List<String> names) throws Exception {
+            SwingUtilities.invokeAndWait(() -> {
+                csvLoading = true;
+                previousSubjects = subjectNames;
+                if (overwrite) {
+                    previous = roster.toList();
+                    roster.clear();
+                }
+                if (!names.equals(subjectNames)) {
+                    subjectNames = new ArrayList<>(names);
+                    roster.setSubjects(subjectNames);
+                    subjectsChanged = true;
+                }
+                refreshTable();
+            });
+        }
+
+        @Override
+        public void batch(CsvImport.RowBatch b) throws Exception {
+            // invokeAndWait keeps the parser from running ahead of the EDT
+            SwingUtilities.invokeAndWait(() -> {
+                int before = loaded;
+                for (int i = 0; i < b.size; i++) {
+                    int roll = b.rolls[i];
+                    if (findStudentByRoll(roll) != null) { dup++; continue; }
+                    if (!b.valid[i]) { skipped++; continue; }
+                    Student s = new Student(b.names[i], roll, markStore);
+                    for (int j = 0; j < b.width; j++) s.setMark(j, b.mark(i, j));
+                    s.calculateAverageAndGrade();
+                    roster.add(s);
+                    tableModel.admit(s);
+                    added.add(s);
+                    loaded++;
+                }
+                // rows land all over the sort order, so one coarse event per batch
+                if (loaded > before) {
+                    tableModel.fireTableDataChanged();
+                    filterBar.refreshStatus();
+                }
+            });
+        }
+
+        void commit() {
+            csvLoading = false;
+            if (previous != null) for (Student s : previous) s.release();
+            roster.dropDetachedSubjects();
+            log(j -> {
+                if (previous != null) j.clear();
+                if (subjectsChanged) j.subjects(subjectNames);
+                for (Student s : added) j.put(s);
+            });
+        }
+
+        void rollback() {
+            csvLoading = false;
+            for (Student s : added) { roster.remove(s); s.release(); }
+            if (previousSubjects != null) {
+                subjectNames = previousSubjects;
+                roster.setSubjects(subjectNames);
+                roster.dropDetachedSubjects();
             }
+            if (previous != null) roster.addAll(previous);
         }
-        parts.add(cur.toString());
-        return parts.toArray(new String[0]);
     }
 
     private void showTop3Students() {
-        if (students.isEmpty()) { JOptionPane.showMessageDialog(this, "No students available."); return; }
-        List<Student> copy = new ArrayList<>(students);
-        copy.sort((a,b) -> Float.compare(b.average, a.average));
-        StringBuilder sb = new StringBuilder("Top 3 Students:\n");
-        for (int i = 0; i < Math.min(3, copy.size()); i++) {
-            Student s = copy.get(i);
-            sb.append(String.format("%d. %s (Roll: %d) - Average: %.2f, Grade: %c\n", i+1, s.name, s.rollNumber, s.average, s.grade));
-        }
-        JOptionPane.showMessageDialog(this, sb.toString());
+        if (roster.isEmpty()) { JOptionPane.showMessageDialog(this, "No students available."); return; }
+        GradeEvents.Query event = new GradeEvents.Query("top", "3");
+        List<Student> top = roster.top(3);
+        event.results = top.size();
+        event.done();
+        JOptionPane.showMessageDialog(this, "Top 3 Students:\n" + RosterReports.ranked(top, 1));
+    }
+
+    // Ranking positions from-to, e.g. "100-150" (a single number shows the top N)
+    private void showRankRangeDialog() {
+        if (roster.isEmpty()) { JOptionPane.showMessageDialog(this, "No students available."); return; }
+        String in = JOptionPane.showInputDialog(this, "Show students ranked (e.g. 1-10 or 100-150):", "1-10");
+        if (in == null || in.trim().isEmpty()) return;
+        int from, to;
+        try {
+            String[] parts = in.split("-", 2);
+            if (parts.length == 1) { from = 1; to = Integer.parseInt(parts[0].trim()); }
+            else { from = Integer.parseInt(parts[0].trim()); to = Integer.parseInt(parts[1].trim()); }
+        } catch (NumberFormatException ex) { JOptionPane.showMessageDialog(this, "Enter a rank or a range like 100-150."); return; }
+        if (from < 1 || to < from) { JOptionPane.showMessageDialog(this, "Enter a rank or a range like 100-150."); return; }
+        GradeEvents.Query event = new GradeEvents.Query("rankRange", from + "-" + to);
+        List<Student> range = roster.rankRange(from, to);
+        event.results = range.size();
+        event.done();
+        if (range.isEmpty()) { JOptionPane.showMessageDialog(this, "Only " + roster.size() + " students are ranked."); return; }
+        JTextArea area = new JTextArea(RosterReports.ranked(range, from), Math.min(range.size(), 20), 50);
+        area.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(area),
+                "Students Ranked " + from + "-" + (from + range.size() - 1) + " of " + roster.size(), JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private void showRankOfDialog() {
+        String in = JOptionPane.showInputDialog(this, "Enter Roll Number:");
+        if (in == null || in.trim().isEmpty()) return;
+        try {
+            int roll = Integer.parseInt(in.trim());
+            Student s = findStudentByRoll(roll);
+            if (s == null) { JOptionPane.showMessageDialog(this, "No student found with roll " + roll); return; }
+            GradeEvents.Query event = new GradeEvents.Query("rankOf", Integer.toString(roll));
+            int rank = roster.rankOf(s);
+            double percentile = roster.percentileOf(s);
+            event.results = 1;
+            event.done();
+            JOptionPane.showMessageDialog(this, String.format("%s (Roll: %d)\nAverage: %.2f, Grade: %c\nRank: %d of %d\nPercentile: %.1f",
+                    s.name, s.rollNumber, roster.average(s), roster.grade(s), rank, roster.size(), percentile));
+        } catch (NumberFormatException ex) { JOptionPane.showMessageDialog(this, "Invalid roll number."); }
     }
 
     private void showFailedStudents() {
-        StringBuilder sb = new StringBuilder("Failed Students (Grade F):\n");
-        boolean found = false;
-        for (Student s : students) {
-            if (s.grade == 'F') {
-                sb.append(String.format("%s (Roll: %d) - Average: %.2f\n", s.name, s.rollNumber, s.average));
-                found = true;
-            }
-        }
-        if (!found) sb.append("None");
-        JOptionPane.showMessageDialog(this, sb.toString());
+        GradeEvents.Query event = new GradeEvents.Query("failed", null);
+        String report = RosterReports.failed(roster.gradedStats());
+        event.results = roster.failed().size();
+        event.done();
+        JOptionPane.showMessageDialog(this, report);
+    }
+
+    // Grade distribution and per-subject statistics, read from the live aggregates
+    private void showStatisticsDialog() {
+        GradeEvents.Query event = new GradeEvents.Query("statistics", null);
+        String report = RosterReports.statistics(roster.gradedStats(), subjectNames);
+        event.results = roster.stats.students();
+        event.done();
+        JTextArea area = new JTextArea(report);
+        area.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        area.setEditable(false);
+        JOptionPane.showMessageDialog(this, new JScrollPane(area), "Class Statistics", JOptionPane.PLAIN_MESSAGE);
     }
 
     private void searchByRollDialog() {
@@ -539,7 +1338,10 @@ public class StudentGradeManagerGUI extends JFrame {
         if (in == null || in.trim().isEmpty()) return;
         try {
             int roll = Integer.parseInt(in.trim());
+            GradeEvents.Query event = new GradeEvents.Query("roll", Integer.toString(roll));
             Student s = findStudentByRoll(roll);
+            event.results = (s == null) ? 0 : 1;
+            event.done();
             if (s == null) { JOptionPane.showMessageDialog(this, "No student found with roll " + roll); return; }
             showStudentInfoDialog(s);
         } catch (NumberFormatException ex) { JOptionPane.showMessageDialog(this, "Invalid roll number."); }
@@ -548,17 +1350,11 @@ public class StudentGradeManagerGUI extends JFrame {
     private void searchByNameDialog() {
         String name = JOptionPane.showInputDialog(this, "Enter Name or part of Name to search:");
         if (name == null || name.trim().isEmpty()) return;
-        String low = name.toLowerCase();
-        StringBuilder sb = new StringBuilder("Search Results:\n");
-        boolean any = false;
-        for (Student s : students) {
-            if (s.name.toLowerCase().contains(low)) {
-                sb.append(String.format("Roll: %d, Name: %s, Average: %.2f, Grade: %c\n", s.rollNumber, s.name, s.average, s.grade));
-                any = true;
-            }
-        }
-        if (!any) JOptionPane.showMessageDialog(this, "No students found matching \"" + name + "\".");
-        else JOptionPane.showMessageDialog(this, sb.toString());
+        // the results are the filtered table itself
+        GradeEvents.Query event = new GradeEvents.Query("name", name);
+        event.results = filterBar.apply(name);
+        event.done();
+        if (event.results == 0) JOptionPane.showMessageDialog(this, "No students found matching \"" + name + "\".");
     }
 
     private void showStudentInfoDialog(Student s) {
@@ -566,12 +1362,12 @@ public class StudentGradeManagerGUI extends JFrame {
         sb.append("Name: ").append(s.name).append("\n");
         sb.append("Roll Number: ").append(s.rollNumber).append("\n");
         sb.append("Subjects & Marks:\n");
-        for (String subj : subjectNames) {
-            Integer v = s.subjectMarks.get(subj);
-            sb.append("  ").append(subj).append(": ").append((v == null || v == -1) ? "Absent" : v).append("\n");
+        for (int i = 0; i < subjectNames.size(); i++) {
+            int v = s.getMark(i);
+            sb.append("  ").append(subjectNames.get(i)).append(": ").append((v == -1) ? "Absent" : String.valueOf(v)).append("\n");
         }
-        sb.append(String.format("Average: %.2f\n", s.average));
-        sb.append("Grade: ").append(s.grade).append("\n");
+        sb.append(String.format("Average: %.2f\n", roster.average(s)));
+        sb.append("Grade: ").append(roster.grade(s)).append("\n");
         JOptionPane.showMessageDialog(this, sb.toString(), "Student Details", JOptionPane.INFORMATION_MESSAGE);
     }
 
@@ -604,10 +1400,9 @@ public class StudentGradeManagerGUI extends JFrame {
         dialog.setVisible(true);
     }
 
-    // Single findStudentByRoll method (no duplicates)
+    // Single findStudentByRoll method (no duplicates); O(1) via the roster's roll index
     private Student findStudentByRoll(int roll) {
-        for (Student s : students) if (s.rollNumber == roll) return s;
-        return null;
+        return roster.byRoll(roll);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,197 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+import java.util.List;
+
+// Read-only table model backed directly by the roster.
+// Cells are computed when JTable asks for them (visible rows only), so an edit costs one
+// row event instead of rebuilding every row; callers fire the fine-grained events.
+// Row i is the i-th student in the current sort order. With a name filter and/or a filter query
+// (FilterQuery) set, only the students matching both are shown, kept in their own index in the
+// same order.
+class StudentTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Roll Number", "Name", "Subjects & Marks", "Average", "Grade"};
+    // sort key for a click on each column header (null = not sortable)
+    private static final Roster.SortKey[] COLUMN_KEYS = {
+            Roster.SortKey.ROLL, Roster.SortKey.NAME, null, Roster.SortKey.AVERAGE, Roster.SortKey.GRADE
+    };
+
+    private final Roster roster;
+    private final MarkStore marks;
+    private Roster.SortKey sortKey = Roster.SortKey.NAME;
+    private String filter; // normalized query, null = show everyone
+    private FilterQuery query; // null = no filter query
+    private OrderedIndex filtered;
+
+    public StudentTableModel(Roster roster) {
+        this.roster = roster;
+        this.marks = roster.marks;
+    }
+
+    public Roster.SortKey getSortKey() {
+        return sortKey;
+    }
+
+    public void setSortKey(Roster.SortKey key) {
+        if (key == sortKey) return;
+        sortKey = key;
+        if (filtered != null) showFiltered(toList(filtered));
+        fireTableDataChanged();
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public FilterQuery getQuery() {
+        return query;
+    }
+
+    // True when some students are hidden by the name filter or the filter query
+    public boolean isFiltered() {
+        return filtered != null;
+    }
+
+    // Show only matches (students whose name contains the normalized query); null shows everyone
+    public void setFilter(String query, List<Student> matches) {
+        filter = query;
+        show(matches);
+        fireTableDataChanged();
+    }
+
+    // Show only students matching a filter query (matches = its result); null removes it
+    public void setQuery(FilterQuery q, List<Student> matches) {
+        query = q;
+        show(matches);
+        fireTableDataChanged();
+    }
+
+    // Re-run the current filters synchronously after bulk roster changes (load, clear, recompute).
+    // A filter query that no longer applies (its subject was removed) is dropped.
+    public void refilter() {
+        try {
+            show(null);
+        } catch (IllegalArgumentException ex) {
+            query = null;
+            show(null);
+        }
+    }
+
+    // Call after roster.add, or after roster.update following withdraw(); returns the student's
+    // row, or -1 if a filter hides it
+    public int admit(Student s) {
+        if (filtered == null) return rowOf(s);
+        if (!passes(s)) return -1;
+        filtered.insert(s);
+        return filtered.indexOf(s);
+    }
+
+    // matches = students passing one of the filters, or null to find them; the other filter is
+    // checked student by student
+    private void show(List<Student> matches) {
+        if (filter == null && query == null) {
+            filtered = null;
+            return;
+        }
+        if (matches == null) {
+            matches = (query != null) ? roster.filter(query).students()
+                    : roster.names.studentsAt(roster.names.search(filter, () -> false), filter);
+        }
+        List<Student> both = new ArrayList<>(matches.size());
+        for (Student s : matches) if (passes(s)) both.add(s);
+        showFiltered(both);
+    }
+
+    private boolean passes(Student s) {
+        if (filter != null && !roster.names.matches(s, filter)) return false;
+        try {
+            return query == null || query.test(s);
+        } catch (IllegalArgumentException ex) {
+            return true; // its subject is gone; refilter() drops it
+        }
+    }
+
+    // Call before roster.remove, or before roster.update (the filter view is keyed on the old values)
+    public void withdraw(Student s) {
+        if (filtered != null) filtered.remove(s);
+    }
+
+    public static Roster.SortKey sortKeyForColumn(int column) {
+        return (column >= 0 && column < COLUMN_KEYS.length) ? COLUMN_KEYS[column] : null;
+    }
+
+    public Student studentAt(int row) {
+        return view().get(row);
+    }
+
+    // Current row of s, or -1
+    public int rowOf(Student s) {
+        return view().indexOf(s);
+    }
+
+    private OrderedIndex view() {
+        return (filtered != null) ? filtered : roster.order(sortKey);
+    }
+
+    private void showFiltered(List<Student> matches) {
+        filtered = new OrderedIndex(sortKey.order);
+        if (matches.size() > roster.size() / 16) {
+            // a large share of the roster: walk the sorted order instead of sorting the matches
+            BitSet rows = new BitSet();
+            for (Student s : matches) rows.set(s.row);
+            List<Student> inOrder = new ArrayList<>(matches.size());
+            for (Student s : roster.order(sortKey)) if (rows.get(s.row)) inOrder.add(s);
+            matches = inOrder;
+        }
+        filtered.build(matches);
+    }
+
+    private static List<Student> toList(OrderedIndex idx) {
+        List<Student> out = new ArrayList<>(idx.size());
+        for (Student s : idx) out.add(s);
+        return out;
+    }
+
+    @Override
+    public int getRowCount() {
+        return view().size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Student s = studentAt(row);
+        switch (column) {
+            case 0: return s.rollNumber;
+            case 1: return s.name;
+            case 2: return subjectsAndMarks(s);
+            case 3: return String.format("%.2f", roster.average(s));
+            default: return roster.grade(s);
+        }
+    }
+
+    // Always show subjects in global order
+    private String subjectsAndMarks(Student s) {
+        StringBuilder subjMarks = new StringBuilder();
+        for (int i = 0; i < marks.subjectCount(); i++) {
+            if (i > 0) subjMarks.append("; ");
+            int val = s.getMark(i);
+            subjMarks.append(marks.subjectName(i)).append(": ").append(val == -1 ? "Absent" : String.valueOf(val));
+        }
+        return subjMarks.toString();
+    }
+}
@@ -0,0 +1,124 @@
+import java.io.*;
+import java.util.*;
+import java.util.List;
+
+// Deterministic synthetic rosters for benchmarks and load testing: the same settings and seed
+// always give the same students, byte for byte.
+// Names are drawn from small first/last name lists plus a number; a share of them is written
+// "Last, First" (so the CSV quotes them), a share of marks is Absent, and a share of rows reuses
+// an earlier roll number (a duplicate the loader must skip).
+//
+//   java SyntheticRoster [--students N] [--subjects M] [--absent R] [--quoted R] [--duplicates R] [--seed S] FILE
+class SyntheticRoster {
+    private static final String[] FIRST = {"Anitha", "Anu", "Aruna", "Hema", "John", "Joseph", "Kavya",
+            "Ragu", "Samantha", "Suba", "Vijay", "Priya", "Karthik", "Meena", "Arjun", "Divya"};
+    private static final String[] LAST = {"Kumar", "Raj", "Devi", "Mohan", "Lakshmi", "Babu", "Selvam", "Nair"};
+
+    int students = 100_000;
+    int subjects = 8;
+    double absentRatio = 0.05;
+    double quotedRatio = 0.10;
+    double duplicateRatio = 0.01;
+    long seed = 1;
+
+    // Subject list: the default subjects, then Subject6, Subject7, ...
+    List<String> subjectNames() {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < subjects; i++) {
+            out.add(i < Roster.DEFAULT_SUBJECTS.size() ? Roster.DEFAULT_SUBJECTS.get(i) : "Subject" + (i + 1));
+        }
+        return out;
+    }
+
+    // One generated row; rows come out in generation order
+    interface RowConsumer {
+        void row(String name, int roll, byte[] marks) throws IOException;
+    }
+
+    void generate(RowConsumer consumer) throws IOException {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        byte[] marks = new byte[subjects];
+        for (int i = 0; i < students; i++) {
+            String first = FIRST[rnd.nextInt(FIRST.length)], last = LAST[rnd.nextInt(LAST.length)];
+            int n = rnd.nextInt(1000);
+            String name = (rnd.nextDouble() < quotedRatio) ? last + ", " + first + n : first + " " + last + n;
+            // rolls 1..students in order, except duplicates, which repeat an earlier one
+            int roll = (i > 0 && rnd.nextDouble() < duplicateRatio) ? 1 + rnd.nextInt(i) : i + 1;
+            for (int j = 0; j < subjects; j++) {
+                marks[j] = (rnd.nextDouble() < absentRatio) ? MarkStore.ABSENT : (byte) (35 + rnd.nextInt(66));
+            }
+            consumer.row(name, roll, marks);
+        }
+    }
+
+    // Writes the roster in the loadcsv_format layout
+    void writeCsv(File file) throws IOException {
+        try (CsvExport.Writer w = new CsvExport.Writer(file, subjectNames())) {
+            generate((name, roll, marks) -> w.row(name, roll, marks, 0));
+            w.commit();
+        }
+    }
+
+    // Adds the generated students straight to a roster (first occurrence of a roll wins)
+    Roster populate() {
+        MarkStore store = new MarkStore(subjectNames());
+        Roster roster = new Roster(store);
+        RollIndex seen = new RollIndex(students);
+        List<Student> added = new ArrayList<>(students);
+        try {
+            generate((name, roll, marks) -> {
+                if (seen.contains(roll)) return;
+                Student s = new Student(name, roll, store);
+                for (int j = 0; j < marks.length; j++) s.setMark(j, marks[j]);
+                s.calculateAverageAndGrade();
+                seen.put(s);
+                added.add(s);
+            });
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // nothing here does I/O
+        }
+        roster.addAll(added);
+        return roster;
+    }
+
+    // Reads "--students N" style options; returns the arguments that are not options
+    List<String> parse(String[] args) {
+        List<String> rest = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            String v = (i + 1 < args.length) ? args[i + 1] : null;
+            switch (a) {
+                case "--students": students = Integer.parseInt(need(v, a)); i++; break;
+                case "--subjects": subjects = Integer.parseInt(need(v, a)); i++; break;
+                case "--absent": absentRatio = Double.parseDouble(need(v, a)); i++; break;
+                case "--quoted": quotedRatio = Double.parseDouble(need(v, a)); i++; break;
+                case "--duplicates": duplicateRatio = Double.parseDouble(need(v, a)); i++; break;
+                case "--seed": seed = Long.parseLong(need(v, a)); i++; break;
+                default: rest.add(a);
+            }
+        }
+        if (students < 0 || subjects < 1) throw new IllegalArgumentException("--students must be >= 0 and --subjects >= 1");
+        return rest;
+    }
+
+    private static String need(String v, String option) {
+        if (v == null) throw new IllegalArgumentException(option + " needs a value");
+        return v;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SyntheticRoster gen = new SyntheticRoster();
+        List<String> files;
+        try {
+            files = gen.parse(args);
+            if (files.size() != 1) throw new IllegalArgumentException("Give exactly one output file");
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Usage: java SyntheticRoster [--students N] [--subjects M] [--absent R] [--quoted R] [--duplicates R] [--seed S] FILE");
+            System.exit(2);
+            return;
+        }
+        gen.writeCsv(new File(files.get(0)));
+        System.err.printf("%s: %,d rows, %d subjects%n", files.get(0), gen.students, gen.subjects);
+    }
+}